@@ -0,0 +1,100 @@
+package com.driver.benchmark;
+
+import com.driver.SpotifyRepository;
+import com.driver.Song;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Length-based candidate selection (as createPlaylistOnLength and createPlaylistOnLengthRange read it) while
+ * songs are being created. "locked" copies the buckets of songLengthIndex under their locks, as the playlist
+ * paths did before the catalog was versioned; "snapshot" reads the published CatalogVersion. Each group runs
+ * three readers, of one length or of a range of lengths, and one writer, whose score includes building and
+ * publishing each version. The catalog is rebuilt for every iteration and iterations are short, so the
+ * songs the writer adds stay a small share of what the readers copy.
+ * -Djmh.args="-f 1 CatalogContentionBenchmark" (the thread count is rounded up to whole groups).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CatalogContentionBenchmark {
+
+    private static final int MIN_LENGTH = 120;
+    private static final int LENGTHS = 300;
+    private static final int RANGE = 10;
+
+    @Param({"locked", "snapshot"})
+    public String reader;
+
+    @Param({"100000"})
+    public int catalogSize;
+
+    private SpotifyRepository repository;
+    private int albums;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void populate() throws Exception {
+        repository = new SpotifyRepository();
+        albums = Math.max(1, catalogSize / 10);
+        for(int i = 0; i < albums; i++) repository.createAlbum("Album " + i, "Artist " + (i % 1_000));
+        for(int i = 0; i < catalogSize; i++) repository.createSong("Song " + i, "Album " + (i % albums), MIN_LENGTH + i % LENGTHS);
+    }
+
+    private static int length(){
+        return MIN_LENGTH + ThreadLocalRandom.current().nextInt(LENGTHS);
+    }
+
+    @Benchmark
+    @Group("length")
+    @GroupThreads(3)
+    public Object songsOfLength(){
+        int length = length();
+        if("snapshot".equals(reader)) return repository.catalog().songsOfLength(length);
+        List<Song> copy = new ArrayList<>();
+        List<Song> bucket = repository.songLengthIndex.get(length);
+        if(bucket!=null){
+            synchronized (bucket){
+                copy.addAll(bucket);
+            }
+        }
+        return copy;
+    }
+
+    @Benchmark
+    @Group("range")
+    @GroupThreads(3)
+    public Object songsOfLengths(){
+        int length = length();
+        if("snapshot".equals(reader)) return repository.catalog().songsOfLengths(length, length + RANGE);
+        List<Song> copy = new ArrayList<>();
+        for(List<Song> bucket: repository.songLengthIndex.subMap(length, true, length + RANGE, true).values()){
+            synchronized (bucket){
+                copy.addAll(bucket);
+            }
+        }
+        return copy;
+    }
+
+    @Benchmark
+    @Group("length")
+    @GroupThreads(1)
+    public Song createSong() throws Exception {
+        long n = sequence.incrementAndGet();
+        return repository.createSong("New Song " + n, "Album " + (n % albums), length());
+    }
+
+    @Benchmark
+    @Group("range")
+    @GroupThreads(1)
+    public Song createSongs() throws Exception {
+        return createSong();
+    }
+}
@@ -0,0 +1,57 @@
+package com.driver.benchmark;
+
+import com.driver.NameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name lookups as the repository resolves mobiles and titles: "map" is the ConcurrentHashMap keyed by the
+ * trimmed, lower-cased string the indexes used before, "dictionary" is NameIndex. Queries are drawn from
+ * spellings as requests send them (as created, upper-cased, padded). Run with the GC profiler to see the
+ * allocation per lookup: -Djmh.args="-prof gc NameIndexBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NameIndexBenchmark {
+
+    @Param({"map", "dictionary"})
+    public String index;
+
+    @Param({"1000000"})
+    public int names;
+
+    private ConcurrentHashMap<String, Integer> map;
+    private NameIndex<Integer> dictionary;
+    private String[] queries;
+
+    @Setup(Level.Trial)
+    public void populate(){
+        map = new ConcurrentHashMap<>();
+        dictionary = new NameIndex<>();
+        for(int i = 0; i < names; i++){
+            String title = "Song Title " + i;
+            if("map".equals(index)) map.put(title.trim().toLowerCase(Locale.ROOT), i);
+            else dictionary.put(title, i);
+        }
+        Random random = new Random(42);
+        queries = new String[1 << 16];
+        for(int i = 0; i < queries.length; i++){
+            String title = "Song Title " + random.nextInt(names);
+            int spelling = random.nextInt(3);
+            queries[i] = spelling==0 ? title : spelling==1 ? title.toUpperCase(Locale.ROOT) : " " + title + " ";
+        }
+    }
+
+    @Benchmark
+    public Integer lookup(){
+        String query = queries[ThreadLocalRandom.current().nextInt(queries.length)];
+        if("map".equals(index)) return map.get(query.trim().toLowerCase(Locale.ROOT));
+        return dictionary.get(query);
+    }
+}
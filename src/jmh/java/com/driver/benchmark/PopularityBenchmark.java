@@ -0,0 +1,96 @@
+package com.driver.benchmark;
+
+import com.driver.HeavyHitters;
+import com.driver.Leaderboard;
+import com.driver.LikeRanking;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accuracy against memory of the approximate like ranking (-Dspotify.popularity=approximate), next to the
+ * exact leaderboard. Each invocation feeds a Zipf-distributed stream of likes over the songs, one like at a
+ * time as likeSong does, and reports through the counters, which add up over the measurement iterations:
+ * recallPercent, the share of the true top 100 that the ranking's top 100 holds; topErrorPerMille, the mean
+ * overestimate of those songs' counts per thousand likes of theirs; and summaryBytes, the memory of the
+ * counters and sketch (the exact leaderboard's is not estimated). The time score is the cost of the stream.
+ * Run single-threaded: -Djmh.args="-f 1 PopularityBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class PopularityBenchmark {
+
+    private static final int TOP = 100;
+
+    @Param({"exact", "256", "1024", "4096"})
+    public String counters;
+
+    @Param({"1024", "4096", "16384"})
+    public int sketchWidth;
+
+    @Param({"1000000"})
+    public int likes;
+
+    @Param({"100000"})
+    public int songs;
+
+    private int[] stream;
+    private long[] exact;
+    private List<Integer> exactTop;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Accuracy {
+        public long recallPercent;
+        public long topErrorPerMille;
+        public long summaryBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        double[] cumulative = new double[songs];
+        double sum = 0;
+        for(int i = 0; i < songs; i++) cumulative[i] = sum += 1.0 / (i + 1);
+        Random random = new Random(42);
+        stream = new int[likes];
+        exact = new long[songs];
+        for(int i = 0; i < likes; i++){
+            int at = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            stream[i] = at>=0 ? at : -at - 1;
+            exact[stream[i]]++;
+        }
+        List<Integer> keys = new ArrayList<>(songs);
+        for(int i = 0; i < songs; i++) keys.add(i);
+        keys.sort((a, b) -> exact[a]!=exact[b] ? Long.compare(exact[b], exact[a]) : Integer.compare(a, b));
+        exactTop = new ArrayList<>(keys.subList(0, TOP));
+    }
+
+    @Benchmark
+    public Object rank(Accuracy accuracy){
+        boolean approximate = !"exact".equals(counters);
+        HeavyHitters<Integer> hitters = approximate ? new HeavyHitters<>(Integer.parseInt(counters), sketchWidth) : null;
+        LikeRanking<Integer> ranking = approximate ? hitters : new Leaderboard<>();
+        long[] running = new long[songs];
+        for(int song: stream){
+            ranking.record(0, song, song, (int) ++running[song], 1);
+        }
+
+        Set<Integer> found = new HashSet<>(ranking.top(TOP));
+        int hits = 0;
+        long over = 0;
+        long total = 0;
+        for(int song: exactTop){
+            if(found.contains(song)) hits++;
+            if(approximate) over += hitters.estimate(song) - exact[song];
+            total += exact[song];
+        }
+        accuracy.recallPercent += 100L * hits / TOP;
+        accuracy.topErrorPerMille += 1000 * over / Math.max(1, total);
+        if(approximate) accuracy.summaryBytes += hitters.bytes();
+        return ranking;
+    }
+}
@@ -0,0 +1,85 @@
+package com.driver.benchmark;
+
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of /spotify/recommendations and /spotify/similar-songs, the extra cost recommendations add to a like,
+ * and a full parallel rebuild. The catalog has catalogSize songs and a tenth as many users, each liking
+ * LIKES_PER_USER songs drawn with probability ~ 1 / rank, plus PLAYLISTS playlists of 50 songs with listeners.
+ * A rebuild holds the old and the new rows at once; at a million songs give it -Djmh.args="-jvmArgsAppend -Xmx4g".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecommendationsBenchmark {
+
+    private static final int LIKES_PER_USER = 20;
+    private static final int PLAYLISTS = 1_000;
+
+    @Param({"100000", "1000000"})
+    public int catalogSize;
+
+    private SpotifyRepository repository;
+    private int users;
+    private double[] cumulative;
+
+    @Setup(Level.Trial)
+    public void populate() throws Exception {
+        repository = new SpotifyRepository();
+        users = catalogSize / 10;
+        for(int i = 0; i < users; i++) repository.createUser("User " + i, "mobile-" + i);
+        for(int i = 0; i < catalogSize / 10; i++) repository.createAlbum("Album " + i, "Artist " + (i % 1_000));
+        for(int i = 0; i < catalogSize; i++) repository.createSong("Song " + i, "Album " + (i / 10), 200);
+
+        cumulative = new double[catalogSize];
+        double sum = 0;
+        for(int i = 0; i < catalogSize; i++) cumulative[i] = sum += 1.0 / (i + 1);
+        Random random = new Random(42);
+        for(int u = 0; u < users; u++){
+            for(int i = 0; i < LIKES_PER_USER; i++) repository.likeSong("mobile-" + u, "Song " + zipf(random));
+        }
+        for(int p = 0; p < PLAYLISTS; p++){
+            List<String> titles = new ArrayList<>(50);
+            for(int i = 0; i < 50; i++) titles.add("Song " + zipf(random));
+            repository.createPlaylistOnName("mobile-" + random.nextInt(users), "Playlist " + p, titles);
+            for(int i = 0; i < 20; i++) repository.findPlaylist("mobile-" + random.nextInt(users), "Playlist " + p);
+        }
+    }
+
+    private int zipf(Random random){
+        int at = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return at>=0 ? at : -at - 1;
+    }
+
+    @Benchmark
+    public Object recommendations() throws Exception {
+        return repository.recommendations("mobile-" + ThreadLocalRandom.current().nextInt(users), 10);
+    }
+
+    @Benchmark
+    public Object similarSongs() throws Exception {
+        return repository.similarSongs("Song " + zipf(ThreadLocalRandom.current()), 10);
+    }
+
+    @Benchmark
+    public Object likeSong() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return repository.likeSong("mobile-" + random.nextInt(users), "Song " + zipf(random));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SpotifyRepository rebuild(){
+        repository.rebuildRecommendations();
+        return repository;
+    }
+}
@@ -0,0 +1,83 @@
+package com.driver.benchmark;
+
+import com.driver.Playlist;
+import com.driver.Song;
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap retained by the like and membership graphs under the heap and the primitive relation store.
+ * Each invocation builds a catalog, then its likes, playlists and listeners, and reports the heap the
+ * relations retain after a full GC as the relationBytes / bytesPerEdge counters, which add up over the
+ * measurement iterations. The time score includes the forced collections and only matters as a rough
+ * build cost. Heap is measured for the whole JVM, so read the single-threaded results:
+ * -Djmh.args="-f 1 RelationStoreBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class RelationStoreBenchmark {
+
+    @Param({"heap", "primitive"})
+    public String store;
+
+    @Param({"1000000"})
+    public int likes;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RetainedHeap {
+        public long relationBytes;
+        public long edges;
+        public long bytesPerEdge;
+    }
+
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public Object build(RetainedHeap heap) throws Exception {
+        int users = likes / 50;
+        int songs = likes / 20;
+        int playlists = songs / 100;
+        Random random = new Random(42);
+
+        SpotifyRepository repository = new SpotifyRepository("primitive".equals(store));
+        for(int i = 0; i < users; i++) repository.createUser("User " + i, "mobile-" + i);
+        for(int i = 0; i < songs / 10; i++) repository.createAlbum("Album " + i, "Artist " + (i % 100));
+        for(int i = 0; i < songs; i++) repository.createSong("Song " + i, "Album " + (i / 10), 120 + i % 300);
+
+        long before = usedHeap();
+        for(int i = 0; i < likes; i++){
+            repository.likeSong("mobile-" + random.nextInt(users), "Song " + random.nextInt(songs));
+        }
+        for(int p = 0; p < playlists; p++){
+            List<String> titles = new ArrayList<>(50);
+            for(int i = 0; i < 50; i++) titles.add("Song " + random.nextInt(songs));
+            repository.createPlaylistOnName("mobile-" + random.nextInt(users), "Playlist " + p, titles);
+            for(int i = 0; i < 20; i++) repository.findPlaylist("mobile-" + random.nextInt(users), "Playlist " + p);
+        }
+        long after = usedHeap();
+
+        long edges = 0;
+        for(Song song: repository.songs.toArray(new Song[0])) edges += repository.getLikeCount(song);
+        for(Playlist playlist: repository.playlists.toArray(new Playlist[0])){
+            // songs, listeners and the listeners' playlist lists
+            edges += repository.getPlaylistSongs(playlist).size() + 2L * repository.getListenerCount(playlist);
+        }
+        heap.relationBytes += after - before;
+        heap.edges += edges;
+        heap.bytesPerEdge += (after - before) / Math.max(1, edges);
+        return repository;
+    }
+}
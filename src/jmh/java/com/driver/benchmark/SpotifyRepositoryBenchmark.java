@@ -0,0 +1,173 @@
+package com.driver.benchmark;
+
+import com.driver.SongRequest;
+import com.driver.SpotifyRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot paths of SpotifyRepository against a pre-populated catalog. Catalog
+ * size is a parameter so a regression that makes a call scale with the
+ * catalog shows up as a slope across sizes. Run through the jmh profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpotifyRepositoryBenchmark {
+
+    private static final int ARTISTS = 1_000;
+    private static final int PLAYLISTS = 1_000;
+    private static final int MIN_LENGTH = 120;
+    private static final int LENGTHS = 300;
+    private static final int BATCH = 1_000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int catalogSize;
+
+    // relation store: heap, primitive or sharded (one shard per core)
+    @Param({"heap"})
+    public String relations;
+
+    // entries per lookup cache; 0 resolves every lookup through the indexes
+    @Param({"16384"})
+    public int cacheEntries;
+
+    // the share of traffic, and the number of songs, users and playlists it goes to, in the *Hot benchmarks
+    private static final double HOT_SHARE = 0.9;
+    private static final int HOT_KEYS = 2_000;
+
+    private SpotifyRepository repository;
+    private int albums;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void populate() throws Exception {
+        System.setProperty("spotify.cache.entries", Integer.toString(cacheEntries));
+        repository = new SpotifyRepository(relations, Runtime.getRuntime().availableProcessors());
+        for(int i = 0; i < catalogSize; i++){
+            repository.createUser("User " + i, mobile(i));
+        }
+        albums = Math.max(1, catalogSize / 10);
+        for(int i = 0; i < albums; i++){
+            repository.createAlbum(album(i), "Artist " + (i % ARTISTS));
+        }
+        for(int i = 0; i < catalogSize; i++){
+            repository.createSong(song(i), album(i % albums), MIN_LENGTH + i % LENGTHS);
+        }
+        for(int i = 0; i < PLAYLISTS; i++){
+            repository.createPlaylistOnLength(mobile(i), playlist(i), MIN_LENGTH + i % LENGTHS);
+        }
+        // a skewed set of likes so the popularity rankings have something to rank
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < catalogSize; i++){
+            int song = (int) Math.abs(random.nextGaussian() * catalogSize / 100) % catalogSize;
+            repository.likeSong(mobile(i), song(song));
+        }
+    }
+
+    private static String mobile(int i){
+        return "mobile-" + i;
+    }
+
+    private static String album(int i){
+        return "Album " + i;
+    }
+
+    private static String song(int i){
+        return "Song " + i;
+    }
+
+    private static String playlist(int i){
+        return "Playlist " + i;
+    }
+
+    private int randomIndex(){
+        return ThreadLocalRandom.current().nextInt(catalogSize);
+    }
+
+    @Benchmark
+    public Object createUser(){
+        return repository.createUser("New User", "new-mobile-" + sequence.incrementAndGet());
+    }
+
+    @Benchmark
+    public Object createSong() throws Exception {
+        return repository.createSong("New Song " + sequence.incrementAndGet(), album(randomIndex() % albums), 200);
+    }
+
+    // per-song cost of bulk ingestion; 100k songs/s is 10,000 ns/op
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object createSongs(){
+        long batch = sequence.incrementAndGet();
+        List<SongRequest> songs = new ArrayList<>(BATCH);
+        for(int i = 0; i < BATCH; i++){
+            songs.add(new SongRequest("Batch " + batch + " Song " + i, album(randomIndex() % albums), MIN_LENGTH + i % LENGTHS));
+        }
+        return repository.createSongs(songs);
+    }
+
+    @Benchmark
+    public Object likeSong() throws Exception {
+        return repository.likeSong(mobile(randomIndex()), song(randomIndex()));
+    }
+
+    // most requests go to a small hot set, as in production traffic
+    private int skewedIndex(){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return random.nextDouble()<HOT_SHARE ? random.nextInt(Math.min(HOT_KEYS, catalogSize)) : random.nextInt(catalogSize);
+    }
+
+    @Benchmark
+    public Object likeHotSong() throws Exception {
+        return repository.likeSong(mobile(skewedIndex()), song(skewedIndex()));
+    }
+
+    @Benchmark
+    public Object findHotPlaylist() throws Exception {
+        return repository.findPlaylist(mobile(skewedIndex()), playlist(skewedIndex() % PLAYLISTS));
+    }
+
+    @Benchmark
+    public Object findPlaylist() throws Exception {
+        return repository.findPlaylist(mobile(randomIndex()), playlist(randomIndex() % PLAYLISTS));
+    }
+
+    @Benchmark
+    public Object createPlaylistOnLength() throws Exception {
+        int length = MIN_LENGTH + randomIndex() % LENGTHS;
+        return repository.createPlaylistOnLength(mobile(randomIndex()), "By Length " + sequence.incrementAndGet(), length);
+    }
+
+    @Benchmark
+    public Object createPlaylistOnName() throws Exception {
+        List<String> titles = new ArrayList<>(10);
+        for(int i = 0; i < 10; i++){
+            titles.add(song(randomIndex()));
+        }
+        return repository.createPlaylistOnName(mobile(randomIndex()), "By Name " + sequence.incrementAndGet(), titles);
+    }
+
+    // typeahead: a one-letter prefix matching every song, then a song number as it is typed
+    @Benchmark
+    public Object searchPrefix(){
+        String number = Integer.toString(randomIndex());
+        String typed = number.substring(0, 1 + ThreadLocalRandom.current().nextInt(number.length()));
+        return ThreadLocalRandom.current().nextBoolean() ? repository.search("s", 10) : repository.search("song " + typed, 10);
+    }
+
+    @Benchmark
+    public Object mostPopularArtist(){
+        return repository.mostPopularArtist();
+    }
+
+    @Benchmark
+    public Object mostPopularSong(){
+        return repository.mostPopularSong();
+    }
+}
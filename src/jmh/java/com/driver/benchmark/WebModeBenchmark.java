@@ -0,0 +1,72 @@
+package com.driver.benchmark;
+
+import com.driver.Application;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the write endpoints over HTTP against a persistent repository (fsynced log), in the blocking
+ * and the async web mode. Tomcat gets a small worker pool so that the number of concurrent clients exceeds
+ * it: in the blocking mode a worker is held for the whole fsync, in the async mode only until the write is
+ * applied. Compare the p99 of the two modes at the same client count, e.g.
+ * -Djmh.args="-f 1 -wi 2 -i 3 WebModeBenchmark" -Djmh.threads=64.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class WebModeBenchmark {
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    @Param({"8"})
+    public int workerThreads;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String base;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        Path dir = Files.createTempDirectory("spotify-web");
+        // read when the repository is first opened, so set before the context starts (JMH forks per trial)
+        System.setProperty("spotify.data.dir", dir.toString());
+        System.setProperty("spotify.web.async", Boolean.toString(async));
+        context = SpringApplication.run(Application.class, "--server.port=0",
+                "--server.tomcat.threads.max=" + workerThreads, "--server.tomcat.threads.min-spare=" + workerThreads,
+                "--logging.level.root=WARN");
+        base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/spotify";
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        send("/add-album?title=Album&artistName=Artist");
+        send("/add-song?title=Song&albumName=Album&length=200");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop(){
+        context.close();
+    }
+
+    private int send(String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + path)).POST(HttpRequest.BodyPublishers.noBody()).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public int addUser() throws Exception {
+        long i = sequence.incrementAndGet();
+        return send("/add-user?name=User&mobile=m" + i);
+    }
+}
@@ -6,6 +6,7 @@ import java.util.List;
 public class Album {
     private String title;
     private Date releaseDate;
+    private int id;
 
     public Album(){
 
@@ -24,6 +25,14 @@ public class Album {
         this.title = title;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public Date getReleaseDate() {
         return releaseDate;
     }
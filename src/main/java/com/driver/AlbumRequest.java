@@ -0,0 +1,31 @@
+package com.driver;
+
+public class AlbumRequest {
+    private String title;
+    private String artistName;
+
+    public AlbumRequest(){
+
+    }
+
+    public AlbumRequest(String title, String artistName){
+        this.title = title;
+        this.artistName = artistName;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getArtistName() {
+        return artistName;
+    }
+
+    public void setArtistName(String artistName) {
+        this.artistName = artistName;
+    }
+}
@@ -1,10 +1,12 @@
 package com.driver;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Artist {
     private String name;
-    private int likes;
+    private int id;
+    private final AtomicInteger likes = new AtomicInteger();
 
     public Artist(){
 
@@ -12,7 +14,6 @@ public class Artist {
 
     public Artist(String name){
         this.name = name;
-        this.likes = 0;
     }
 
     public String getName() {
@@ -23,11 +24,27 @@ public class Artist {
         this.name = name;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public int getLikes() {
-        return likes;
+        return likes.get();
     }
 
     public void setLikes(int likes) {
-        this.likes = likes;
+        this.likes.set(likes);
+    }
+
+    public int incrementLikes() {
+        return likes.incrementAndGet();
+    }
+
+    public int addLikes(int delta) {
+        return likes.addAndGet(delta);
     }
 }
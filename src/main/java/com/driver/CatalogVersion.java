@@ -0,0 +1,166 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// One published version of the catalog: artists, albums and songs by id, each artist's albums, each album's
+// songs and the songs of each length. A version never changes, so a reader uses whichever one it read without
+// locking, and it is consistent: a song's album and an album's artist are always in the same version as the
+// song. Writers build the next version from the current one (see SpotifyRepository.publishCatalog), sharing
+// every vector and bucket they do not change.
+public final class CatalogVersion {
+
+    public static final CatalogVersion EMPTY = new CatalogVersion(0, PersistentVector.empty(), PersistentVector.empty(),
+            PersistentVector.empty(), PersistentVector.empty(), PersistentVector.empty(), PersistentVector.empty(),
+            new int[0], new PersistentVector<?>[0]);
+
+    public final long version;
+    public final PersistentVector<Artist> artists;
+    public final PersistentVector<Album> albums;
+    public final PersistentVector<Song> songs;
+
+    // by artist id, by album id, by album id
+    private final PersistentVector<PersistentVector<Album>> artistAlbums;
+    private final PersistentVector<PersistentVector<Song>> albumSongs;
+    private final PersistentVector<Artist> albumArtists;
+
+    // distinct song lengths in ascending order, and the songs of each in creation order; a new length copies
+    // the two arrays, which hold one entry per distinct length, not per song
+    private final int[] lengths;
+    private final PersistentVector<?>[] songsByLength;
+
+    private CatalogVersion(long version, PersistentVector<Artist> artists, PersistentVector<Album> albums, PersistentVector<Song> songs,
+                           PersistentVector<PersistentVector<Album>> artistAlbums, PersistentVector<PersistentVector<Song>> albumSongs,
+                           PersistentVector<Artist> albumArtists, int[] lengths, PersistentVector<?>[] songsByLength){
+        this.version = version;
+        this.artists = artists;
+        this.albums = albums;
+        this.songs = songs;
+        this.artistAlbums = artistAlbums;
+        this.albumSongs = albumSongs;
+        this.albumArtists = albumArtists;
+        this.lengths = lengths;
+        this.songsByLength = songsByLength;
+    }
+
+    public List<Album> albumsOf(Artist artist){
+        return artist.getId()<artistAlbums.size() ? artistAlbums.get(artist.getId()) : Collections.emptyList();
+    }
+
+    public List<Song> songsOf(Album album){
+        return album.getId()<albumSongs.size() ? albumSongs.get(album.getId()) : Collections.emptyList();
+    }
+
+    public Artist artistOf(Album album){
+        return album.getId()<albumArtists.size() ? albumArtists.get(album.getId()) : null;
+    }
+
+    public List<Song> songsOfLength(int length){
+        return bucket(length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private PersistentVector<Song> bucket(int length){
+        int at = Arrays.binarySearch(lengths, length);
+        return at>=0 ? (PersistentVector<Song>) songsByLength[at] : PersistentVector.empty();
+    }
+
+    // songs ordered by length, then by creation within the same length
+    @SuppressWarnings("unchecked")
+    public List<Song> songsOfLengths(int minLength, int maxLength){
+        List<Song> result = new ArrayList<>();
+        if(minLength>maxLength) return result;
+        int from = Arrays.binarySearch(lengths, minLength);
+        for(int i = from>=0 ? from : -from - 1; i < lengths.length && lengths[i]<=maxLength; i++){
+            result.addAll((List<Song>) songsByLength[i]);
+        }
+        return result;
+    }
+
+    public Builder next(){
+        return new Builder(this);
+    }
+
+    // The next version, made from this one. Items must come in id order, each after what it refers to: an
+    // album after its artist, a song after its album, as the create paths assign ids.
+    public static final class Builder {
+        private final CatalogVersion base;
+        private PersistentVector<Artist> artists;
+        private PersistentVector<Album> albums;
+        private PersistentVector<Song> songs;
+        private PersistentVector<PersistentVector<Album>> artistAlbums;
+        private PersistentVector<PersistentVector<Song>> albumSongs;
+        private PersistentVector<Artist> albumArtists;
+        private final Map<Integer, PersistentVector<Song>> changedLengths = new TreeMap<>();
+
+        private Builder(CatalogVersion base){
+            this.base = base;
+            artists = base.artists;
+            albums = base.albums;
+            songs = base.songs;
+            artistAlbums = base.artistAlbums;
+            albumSongs = base.albumSongs;
+            albumArtists = base.albumArtists;
+        }
+
+        public Builder addArtist(Artist artist){
+            if(artist.getId()!=artists.size()) throw new IllegalStateException("Artist " + artist.getId() + " published out of order");
+            artists = artists.append(artist);
+            artistAlbums = artistAlbums.append(PersistentVector.empty());
+            return this;
+        }
+
+        public Builder addAlbum(Album album, Artist artist){
+            if(album.getId()!=albums.size()) throw new IllegalStateException("Album " + album.getId() + " published out of order");
+            albums = albums.append(album);
+            albumSongs = albumSongs.append(PersistentVector.empty());
+            albumArtists = albumArtists.append(artist);
+            artistAlbums = artistAlbums.with(artist.getId(), artistAlbums.get(artist.getId()).append(album));
+            return this;
+        }
+
+        public Builder addSong(Song song, Album album){
+            if(song.getId()!=songs.size()) throw new IllegalStateException("Song " + song.getId() + " published out of order");
+            songs = songs.append(song);
+            albumSongs = albumSongs.with(album.getId(), albumSongs.get(album.getId()).append(song));
+            PersistentVector<Song> bucket = changedLengths.get(song.getLength());
+            if(bucket==null) bucket = base.bucket(song.getLength());
+            changedLengths.put(song.getLength(), bucket.append(song));
+            return this;
+        }
+
+        public CatalogVersion build(){
+            int[] lengths = base.lengths;
+            PersistentVector<?>[] songsByLength = base.songsByLength;
+            if(!changedLengths.isEmpty()){
+                // merge the changed buckets into a copy of the sorted arrays
+                int[] merged = new int[lengths.length + changedLengths.size()];
+                PersistentVector<?>[] buckets = new PersistentVector<?>[merged.length];
+                int n = 0;
+                int i = 0;
+                for(Map.Entry<Integer, PersistentVector<Song>> e: changedLengths.entrySet()){
+                    int length = e.getKey();
+                    while(i<lengths.length && lengths[i]<length){
+                        merged[n] = lengths[i];
+                        buckets[n++] = songsByLength[i++];
+                    }
+                    if(i<lengths.length && lengths[i]==length) i++;
+                    merged[n] = length;
+                    buckets[n++] = e.getValue();
+                }
+                while(i<lengths.length){
+                    merged[n] = lengths[i];
+                    buckets[n++] = songsByLength[i++];
+                }
+                lengths = Arrays.copyOf(merged, n);
+                songsByLength = Arrays.copyOf(buckets, n);
+            }
+            return new CatalogVersion(base.version + 1, artists, albums, songs, artistAlbums, albumSongs, albumArtists,
+                    lengths, songsByLength);
+        }
+    }
+}
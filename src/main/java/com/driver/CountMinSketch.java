@@ -0,0 +1,64 @@
+package com.driver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Count-Min Sketch over int keys: depth rows of width counters, one hashed counter per row for each key.
+// estimate() is never below the true count and, with probability 1 - e^-depth, exceeds it by at most
+// e / width of everything added. Updates are lock-free. Two sketches of the same shape and seed merge by
+// adding their counters, so shards or nodes can each keep one and combine them.
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final long seed;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray total = new AtomicLongArray(1);
+
+    public CountMinSketch(int depth, int width, long seed){
+        this.depth = Math.max(1, depth);
+        this.width = Math.max(1, width);
+        this.seed = seed;
+        this.counters = new AtomicLongArray(this.depth * this.width);
+    }
+
+    private int index(int row, int key){
+        // a different multiplier per row, then a murmur3-style finish
+        long h = (key + seed) * (0x9E3779B97F4A7C15L + 2L * row);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return row * width + (int) Math.floorMod(h, (long) width);
+    }
+
+    public void add(int key, long count){
+        for(int row = 0; row < depth; row++) counters.addAndGet(index(row, key), count);
+        total.addAndGet(0, count);
+    }
+
+    public long estimate(int key){
+        long min = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++) min = Math.min(min, counters.get(index(row, key)));
+        return min;
+    }
+
+    // how far estimate() may exceed the true count, with probability 1 - e^-depth
+    public long errorBound(){
+        return (long) Math.ceil(Math.E / width * total.get(0));
+    }
+
+    public long total(){
+        return total.get(0);
+    }
+
+    public void merge(CountMinSketch other){
+        if(other.depth!=depth || other.width!=width || other.seed!=seed){
+            throw new IllegalArgumentException("Only sketches of the same shape and seed can be merged");
+        }
+        for(int i = 0; i < counters.length(); i++) counters.addAndGet(i, other.counters.get(i));
+        total.addAndGet(0, other.total());
+    }
+
+    public long bytes(){
+        return 8L * counters.length();
+    }
+}
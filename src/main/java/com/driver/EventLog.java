@@ -0,0 +1,529 @@
+package com.driver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * History of likes and listens, for audits and for rebuilding what is derived from them. An append-only log
+ * split into numbered segments (events-<n>.seg) of fixed-size records [type][user id][song or playlist id]
+ * [time in ms], written through a FileChannel in batches by one flusher thread: an append only copies into a
+ * buffer, and the flusher writes whatever has accumulated every FLUSH_MILLIS or once BATCH_BYTES are waiting.
+ * The buffer never grows past MAX_PENDING_BYTES: when the flusher falls that far behind, new events are dropped
+ * and counted rather than held.
+ *
+ * A segment is sealed once it reaches segmentBytes. Sealed segments beyond the newest keepSegments are
+ * compacted into a summary (summary-<n>.sum: likes per song and per user, listens per playlist and per user,
+ * over every segment up to n) and deleted, so the disk holds about keepSegments segments plus one count per
+ * id, however long the history. The first summary of a log opened over existing data holds the counts as
+ * they were, so the summary and the segments together always account for every like and listen.
+ *
+ * replay() folds the summary and then every segment into any aggregate, the segments in parallel, each into
+ * an aggregate of its own that is merged in segment order. The write-ahead log stays the source of truth:
+ * a crash can lose the events of the last flush, and recovery does not record the likes it replays again,
+ * so whatever is rebuilt from the history is checked against the repository (see rebuildLikesFromEvents).
+ */
+public class EventLog implements Closeable {
+
+    static final int MAGIC = 0x53504556; // "SPEV"
+    static final int SUMMARY_MAGIC = 0x53505355; // "SPSU"
+
+    public static final byte LIKE = 1;
+    public static final byte LISTEN = 2;
+
+    // type, user, item, time
+    static final int RECORD = 1 + 4 + 4 + 8;
+    private static final int BATCH_BYTES = 64 * RECORD * 64;
+    private static final long FLUSH_MILLIS = 50;
+    // what the buffer may grow to while the flusher is behind; past it, events are dropped and counted
+    static final int MAX_PENDING_BYTES = 64 * BATCH_BYTES;
+
+    private static final Metrics.Counter DROPPED = Metrics.counter("eventLog.dropped");
+
+    // Aggregate a replay folds the history into, one per segment plus one for the summary.
+    public interface Replay<A> {
+        A create();
+
+        // the counts compacted out of deleted segments, given once to the first aggregate
+        default void summary(A into, Summary summary){
+        }
+
+        void event(A into, byte type, int user, int item, long time);
+
+        // earlier holds the events before later's
+        A merge(A earlier, A later);
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int keepSegments;
+    private final Thread flusher;
+
+    // guards the channel, the segment list and the summary; taken before the monitor of this
+    private final Object ioLock = new Object();
+    private FileChannel channel;
+    private long generation;
+    private final List<Long> sealed = new ArrayList<>();
+    private Summary summary;
+
+    // replays read segments under the read lock; compaction deletes them under the write lock
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private final Object compactLock = new Object();
+
+    // guarded by this
+    private byte[] pending = new byte[BATCH_BYTES];
+    private int pendingSize;
+    private boolean closed;
+    private IOException failure;
+    private long dropped;
+
+    private EventLog(Path dir, long segmentBytes, int keepSegments, Summary summary, List<Long> sealed, long generation) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.max(RECORD * 64L, segmentBytes);
+        this.keepSegments = Math.max(0, keepSegments);
+        this.summary = summary;
+        this.sealed.addAll(sealed);
+        this.generation = generation;
+        this.channel = openSegment(generation);
+        this.flusher = new Thread(this::flushLoop, "event-log-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Opens the log in dir, starting a new segment: a recovered one may end in a torn record. baseline gives
+    // the counts to start from when the directory holds no log yet.
+    public static EventLog open(Path dir, long segmentBytes, int keepSegments, Supplier<Summary> baseline) throws IOException {
+        Files.createDirectories(dir);
+        List<Long> summaries = RepositoryPersistence.generations(dir, "summary-", ".sum");
+        List<Long> segments = RepositoryPersistence.generations(dir, "events-", ".seg");
+        Summary summary;
+        if(summaries.isEmpty()){
+            summary = baseline.get().covering(segments.isEmpty() ? 0 : segments.get(0) - 1);
+            writeSummary(dir, summary);
+        } else {
+            summary = readSummary(summaryPath(dir, summaries.get(summaries.size() - 1)));
+        }
+        // a compaction that stopped before deleting what it summarized
+        for(long g: summaries){
+            if(g<summary.upTo) Files.deleteIfExists(summaryPath(dir, g));
+        }
+        List<Long> live = new ArrayList<>();
+        for(long g: segments){
+            if(g<=summary.upTo) Files.deleteIfExists(segmentPath(dir, g));
+            else live.add(g);
+        }
+        long next = Math.max(summary.upTo, live.isEmpty() ? 0 : live.get(live.size() - 1)) + 1;
+        EventLog log = new EventLog(dir, segmentBytes, keepSegments, summary, live, next);
+        log.compact();
+        return log;
+    }
+
+    static Path segmentPath(Path dir, long generation){
+        return dir.resolve("events-" + generation + ".seg");
+    }
+
+    static Path summaryPath(Path dir, long upTo){
+        return dir.resolve("summary-" + upTo + ".sum");
+    }
+
+    private FileChannel openSegment(long generation) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(dir, generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+        header.flip();
+        while(header.hasRemaining()) ch.write(header);
+        return ch;
+    }
+
+    public void like(int user, int song, long time){
+        append(LIKE, user, song, time);
+    }
+
+    public void listen(int user, int playlist, long time){
+        append(LISTEN, user, playlist, time);
+    }
+
+    // history never fails a request: once a write fails, events are dropped, and flush, replay and close
+    // throw the failure instead; while the disk or the flusher is behind and the buffer is full, events are
+    // dropped and counted (see droppedEvents)
+    private synchronized void append(byte type, int user, int item, long time){
+        if(closed || failure!=null) return;
+        if(pendingSize + RECORD>pending.length){
+            if(pending.length>=MAX_PENDING_BYTES){
+                dropped++;
+                DROPPED.increment();
+                return;
+            }
+            pending = Arrays.copyOf(pending, Math.min(pending.length * 2, MAX_PENDING_BYTES));
+        }
+        byte[] b = pending;
+        int p = pendingSize;
+        b[p] = type;
+        putInt(b, p + 1, user);
+        putInt(b, p + 5, item);
+        putInt(b, p + 9, (int) (time >>> 32));
+        putInt(b, p + 13, (int) time);
+        pendingSize = p + RECORD;
+        if(pendingSize>=BATCH_BYTES) notifyAll();
+    }
+
+    private static void putInt(byte[] b, int p, int v){
+        b[p] = (byte) (v >>> 24);
+        b[p + 1] = (byte) (v >>> 16);
+        b[p + 2] = (byte) (v >>> 8);
+        b[p + 3] = (byte) v;
+    }
+
+    private void flushLoop(){
+        while(true){
+            synchronized (this){
+                if(!closed && pendingSize<BATCH_BYTES){
+                    try {
+                        wait(FLUSH_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(closed || failure!=null) return;
+            }
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                synchronized (this){
+                    if(failure==null) failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                return;
+            }
+        }
+    }
+
+    // writes every event appended so far, compacting if that sealed a segment
+    public void flush() throws IOException {
+        checkFailure();
+        try {
+            if(write()) compact();
+        } catch (IOException | RuntimeException e) {
+            synchronized (this){
+                if(failure==null) failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            throw e;
+        }
+    }
+
+    // the history is incomplete from the first failed write on
+    private void checkFailure() throws IOException {
+        IOException current;
+        synchronized (this){
+            current = failure;
+        }
+        if(current!=null) throw new IOException("Event log stopped recording", current);
+    }
+
+    // true if the write sealed a segment
+    private boolean write() throws IOException {
+        synchronized (ioLock){
+            byte[] batch;
+            int size;
+            synchronized (this){
+                if(pendingSize==0) return false;
+                batch = pending;
+                size = pendingSize;
+                pending = new byte[BATCH_BYTES];
+                pendingSize = 0;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(batch, 0, size);
+            while(buffer.hasRemaining()) channel.write(buffer);
+            if(channel.size()<segmentBytes) return false;
+            channel.force(false);
+            channel.close();
+            sealed.add(generation);
+            generation++;
+            channel = openSegment(generation);
+            return true;
+        }
+    }
+
+    // Folds the history into an aggregate: the summary, then every segment, the segments in parallel.
+    public <A> A replay(Replay<A> replay) throws IOException {
+        flush();
+        segmentsLock.readLock().lock();
+        try {
+            Summary base;
+            List<Path> files = new ArrayList<>();
+            synchronized (ioLock){
+                base = summary;
+                for(long g: sealed) files.add(segmentPath(dir, g));
+                files.add(segmentPath(dir, generation));
+            }
+            A first = replay.create();
+            replay.summary(first, base);
+            try {
+                A events = files.parallelStream().map(file -> {
+                    try {
+                        return fold(file, replay);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).reduce(replay::merge).orElse(null);
+                return events==null ? first : replay.merge(first, events);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    // every whole record of a segment, mapped rather than read; stops at a torn or unwritten record
+    private static <A> A fold(Path file, Replay<A> replay) throws IOException {
+        A into = replay.create();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = ch.size();
+            if(size<4) return into;
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(map.getInt(0)!=MAGIC) return into;
+            long end = 4 + (size - 4) / RECORD * RECORD;
+            for(int p = 4; p < end; p += RECORD){
+                byte type = map.get(p);
+                if(type!=LIKE && type!=LISTEN) break;
+                replay.event(into, type, map.getInt(p + 1), map.getInt(p + 5), map.getLong(p + 9));
+            }
+        }
+        return into;
+    }
+
+    // Folds the sealed segments beyond the newest keepSegments into the summary and deletes them.
+    public void compact() throws IOException {
+        synchronized (compactLock){
+            List<Long> victims;
+            Summary base;
+            synchronized (ioLock){
+                if(sealed.size()<=keepSegments) return;
+                victims = new ArrayList<>(sealed.subList(0, sealed.size() - keepSegments));
+                base = summary;
+            }
+            // sealed segments never change, and only this method deletes them, so they are read unlocked
+            Summary next = base;
+            List<Summary> parts = new ArrayList<>();
+            victims.parallelStream().map(g -> {
+                try {
+                    return fold(segmentPath(dir, g), Summary.COUNTS);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).forEachOrdered(parts::add);
+            for(Summary part: parts) next = next.merge(part);
+            next = next.covering(victims.get(victims.size() - 1));
+            writeSummary(dir, next);
+
+            segmentsLock.writeLock().lock();
+            try {
+                synchronized (ioLock){
+                    summary = next;
+                    sealed.removeAll(victims);
+                }
+                for(long g: victims) Files.deleteIfExists(segmentPath(dir, g));
+                Files.deleteIfExists(summaryPath(dir, base.upTo));
+            } finally {
+                segmentsLock.writeLock().unlock();
+            }
+        }
+    }
+
+    // events not recorded because the buffer was full; the history undercounts by this many
+    public synchronized long droppedEvents(){
+        return dropped;
+    }
+
+    // segments on disk, the one being written included
+    public int segmentCount(){
+        synchronized (ioLock){
+            return sealed.size() + 1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this){
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (ioLock){
+            try {
+                checkFailure();
+                write();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static void writeSummary(Path dir, Summary summary) throws IOException {
+        Path tmp = dir.resolve("summary-" + summary.upTo + ".tmp");
+        long[][] columns = summary.columns();
+        int bytes = 4 + 8;
+        for(long[] column: columns) bytes += 4 + 8 * column.length;
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        buffer.putInt(SUMMARY_MAGIC).putLong(summary.upTo);
+        for(long[] column: columns){
+            buffer.putInt(column.length);
+            for(long v: column) buffer.putLong(v);
+        }
+        buffer.flip();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            while(buffer.hasRemaining()) ch.write(buffer);
+            ch.force(true);
+        }
+        Files.move(tmp, summaryPath(dir, summary.upTo), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Summary readSummary(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if(map.getInt()!=SUMMARY_MAGIC) throw new IOException("Not an event summary: " + file);
+            long upTo = map.getLong();
+            long[][] columns = new long[4][];
+            for(int c = 0; c < columns.length; c++){
+                columns[c] = new long[map.getInt()];
+                for(int i = 0; i < columns[c].length; i++) columns[c][i] = map.getLong();
+            }
+            return new Summary(upTo, columns[0], columns[1], columns[2], columns[3]);
+        }
+    }
+
+    /**
+     * Like and listen counts by id: likes per song and per user, listens per playlist and per user. The
+     * compacted part of the history, and, through COUNTS, the replay that recomputes them from events.
+     */
+    public static final class Summary {
+
+        // replays the history into its counts
+        public static final Replay<Summary> COUNTS = new Replay<Summary>() {
+            @Override
+            public Summary create(){
+                return new Summary();
+            }
+
+            @Override
+            public void summary(Summary into, Summary summary){
+                into.add(summary);
+            }
+
+            @Override
+            public void event(Summary into, byte type, int user, int item, long time){
+                into.add(type, user, item, 1);
+            }
+
+            @Override
+            public Summary merge(Summary earlier, Summary later){
+                earlier.add(later);
+                return earlier;
+            }
+        };
+
+        // the last segment these counts include
+        final long upTo;
+        private long[] songLikes;
+        private long[] userLikes;
+        private long[] playlistListens;
+        private long[] userListens;
+
+        public Summary(){
+            this(0, new long[0], new long[0], new long[0], new long[0]);
+        }
+
+        private Summary(long upTo, long[] songLikes, long[] userLikes, long[] playlistListens, long[] userListens){
+            this.upTo = upTo;
+            this.songLikes = songLikes;
+            this.userLikes = userLikes;
+            this.playlistListens = playlistListens;
+            this.userListens = userListens;
+        }
+
+        // count more events of the type; a negative user or item counts only the other side
+        public void add(byte type, int user, int item, long count){
+            if(type==LIKE){
+                songLikes = add(songLikes, item, count);
+                userLikes = add(userLikes, user, count);
+            } else {
+                playlistListens = add(playlistListens, item, count);
+                userListens = add(userListens, user, count);
+            }
+        }
+
+        private static long[] add(long[] counts, int id, long count){
+            if(id<0) return counts;
+            if(id>=counts.length) counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+            counts[id] += count;
+            return counts;
+        }
+
+        void add(Summary other){
+            songLikes = addAll(songLikes, other.songLikes);
+            userLikes = addAll(userLikes, other.userLikes);
+            playlistListens = addAll(playlistListens, other.playlistListens);
+            userListens = addAll(userListens, other.userListens);
+        }
+
+        private static long[] addAll(long[] counts, long[] more){
+            if(more.length>counts.length) counts = Arrays.copyOf(counts, more.length);
+            for(int i = 0; i < more.length; i++) counts[i] += more[i];
+            return counts;
+        }
+
+        // a new summary with both counts, covering what this one covers
+        Summary merge(Summary other){
+            Summary merged = new Summary(upTo, songLikes.clone(), userLikes.clone(), playlistListens.clone(), userListens.clone());
+            merged.add(other);
+            return merged;
+        }
+
+        Summary covering(long upTo){
+            return new Summary(upTo, songLikes, userLikes, playlistListens, userListens);
+        }
+
+        private long[][] columns(){
+            return new long[][]{songLikes, userLikes, playlistListens, userListens};
+        }
+
+        private static long at(long[] counts, int id){
+            return id>=0 && id<counts.length ? counts[id] : 0;
+        }
+
+        public long songLikes(int song){
+            return at(songLikes, song);
+        }
+
+        public long userLikes(int user){
+            return at(userLikes, user);
+        }
+
+        public long playlistListens(int playlist){
+            return at(playlistListens, playlist);
+        }
+
+        public long userListens(int user){
+            return at(userListens, user);
+        }
+
+        // one past the highest song id with likes
+        public int songs(){
+            return songLikes.length;
+        }
+    }
+}
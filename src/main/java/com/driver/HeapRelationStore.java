@@ -0,0 +1,114 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// The default store: the repository's public object maps (songLikeMap, playlistSongMap,
+// playlistListenerMap, userPlaylistMap, creatorPlaylistMap), kept as they always were.
+final class HeapRelationStore implements RelationStore {
+
+    private final SpotifyRepository repository;
+
+    HeapRelationStore(SpotifyRepository repository){
+        this.repository = repository;
+    }
+
+    @Override
+    public boolean addLike(Song song, User user){
+        return repository.songLikeMap.computeIfAbsent(song, this::initialLikers).add(user);
+    }
+
+    // the likers a song was loaded with, read into the heap the first time the song is liked again
+    private Set<User> initialLikers(Song song){
+        Set<User> likers = ConcurrentHashMap.newKeySet();
+        int[] cold = repository.coldLikers(song.getId());
+        if(cold!=null){
+            for(int user: cold) likers.add(repository.users.get(user));
+        }
+        return likers;
+    }
+
+    @Override
+    public boolean hasLike(Song song, User user){
+        Set<User> likers = repository.songLikeMap.get(song);
+        return likers==null ? repository.coldLiked(song.getId(), user.getId()) : likers.contains(user);
+    }
+
+    @Override
+    public int likeCount(Song song){
+        Set<User> likers = repository.songLikeMap.get(song);
+        return likers==null ? repository.coldLikerCount(song.getId()) : likers.size();
+    }
+
+    @Override
+    public int[] likerIds(Song song){
+        Set<User> likers = repository.songLikeMap.get(song);
+        return likers==null ? null : ids(likers);
+    }
+
+    @Override
+    public void addPlaylist(Playlist playlist, User creator, List<Song> songs){
+        repository.playlistSongMap.put(playlist, songs);
+        NavigableSet<User> listeners = RelationStore.listenerSet();
+        listeners.add(creator);
+        repository.playlistListenerMap.put(playlist, listeners);
+        repository.creatorPlaylistMap.put(creator, playlist);
+        repository.userPlaylistMap.computeIfAbsent(creator, k -> new CopyOnWriteArrayList<>()).add(playlist);
+    }
+
+    @Override
+    public List<Song> playlistSongs(Playlist playlist){
+        List<Song> songs = repository.playlistSongMap.get(playlist);
+        return songs==null ? Collections.emptyList() : songs;
+    }
+
+    @Override
+    public boolean addListener(Playlist playlist, User user){
+        Set<User> listeners = repository.playlistListenerMap.computeIfAbsent(playlist, k -> RelationStore.listenerSet());
+        if(!listeners.add(user)) return false;
+        repository.userPlaylistMap.computeIfAbsent(user, k -> new CopyOnWriteArrayList<>()).add(playlist);
+        return true;
+    }
+
+    @Override
+    public boolean hasListener(Playlist playlist, User user){
+        Set<User> listeners = repository.playlistListenerMap.get(playlist);
+        return listeners!=null && listeners.contains(user);
+    }
+
+    @Override
+    public int listenerCount(Playlist playlist){
+        Set<User> listeners = repository.playlistListenerMap.get(playlist);
+        return listeners==null ? 0 : listeners.size();
+    }
+
+    @Override
+    public int[] listenerIds(Playlist playlist){
+        Set<User> listeners = repository.playlistListenerMap.get(playlist);
+        return listeners==null ? new int[0] : ids(listeners);
+    }
+
+    @Override
+    public int[] listenerIds(Playlist playlist, int from, int count){
+        NavigableSet<User> listeners = repository.playlistListenerMap.get(playlist);
+        return listeners==null ? new int[0] : RelationStore.idPage(listeners, from, count);
+    }
+
+    @Override
+    public List<Playlist> userPlaylists(User user){
+        List<Playlist> playlists = repository.userPlaylistMap.get(user);
+        return playlists==null ? Collections.emptyList() : playlists;
+    }
+
+    @Override
+    public Playlist createdPlaylist(User user){
+        return repository.creatorPlaylistMap.get(user);
+    }
+
+    private static int[] ids(Set<User> users){
+        IntList ids = new IntList(users.size() + 1);
+        for(User u: users) ids.add(u.getId());
+        return ids.toArray();
+    }
+}
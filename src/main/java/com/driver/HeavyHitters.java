@@ -0,0 +1,140 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Approximate like ranking in fixed memory, for -Dspotify.popularity=approximate: a Space-Saving summary
+// picks the candidates for the top and a Count-Min Sketch tightens their counts. Items are keyed by their
+// order, which is the dense id of a song or artist.
+//
+// The summary is split into partitions by item, each under its own lock, so likes of different items rarely
+// contend; the sketch is lock-free. Each partition is an independent Space-Saving summary of the items hashed
+// to it, so the guarantee holds per partition: an item liked more than N_p / k_p times is always ranked, where
+// N_p is the likes of all items in its partition and k_p its share of the counters (counters / 16, rounded
+// up). Items hash evenly, so that is about total / counters, but an item sharing its partition with much more
+// liked ones needs more. A ranked item's count is over by at most the smaller of its Space-Saving error and
+// the sketch's error bound. Below that the ranking may miss items or order them by overestimates, which only
+// matters far from the top that is usually asked for.
+//
+// Two instances built with the same sizes merge, so shards or nodes can each count their own likes and a
+// reader can combine them.
+public class HeavyHitters<T> implements LikeRanking<T> {
+
+    private static final int PARTITIONS = 16;
+
+    private final CountMinSketch sketch;
+    private final SpaceSaving<T>[] partitions;
+
+    @SuppressWarnings("unchecked")
+    public HeavyHitters(int counters, int sketchWidth){
+        sketch = new CountMinSketch(4, sketchWidth, 0x5EED);
+        partitions = (SpaceSaving<T>[]) new SpaceSaving<?>[PARTITIONS];
+        int perPartition = (Math.max(1, counters) + PARTITIONS - 1) / PARTITIONS;
+        for(int i = 0; i < PARTITIONS; i++) partitions[i] = new SpaceSaving<>(perPartition);
+    }
+
+    private SpaceSaving<T> partition(int key){
+        int h = key * 0x9E3779B9;
+        return partitions[(h ^ (h >>> 16)) & (PARTITIONS - 1)];
+    }
+
+    private void add(T item, int key, long added){
+        sketch.add(key, added);
+        SpaceSaving<T> partition = partition(key);
+        synchronized (partition){
+            partition.add(key, item, added);
+        }
+    }
+
+    @Override
+    public void update(T item, int order, int likes){
+        if(likes>0) add(item, order, likes);
+    }
+
+    @Override
+    public void record(int shard, T item, int order, int totalLikes, int added){
+        add(item, order, added);
+    }
+
+    private static final class Candidate<T> {
+        final T item;
+        final int key;
+        final long count;
+
+        Candidate(T item, int key, long count){
+            this.item = item;
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    @Override
+    public List<T> top(int k){
+        List<T> result = new ArrayList<>();
+        if(k<=0) return result;
+        List<Candidate<T>> estimated = new ArrayList<>();
+        for(SpaceSaving<T> partition: partitions){
+            synchronized (partition){
+                partition.forEach((key, item, count, error) ->
+                        estimated.add(new Candidate<>(item, key, Math.min(count, sketch.estimate(key)))));
+            }
+        }
+        estimated.sort((a, b) -> {
+            if(a.count!=b.count) return a.count>b.count ? -1 : 1;
+            return Integer.compare(a.key, b.key);
+        });
+        for(int i = 0; i < estimated.size() && i < k; i++) result.add(estimated.get(i).item);
+        return result;
+    }
+
+    // the estimated likes of the item with the given order; never below the true count
+    public long estimate(int order){
+        SpaceSaving<T> partition = partition(order);
+        long counted;
+        synchronized (partition){
+            counted = partition.count(order);
+        }
+        long sketched = sketch.estimate(order);
+        return counted==0 ? sketched : Math.min(counted, sketched);
+    }
+
+    // how far estimate() may be over, with probability 1 - e^-4
+    public long errorBound(){
+        return sketch.errorBound();
+    }
+
+    public long total(){
+        return sketch.total();
+    }
+
+    // Adds the likes another instance counted, e.g. one per shard or node, into this one. The other instance
+    // must have the same sizes and should not be taking likes meanwhile.
+    public void merge(HeavyHitters<T> other){
+        if(other.partitions[0].capacity()!=partitions[0].capacity()){
+            throw new IllegalArgumentException("Only heavy hitters with the same number of counters can be merged");
+        }
+        sketch.merge(other.sketch);
+        for(int i = 0; i < PARTITIONS; i++){
+            synchronized (partitions[i]){
+                partitions[i].merge(other.partitions[i]);
+            }
+        }
+    }
+
+    @Override
+    public int size(){
+        int size = 0;
+        for(SpaceSaving<T> partition: partitions){
+            synchronized (partition){
+                size += partition.size();
+            }
+        }
+        return size;
+    }
+
+    public long bytes(){
+        long bytes = sketch.bytes();
+        for(SpaceSaving<T> partition: partitions) bytes += partition.bytes();
+        return bytes;
+    }
+}
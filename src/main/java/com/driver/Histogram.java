@@ -0,0 +1,74 @@
+package com.driver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of non-negative values, in the style of HdrHistogram: every power of two is split into
+// 32 equal buckets, so a percentile is reported within about 3% of the recorded value. Values below 64 are
+// exact and values from 2^42 (about 73 minutes in nanoseconds) up share the last bucket.
+// record() only increments counters, so it does not allocate; reads are not atomic across buckets.
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 42;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value){
+        if(value<0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        total.increment();
+        sum.add(value);
+        long seen = max.get();
+        while(value>seen && !max.compareAndSet(seen, value)) seen = max.get();
+    }
+
+    static int bucket(long value){
+        if(value<SUB_COUNT * 2) return (int) value;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if(exponent==MAX_EXPONENT) return BUCKETS - 1;
+        int shift = exponent - SUB_BITS;
+        // the top bit and the SUB_BITS below it, which is SUB_COUNT..2*SUB_COUNT-1
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    // the highest value that falls into the bucket
+    static long upperBound(int bucket){
+        if(bucket<SUB_COUNT * 2) return bucket;
+        int shift = bucket / SUB_COUNT - 1;
+        long top = bucket % SUB_COUNT + SUB_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public long count(){
+        return total.sum();
+    }
+
+    public long max(){
+        return max.get();
+    }
+
+    public double mean(){
+        long n = total.sum();
+        return n==0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // the smallest bucket bound at or below which at least the given fraction of the values fall
+    public long percentile(double fraction){
+        long n = total.sum();
+        if(n==0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts.get(i);
+            if(seen>=rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,206 @@
+package com.driver;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+// Adjacency from dense int ids to int ids with one int[] per node: [size, slots...]. In a distinct graph
+// the slots are an open-addressing hash set holding id + 1 (0 is free); in a sorted graph they are distinct
+// values in ascending order, so a page of values from a bound is a binary search, at the price of shifting
+// the row on every insert; otherwise they are a list in insertion order. Rows live in fixed-size chunks so
+// the graph grows without copying, and a row is only read or written under its node's stripe lock.
+final class IntGraph {
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    private final boolean distinct;
+    private final boolean sorted;
+    private final AtomicReferenceArray<int[][]> chunks = new AtomicReferenceArray<>(1 << (31 - CHUNK_BITS));
+    private final StripedLock locks = new StripedLock(256);
+
+    IntGraph(boolean distinct){
+        this(distinct, false);
+    }
+
+    private IntGraph(boolean distinct, boolean sorted){
+        this.distinct = distinct;
+        this.sorted = sorted;
+    }
+
+    static IntGraph sorted(){
+        return new IntGraph(true, true);
+    }
+
+    private int[][] chunk(int node, boolean create){
+        int c = node >>> CHUNK_BITS;
+        int[][] chunk = chunks.get(c);
+        if(chunk==null && create){
+            chunks.compareAndSet(c, null, new int[CHUNK][]);
+            chunk = chunks.get(c);
+        }
+        return chunk;
+    }
+
+    // adds an edge; a node seen for the first time starts out with the seed's values, if any.
+    // Returns false if a distinct graph already had the edge.
+    boolean add(int node, int value, IntFunction<int[]> seed){
+        int[][] chunk = chunk(node, true);
+        int slot = node & (CHUNK - 1);
+        synchronized (locks.lockFor(node)){
+            int[] row = chunk[slot];
+            if(row==null){
+                int[] initial = seed==null ? null : seed.apply(node);
+                row = newRow(initial==null ? 1 : initial.length + 1);
+                if(initial!=null){
+                    for(int v: initial) row = insert(row, v);
+                }
+            }
+            int size = row[0];
+            row = insert(row, value);
+            chunk[slot] = row;
+            return row[0]!=size;
+        }
+    }
+
+    // replaces a node's values; list graphs only
+    void set(int node, int[] values){
+        int[] row = new int[values.length + 1];
+        row[0] = values.length;
+        System.arraycopy(values, 0, row, 1, values.length);
+        int[][] chunk = chunk(node, true);
+        synchronized (locks.lockFor(node)){
+            chunk[node & (CHUNK - 1)] = row;
+        }
+    }
+
+    boolean has(int node){
+        int[][] chunk = chunk(node, false);
+        if(chunk==null) return false;
+        synchronized (locks.lockFor(node)){
+            return chunk[node & (CHUNK - 1)]!=null;
+        }
+    }
+
+    // whether a distinct node has the value
+    boolean contains(int node, int value){
+        int[][] chunk = chunk(node, false);
+        if(chunk==null) return false;
+        synchronized (locks.lockFor(node)){
+            int[] row = chunk[node & (CHUNK - 1)];
+            if(row==null) return false;
+            if(sorted) return Arrays.binarySearch(row, 1, row[0] + 1, value)>=0;
+            int mask = row.length - 2;
+            int stored = value + 1;
+            for(int i = hash(value) & mask; ; i = (i + 1) & mask){
+                int current = row[1 + i];
+                if(current==stored) return true;
+                if(current==0) return false;
+            }
+        }
+    }
+
+    int size(int node){
+        int[][] chunk = chunk(node, false);
+        if(chunk==null) return 0;
+        synchronized (locks.lockFor(node)){
+            int[] row = chunk[node & (CHUNK - 1)];
+            return row==null ? 0 : row[0];
+        }
+    }
+
+    // a copy of the node's values; list graphs keep insertion order, sorted graphs ascending order
+    int[] values(int node){
+        int[][] chunk = chunk(node, false);
+        if(chunk==null) return new int[0];
+        int[] row;
+        synchronized (locks.lockFor(node)){
+            row = chunk[node & (CHUNK - 1)];
+            if(row==null) return new int[0];
+            if(!distinct || sorted) return Arrays.copyOfRange(row, 1, row[0] + 1);
+            row = row.clone();
+        }
+        int[] values = new int[row[0]];
+        int n = 0;
+        for(int i = 1; i < row.length; i++){
+            if(row[i]!=0) values[n++] = row[i] - 1;
+        }
+        return values;
+    }
+
+    // up to count of a list or sorted node's values from the given position on
+    int[] values(int node, int from, int count){
+        int[][] chunk = chunk(node, false);
+        if(chunk==null) return new int[0];
+        synchronized (locks.lockFor(node)){
+            int[] row = chunk[node & (CHUNK - 1)];
+            if(row==null || from>=row[0]) return new int[0];
+            return Arrays.copyOfRange(row, 1 + from, 1 + (int) Math.min(row[0], (long) from + count));
+        }
+    }
+
+    // the count smallest values of a sorted node at or above from, in order
+    int[] smallest(int node, int from, int count){
+        int[][] chunk = chunk(node, false);
+        if(chunk==null) return new int[0];
+        synchronized (locks.lockFor(node)){
+            int[] row = chunk[node & (CHUNK - 1)];
+            if(row==null) return new int[0];
+            int at = Arrays.binarySearch(row, 1, row[0] + 1, from);
+            int start = at>=0 ? at : -at - 1;
+            return Arrays.copyOfRange(row, start, start + Math.max(0, Math.min(count, row[0] + 1 - start)));
+        }
+    }
+
+    private int[] newRow(int expected){
+        if(!distinct || sorted) return new int[1 + Math.max(expected, 2)];
+        int capacity = 4;
+        while(capacity<expected * 2) capacity <<= 1;
+        return new int[1 + capacity];
+    }
+
+    private int[] insert(int[] row, int value){
+        int size = row[0];
+        if(!distinct){
+            if(size + 1==row.length) row = Arrays.copyOf(row, 1 + (row.length - 1) * 2);
+            row[++row[0]] = value;
+            return row;
+        }
+        if(sorted){
+            int at = Arrays.binarySearch(row, 1, size + 1, value);
+            if(at>=0) return row;
+            at = -at - 1;
+            if(size + 1==row.length) row = Arrays.copyOf(row, 1 + (row.length - 1) * 2);
+            System.arraycopy(row, at, row, at + 1, size + 1 - at);
+            row[at] = value;
+            row[0] = size + 1;
+            return row;
+        }
+        // keep the table at most half full
+        if((size + 1) * 2>row.length - 1) row = rehash(row, (row.length - 1) * 2);
+        int mask = row.length - 2;
+        int stored = value + 1;
+        for(int i = hash(value) & mask; ; i = (i + 1) & mask){
+            int current = row[1 + i];
+            if(current==stored) return row;
+            if(current==0){
+                row[1 + i] = stored;
+                row[0] = size + 1;
+                return row;
+            }
+        }
+    }
+
+    private int[] rehash(int[] row, int capacity){
+        int[] next = new int[1 + capacity];
+        for(int i = 1; i < row.length; i++){
+            if(row[i]!=0) next = insert(next, row[i] - 1);
+        }
+        return next;
+    }
+
+    private static int hash(int value){
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,38 @@
+package com.driver;
+
+import java.util.Arrays;
+
+// Growable array of ints, for building id columns without boxing.
+final class IntList {
+    private int[] values;
+    private int size;
+
+    IntList(){
+        this(16);
+    }
+
+    IntList(int capacity){
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    void add(int value){
+        if(size==values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    int get(int index){
+        return values[index];
+    }
+
+    void clear(){
+        size = 0;
+    }
+
+    int size(){
+        return size;
+    }
+
+    int[] toArray(){
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,154 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.ToIntFunction;
+
+// Ranks items by like count, highest first; ties go to the item created first.
+// Counts only ever grow, so an update carrying a count that is not higher than the ranked one is stale and dropped.
+//
+// A sharded leaderboard keeps one ranking per shard, each ordered by the likes recorded in that shard, so
+// likes from different shards never touch the same ranking. An item's total is the sum over shards and is
+// read back through the total function; top(k) merges the shard rankings with the threshold algorithm.
+public class Leaderboard<T> implements LikeRanking<T> {
+
+    private static final class Entry<T> {
+        final T item;
+        final int likes;
+        final int order;
+
+        Entry(T item, int likes, int order){
+            this.item = item;
+            this.likes = likes;
+            this.order = order;
+        }
+    }
+
+    private static final class Shard<T> {
+        final ConcurrentSkipListSet<Entry<T>> ranking = new ConcurrentSkipListSet<>((a, b) -> {
+            if(a.likes!=b.likes) return a.likes>b.likes ? -1 : 1;
+            return Integer.compare(a.order, b.order);
+        });
+        final ConcurrentHashMap<T, Entry<T>> current = new ConcurrentHashMap<>();
+        final StripedLock locks = new StripedLock(64);
+
+        // sets the item's count in this shard, or with added > 0 raises it by that much
+        void update(T item, int order, int likes, int added){
+            synchronized (locks.lockFor(item)){
+                Entry<T> old = current.get(item);
+                if(added>0) likes = (old==null ? 0 : old.likes) + added;
+                if(old!=null && old.likes>=likes) return;
+                Entry<T> next = new Entry<>(item, likes, order);
+                // add before removing so a concurrent reader never sees the item missing;
+                // until the old entry is gone readers skip it as stale
+                ranking.add(next);
+                current.put(item, next);
+                if(old!=null) ranking.remove(old);
+            }
+        }
+
+        int likes(T item){
+            Entry<T> e = current.get(item);
+            return e==null ? 0 : e.likes;
+        }
+    }
+
+    private final Shard<T>[] shards;
+    private final ToIntFunction<T> total;
+
+    public Leaderboard(){
+        this(1, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Leaderboard(int shardCount, ToIntFunction<T> total){
+        shards = (Shard<T>[]) new Shard<?>[Math.max(1, shardCount)];
+        for(int i = 0; i < shards.length; i++) shards[i] = new Shard<>();
+        this.total = total;
+    }
+
+    // sets the item's count; on a sharded leaderboard the whole count is kept in the first shard
+    @Override
+    public void update(T item, int order, int likes){
+        shards[0].update(item, order, likes, 0);
+    }
+
+    // added more likes from the given shard; totalLikes is the item's new overall count
+    @Override
+    public void record(int shard, T item, int order, int totalLikes, int added){
+        if(shards.length==1) shards[0].update(item, order, totalLikes, 0);
+        else shards[shard % shards.length].update(item, order, 0, added);
+    }
+
+    @Override
+    public List<T> top(int k){
+        List<T> result = new ArrayList<>();
+        if(k<=0) return result;
+        if(shards.length>1) return merge(k);
+        Shard<T> shard = shards[0];
+        for(Entry<T> e : shard.ranking){
+            if(shard.current.get(e.item)!=e) continue;
+            result.add(e.item);
+            if(result.size()==k) break;
+        }
+        return result;
+    }
+
+    // Reads every shard's ranking in step. An item not seen yet has at most the last count read from each
+    // shard, so once k items have a total above the sum of those counts nothing unseen can outrank them.
+    private List<T> merge(int k){
+        List<Iterator<Entry<T>>> cursors = new ArrayList<>(shards.length);
+        for(Shard<T> shard: shards) cursors.add(shard.ranking.iterator());
+        int[] frontier = new int[shards.length];
+        Set<T> seen = new HashSet<>();
+        TreeSet<Entry<T>> best = new TreeSet<>((a, b) -> {
+            if(a.likes!=b.likes) return a.likes>b.likes ? -1 : 1;
+            return Integer.compare(a.order, b.order);
+        });
+
+        boolean more = true;
+        while(more){
+            more = false;
+            for(int s = 0; s < shards.length; s++){
+                Entry<T> e = next(shards[s], cursors.get(s));
+                frontier[s] = e==null ? 0 : e.likes;
+                if(e==null) continue;
+                more = true;
+                if(seen.add(e.item)){
+                    best.add(new Entry<>(e.item, totalOf(e.item), e.order));
+                    if(best.size()>k) best.pollLast();
+                }
+            }
+            long threshold = 0;
+            for(int f: frontier) threshold += f;
+            if(best.size()==k && best.last().likes>threshold) break;
+        }
+        List<T> result = new ArrayList<>(best.size());
+        for(Entry<T> e: best) result.add(e.item);
+        return result;
+    }
+
+    private static <T> Entry<T> next(Shard<T> shard, Iterator<Entry<T>> cursor){
+        while(cursor.hasNext()){
+            Entry<T> e = cursor.next();
+            if(shard.current.get(e.item)==e) return e;
+        }
+        return null;
+    }
+
+    private int totalOf(T item){
+        if(total!=null) return total.applyAsInt(item);
+        int sum = 0;
+        for(Shard<T> shard: shards) sum += shard.likes(item);
+        return sum;
+    }
+
+    @Override
+    public int size(){
+        if(shards.length==1) return shards[0].current.size();
+        Set<T> items = new HashSet<>();
+        for(Shard<T> shard: shards) items.addAll(shard.current.keySet());
+        return items.size();
+    }
+}
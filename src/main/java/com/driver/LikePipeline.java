@@ -0,0 +1,132 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous path for likes. A request only validates the user and the song and enqueues the like;
+ * writer threads drain their queue in batches and apply them, with one counter and leaderboard update
+ * per song and artist per batch (see SpotifyRepository.applyLikes). A user's likes always go to the same
+ * writer, so they are applied in order.
+ *
+ * The queues are bounded: when a writer falls behind, a like waits briefly for room and is then rejected,
+ * which pushes back on callers instead of letting the backlog grow. flush() is the barrier for
+ * read-your-writes: it returns once every like enqueued before it has been applied (and logged).
+ *
+ * Likes are acknowledged before they are applied, so a batch that fails to apply cannot be reported to
+ * its callers. It poisons the pipeline instead: it is counted in the likePipeline.failures metric, later
+ * likes are rejected, and flush() throws, so the loss is never silent.
+ */
+public class LikePipeline {
+
+    static final class Like {
+        final User user;
+        final Song song;
+
+        Like(User user, Song song){
+            this.user = user;
+            this.song = song;
+        }
+    }
+
+    private final SpotifyRepository repository;
+    private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final long offerTimeoutMillis;
+    private final int maxBatch;
+    // the first failed batch, if any
+    private volatile RuntimeException failure;
+
+    private static final Metrics.Counter FAILURES = Metrics.counter("likePipeline.failures");
+
+    LikePipeline(SpotifyRepository repository, int writerCount, int capacity, long offerTimeoutMillis){
+        this.repository = repository;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        int count = Math.max(1, writerCount);
+        int perWriter = Math.max(1, capacity / count);
+        this.maxBatch = Math.min(perWriter, 1024);
+        for(int i = 0; i < count; i++){
+            queues.add(new ArrayBlockingQueue<>(perWriter));
+            int writer = i;
+            Thread t = new Thread(() -> drain(writer), "like-writer-" + i);
+            t.setDaemon(true);
+            writers.add(t);
+        }
+        writers.forEach(Thread::start);
+    }
+
+    void submit(User user, Song song) throws Exception {
+        RuntimeException failed = failure;
+        if(failed!=null) throw new Exception("Likes are not being applied: " + failed);
+        int h = user.getMobile().hashCode();
+        BlockingQueue<Object> queue = queues.get(Math.floorMod(h ^ (h >>> 16), queues.size()));
+        if(!queue.offer(new Like(user, song), offerTimeoutMillis, TimeUnit.MILLISECONDS)){
+            throw new Exception("Too many pending likes, try again later");
+        }
+    }
+
+    // throws IllegalStateException once a batch has failed to apply
+    public void flush() throws InterruptedException {
+        List<CountDownLatch> barriers = new ArrayList<>(queues.size());
+        for(BlockingQueue<Object> queue: queues){
+            CountDownLatch barrier = new CountDownLatch(1);
+            queue.put(barrier);
+            barriers.add(barrier);
+        }
+        for(CountDownLatch barrier: barriers) barrier.await();
+        RuntimeException failed = failure;
+        if(failed!=null) throw new IllegalStateException("Applying likes failed", failed);
+    }
+
+    // applies what is queued, then stops the writers
+    public void close() throws InterruptedException {
+        try {
+            flush();
+        } finally {
+            writers.forEach(Thread::interrupt);
+            for(Thread t: writers) t.join();
+        }
+    }
+
+    private void drain(int writer){
+        BlockingQueue<Object> queue = queues.get(writer);
+        List<Object> batch = new ArrayList<>(maxBatch);
+        List<Like> likes = new ArrayList<>(maxBatch);
+        while(true){
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            for(Object event: batch){
+                if(event instanceof Like){
+                    likes.add((Like) event);
+                    continue;
+                }
+                // everything queued ahead of a barrier is applied before it is released
+                apply(writer, likes);
+                ((CountDownLatch) event).countDown();
+            }
+            apply(writer, likes);
+            batch.clear();
+        }
+    }
+
+    private void apply(int writer, List<Like> likes){
+        if(likes.isEmpty()) return;
+        try {
+            repository.applyLikes(likes, writer);
+        } catch (RuntimeException e) {
+            // keep the writer alive so the rest of the queue is still applied and barriers released
+            FAILURES.error(e);
+            if(failure==null) failure = e;
+        } finally {
+            likes.clear();
+        }
+    }
+}
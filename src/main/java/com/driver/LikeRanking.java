@@ -0,0 +1,25 @@
+package com.driver;
+
+import java.util.List;
+
+// Ranks songs or artists by likes for mostPopularSong / mostPopularArtist and the top-k queries.
+// Leaderboard ranks every liked item exactly; HeavyHitters (-Dspotify.popularity=approximate) keeps a
+// fixed-size summary of the most liked ones.
+public interface LikeRanking<T> {
+
+    // sets the item's count, when loading a catalog
+    void update(T item, int order, int likes);
+
+    // added more likes from the given shard; totalLikes is the item's new overall count
+    void record(int shard, T item, int order, int totalLikes, int added);
+
+    default T top(){
+        List<T> top = top(1);
+        return top.isEmpty() ? null : top.get(0);
+    }
+
+    List<T> top(int k);
+
+    // items currently ranked
+    int size();
+}
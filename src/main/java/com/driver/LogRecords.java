@@ -0,0 +1,117 @@
+package com.driver;
+
+import java.io.*;
+import java.util.List;
+
+// Binary encoding of repository mutations in the write-ahead log.
+// Songs and artists carry their id so replay can check that it rebuilds the same ids.
+public final class LogRecords {
+
+    static final byte USER = 1;
+    static final byte ARTIST = 2;
+    static final byte ALBUM = 3;
+    static final byte SONG = 4;
+    static final byte PLAYLIST = 5;
+    static final byte LISTEN = 6;
+    static final byte LIKE = 7;
+
+    private LogRecords(){
+
+    }
+
+    private static final class Writer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        Writer(byte type) throws IOException {
+            out.writeByte(type);
+        }
+    }
+
+    private static byte[] encode(byte type, Object... fields){
+        try {
+            Writer w = new Writer(type);
+            for(Object field: fields){
+                if(field instanceof String) w.out.writeUTF((String) field);
+                else if(field instanceof Integer) w.out.writeInt((Integer) field);
+                else throw new IllegalArgumentException("Unsupported field " + field);
+            }
+            return w.bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] user(String name, String mobile){
+        return encode(USER, name, mobile);
+    }
+
+    static byte[] artist(int id, String name){
+        return encode(ARTIST, id, name);
+    }
+
+    static byte[] album(String title, String artistName){
+        return encode(ALBUM, title, artistName);
+    }
+
+    static byte[] song(int id, String title, String albumTitle, int length){
+        return encode(SONG, id, title, albumTitle, length);
+    }
+
+    static byte[] playlist(String creatorMobile, String title, List<Song> songs){
+        try {
+            Writer w = new Writer(PLAYLIST);
+            w.out.writeUTF(creatorMobile);
+            w.out.writeUTF(title);
+            w.out.writeInt(songs.size());
+            for(Song s: songs) w.out.writeInt(s.getId());
+            return w.bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] listen(String mobile, String playlistTitle){
+        return encode(LISTEN, mobile, playlistTitle);
+    }
+
+    static byte[] like(String mobile, int songId){
+        return encode(LIKE, mobile, songId);
+    }
+
+    // applies one record to the repository
+    static void apply(byte[] payload, SpotifyRepository repository) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type){
+            case USER:
+                repository.createUser(in.readUTF(), in.readUTF());
+                return;
+            case ARTIST:
+                repository.restoreArtist(in.readInt(), in.readUTF());
+                return;
+            case ALBUM:
+                repository.restoreAlbum(in.readUTF(), in.readUTF());
+                return;
+            case SONG:
+                repository.restoreSong(in.readInt(), in.readUTF(), in.readUTF(), in.readInt());
+                return;
+            case PLAYLIST: {
+                String mobile = in.readUTF();
+                String title = in.readUTF();
+                int[] songIds = new int[in.readInt()];
+                for(int i = 0; i < songIds.length; i++) songIds[i] = in.readInt();
+                repository.restorePlaylist(mobile, title, songIds);
+                return;
+            }
+            case LISTEN:
+                repository.restoreListener(in.readUTF(), in.readUTF());
+                return;
+            case LIKE:
+                repository.restoreLike(in.readUTF(), in.readInt());
+                return;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.driver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Bounded read-through cache for name lookups (mobile -> User, title -> Song, title -> Playlist), keyed by the
+// string exactly as the request sent it, so a hot key skips normalizing and the index lookup.
+// Eviction is CLOCK, an LRU approximation: a hit only sets the entry's referenced bit, without a lock, and an
+// insert into a full cache sweeps the ring of keys, clearing bits until it finds an entry not used since the
+// last sweep. Memory is bounded by the capacity however large the catalog is.
+// Unknown keys are cached too, stamped with the current generation; invalidate() starts a new one, which the
+// create paths call once a new key is published, so a cached miss never hides something created after it.
+public class LookupCache<V> {
+
+    private static final class Miss {
+    }
+
+    private static final class Node {
+        final Object value;
+        volatile boolean referenced;
+
+        Node(Object value){
+            this.value = value;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Node> entries;
+    private volatile Miss generation = new Miss();
+
+    // guarded by this: the keys in insertion slots and the clock hand
+    private final String[] ring;
+    private int used;
+    private int hand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // capacity 0 disables the cache: every get resolves
+    public LookupCache(int capacity){
+        this.capacity = Math.max(0, capacity);
+        this.entries = new ConcurrentHashMap<>(Math.max(16, this.capacity * 4 / 3));
+        this.ring = new String[this.capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(String key, Function<String, V> resolve){
+        if(capacity==0) return resolve.apply(key);
+        Node node = entries.get(key);
+        // read the generation before resolving: a key published after this read bumps it, so the miss is stale
+        Miss current = generation;
+        if(node!=null && (!(node.value instanceof Miss) || node.value==current)){
+            if(!node.referenced) node.referenced = true;
+            hits.increment();
+            return node.value instanceof Miss ? null : (V) node.value;
+        }
+        misses.increment();
+        V value = resolve.apply(key);
+        insert(key, new Node(value!=null ? value : current));
+        return value;
+    }
+
+    private synchronized void insert(String key, Node node){
+        // a stale miss is replaced in its slot
+        if(entries.replace(key, node)!=null) return;
+        if(used<capacity){
+            ring[used++] = key;
+            entries.put(key, node);
+            return;
+        }
+        while(true){
+            Node candidate = entries.get(ring[hand]);
+            if(candidate.referenced){
+                candidate.referenced = false;
+                hand = (hand + 1) % capacity;
+                continue;
+            }
+            entries.remove(ring[hand]);
+            ring[hand] = key;
+            hand = (hand + 1) % capacity;
+            evictions.increment();
+            entries.put(key, node);
+            return;
+        }
+    }
+
+    // forgets every cached miss
+    public void invalidate(){
+        if(capacity>0) generation = new Miss();
+    }
+
+    public long hits(){
+        return hits.sum();
+    }
+
+    public long misses(){
+        return misses.sum();
+    }
+
+    public long evictions(){
+        return evictions.sum();
+    }
+
+    public int size(){
+        return entries.size();
+    }
+}
@@ -0,0 +1,408 @@
+package com.driver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Columnar snapshot of a repository, read through FileChannel.map (catalog-<generation>.col).
+ *
+ * Every attribute is a fixed-width column indexed by id, so opening a catalog only maps the file and
+ * reads its header; the OS pages a column in when it is first read, and nothing is copied to the heap
+ * until an accessor is called. Songs and artists are numbered by their ids, users, albums and playlists
+ * by their position in the repository lists. Layout:
+ *
+ *   header   magic, version, entity counts, [offset, length] of every section
+ *   strings  [int byte length][UTF-8 bytes]; a string never crosses a 1 GB boundary, so each GB maps on its own
+ *   columns  one section per column, big-endian; string columns hold longs relative to the string section,
+ *            one-to-many relations (likers, liked songs, playlist songs and listeners) are a start column plus
+ *            an id column
+ *   footer   magic again, so a truncated file is rejected
+ *
+ * Version 1 had no liked songs per user; such a catalog still opens, and hasUserLikes() tells them apart.
+ */
+public final class MappedCatalog {
+
+    static final int MAGIC = 0x5350434c; // "SPCL"
+    static final int VERSION = 2;
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK = 1L << CHUNK_BITS;
+
+    private static final int ARTIST_NAME = 0;
+    private static final int ARTIST_LIKES = 1;
+    private static final int USER_NAME = 2;
+    private static final int USER_MOBILE = 3;
+    private static final int ALBUM_TITLE = 4;
+    private static final int ALBUM_ARTIST = 5;
+    private static final int SONG_TITLE = 6;
+    private static final int SONG_ALBUM = 7;
+    private static final int SONG_LENGTH = 8;
+    private static final int SONG_LIKES = 9;
+    private static final int SONG_LIKER_START = 10;
+    private static final int SONG_LIKERS = 11;
+    private static final int PLAYLIST_TITLE = 12;
+    private static final int PLAYLIST_CREATOR = 13;
+    private static final int PLAYLIST_SONG_START = 14;
+    private static final int PLAYLIST_SONGS = 15;
+    private static final int PLAYLIST_LISTENER_START = 16;
+    private static final int PLAYLIST_LISTENERS = 17;
+    private static final int USER_LIKE_START = 18;
+    private static final int USER_LIKES = 19;
+    private static final int STRINGS = 20;
+    private static final int SECTIONS = 21;
+
+    // version 1 ended its sections with the strings right after PLAYLIST_LISTENERS
+    private static final int V1_SECTIONS = 19;
+
+    private static final int HEADER_BYTES = headerBytes(SECTIONS);
+
+    private static int headerBytes(int sections){
+        return 4 + 4 + 5 * 4 + sections * 16;
+    }
+
+    private final int artistCount;
+    private final int userCount;
+    private final int albumCount;
+    private final int songCount;
+    private final int playlistCount;
+    private final ByteBuffer[] columns;
+    private final ByteBuffer[] strings;
+
+    private MappedCatalog(int[] counts, ByteBuffer[] columns, ByteBuffer[] strings){
+        this.artistCount = counts[0];
+        this.userCount = counts[1];
+        this.albumCount = counts[2];
+        this.songCount = counts[3];
+        this.playlistCount = counts[4];
+        this.columns = columns;
+        this.strings = strings;
+    }
+
+    // maps the file; cost does not depend on its size
+    public static MappedCatalog open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size<headerBytes(V1_SECTIONS) + 4) throw new IOException("Truncated catalog: " + file);
+            ByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - 4, 4);
+            if(prefix.getInt()!=MAGIC || footer.getInt()!=MAGIC) throw new IOException("Not a catalog: " + file);
+            int version = prefix.getInt();
+            if(version!=VERSION && version!=1) throw new IOException("Unsupported catalog version " + version + ": " + file);
+            int sections = version==1 ? V1_SECTIONS : SECTIONS;
+            if(size<headerBytes(sections) + 4) throw new IOException("Truncated catalog: " + file);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerBytes(sections));
+            header.position(8);
+
+            int[] counts = new int[5];
+            for(int i = 0; i < counts.length; i++) counts[i] = header.getInt();
+
+            ByteBuffer[] columns = new ByteBuffer[SECTIONS];
+            ByteBuffer[] strings = null;
+            for(int i = 0; i < sections; i++){
+                int s = version==1 && i==V1_SECTIONS - 1 ? STRINGS : i;
+                long offset = header.getLong();
+                long length = header.getLong();
+                if(offset<headerBytes(sections) || length<0 || offset + length>size - 4) throw new IOException("Corrupt catalog: " + file);
+                if(s==STRINGS){
+                    strings = new ByteBuffer[(int) ((length + CHUNK - 1) >>> CHUNK_BITS)];
+                    for(int c = 0; c < strings.length; c++){
+                        long start = c * CHUNK;
+                        strings[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, Math.min(CHUNK, length - start));
+                    }
+                } else {
+                    if(length>Integer.MAX_VALUE) throw new IOException("Corrupt catalog: " + file);
+                    columns[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                }
+            }
+            return new MappedCatalog(counts, columns, strings);
+        }
+    }
+
+    public int artistCount(){
+        return artistCount;
+    }
+
+    public int userCount(){
+        return userCount;
+    }
+
+    public int albumCount(){
+        return albumCount;
+    }
+
+    public int songCount(){
+        return songCount;
+    }
+
+    public int playlistCount(){
+        return playlistCount;
+    }
+
+    public String artistName(int artist){
+        return string(ARTIST_NAME, artist);
+    }
+
+    public int artistLikes(int artist){
+        return intAt(ARTIST_LIKES, artist);
+    }
+
+    public String userName(int user){
+        return string(USER_NAME, user);
+    }
+
+    public String userMobile(int user){
+        return string(USER_MOBILE, user);
+    }
+
+    public String albumTitle(int album){
+        return string(ALBUM_TITLE, album);
+    }
+
+    public int albumArtist(int album){
+        return intAt(ALBUM_ARTIST, album);
+    }
+
+    public String songTitle(int song){
+        return string(SONG_TITLE, song);
+    }
+
+    public int songAlbum(int song){
+        return intAt(SONG_ALBUM, song);
+    }
+
+    public int songLength(int song){
+        return intAt(SONG_LENGTH, song);
+    }
+
+    public int songLikes(int song){
+        return intAt(SONG_LIKES, song);
+    }
+
+    // users who liked the song, by user position
+    public int[] songLikers(int song){
+        return range(SONG_LIKER_START, SONG_LIKERS, song);
+    }
+
+    public int songLikerCount(int song){
+        return intAt(SONG_LIKER_START, song + 1) - intAt(SONG_LIKER_START, song);
+    }
+
+    // false for a version 1 catalog, which has no likedSongs
+    public boolean hasUserLikes(){
+        return columns[USER_LIKE_START]!=null;
+    }
+
+    // songs the user liked, by id in the order they were liked
+    public int[] likedSongs(int user){
+        return range(USER_LIKE_START, USER_LIKES, user);
+    }
+
+    // up to count of them from the given position on
+    public int[] likedSongs(int user, int from, int count){
+        int start = intAt(USER_LIKE_START, user);
+        int end = intAt(USER_LIKE_START, user + 1);
+        int first = (int) Math.min(end, (long) start + from);
+        int[] ids = new int[Math.min(end - first, count)];
+        for(int i = 0; i < ids.length; i++) ids[i] = intAt(USER_LIKES, first + i);
+        return ids;
+    }
+
+    public int likedSongCount(int user){
+        return intAt(USER_LIKE_START, user + 1) - intAt(USER_LIKE_START, user);
+    }
+
+    public String playlistTitle(int playlist){
+        return string(PLAYLIST_TITLE, playlist);
+    }
+
+    public int playlistCreator(int playlist){
+        return intAt(PLAYLIST_CREATOR, playlist);
+    }
+
+    public int[] playlistSongs(int playlist){
+        return range(PLAYLIST_SONG_START, PLAYLIST_SONGS, playlist);
+    }
+
+    // listeners other than the creator
+    public int[] playlistListeners(int playlist){
+        return range(PLAYLIST_LISTENER_START, PLAYLIST_LISTENERS, playlist);
+    }
+
+    private int intAt(int column, int index){
+        return columns[column].getInt(index << 2);
+    }
+
+    private int[] range(int startColumn, int idColumn, int index){
+        int from = intAt(startColumn, index);
+        int to = intAt(startColumn, index + 1);
+        int[] ids = new int[to - from];
+        for(int i = 0; i < ids.length; i++) ids[i] = intAt(idColumn, from + i);
+        return ids;
+    }
+
+    private String string(int column, int index){
+        long ref = columns[column].getLong(index << 3);
+        ByteBuffer chunk = strings[(int) (ref >>> CHUNK_BITS)].duplicate();
+        int offset = (int) (ref & (CHUNK - 1));
+        byte[] bytes = new byte[chunk.getInt(offset)];
+        chunk.position(offset + 4);
+        chunk.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Everything a catalog holds, as the repository collects it for a snapshot. The start columns have
+    // one entry more than there are songs / users / playlists, so entry i spans [start[i], start[i + 1]).
+    static final class Contents {
+        String[] artistNames;
+        int[] artistLikes;
+        String[] userNames;
+        String[] userMobiles;
+        String[] albumTitles;
+        int[] albumArtists;
+        String[] songTitles;
+        int[] songAlbums;
+        int[] songLengths;
+        int[] songLikes;
+        int[] songLikerStarts;
+        int[] songLikers;
+        String[] playlistTitles;
+        int[] playlistCreators;
+        int[] playlistSongStarts;
+        int[] playlistSongs;
+        int[] playlistListenerStarts;
+        int[] playlistListeners;
+        int[] userLikeStarts;
+        int[] userLikes;
+    }
+
+    static void write(FileChannel channel, Contents c) throws IOException {
+        Output out = new Output(channel);
+        out.skip(HEADER_BYTES);
+        long[] offsets = new long[SECTIONS];
+        long[] lengths = new long[SECTIONS];
+
+        // strings first, so the string columns can point into them
+        long base = out.position;
+        long[][] refs = {
+                out.strings(c.artistNames, base), out.strings(c.userNames, base), out.strings(c.userMobiles, base),
+                out.strings(c.albumTitles, base), out.strings(c.songTitles, base), out.strings(c.playlistTitles, base)
+        };
+        offsets[STRINGS] = base;
+        lengths[STRINGS] = out.position - base;
+
+        Object[] sections = new Object[SECTIONS];
+        sections[ARTIST_NAME] = refs[0];
+        sections[ARTIST_LIKES] = c.artistLikes;
+        sections[USER_NAME] = refs[1];
+        sections[USER_MOBILE] = refs[2];
+        sections[ALBUM_TITLE] = refs[3];
+        sections[ALBUM_ARTIST] = c.albumArtists;
+        sections[SONG_TITLE] = refs[4];
+        sections[SONG_ALBUM] = c.songAlbums;
+        sections[SONG_LENGTH] = c.songLengths;
+        sections[SONG_LIKES] = c.songLikes;
+        sections[SONG_LIKER_START] = c.songLikerStarts;
+        sections[SONG_LIKERS] = c.songLikers;
+        sections[PLAYLIST_TITLE] = refs[5];
+        sections[PLAYLIST_CREATOR] = c.playlistCreators;
+        sections[PLAYLIST_SONG_START] = c.playlistSongStarts;
+        sections[PLAYLIST_SONGS] = c.playlistSongs;
+        sections[PLAYLIST_LISTENER_START] = c.playlistListenerStarts;
+        sections[PLAYLIST_LISTENERS] = c.playlistListeners;
+        sections[USER_LIKE_START] = c.userLikeStarts;
+        sections[USER_LIKES] = c.userLikes;
+        for(int s = 0; s < STRINGS; s++){
+            offsets[s] = out.position;
+            if(sections[s] instanceof long[]){
+                for(long v: (long[]) sections[s]) out.putLong(v);
+            } else {
+                for(int v: (int[]) sections[s]) out.putInt(v);
+            }
+            lengths[s] = out.position - offsets[s];
+            if(lengths[s]>Integer.MAX_VALUE) throw new IOException("Catalog column larger than 2 GB");
+        }
+        out.putInt(MAGIC);
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putInt(c.artistNames.length).putInt(c.userNames.length).putInt(c.albumTitles.length)
+                .putInt(c.songTitles.length).putInt(c.playlistTitles.length);
+        for(int s = 0; s < SECTIONS; s++) header.putLong(offsets[s]).putLong(lengths[s]);
+        header.flip();
+        long position = 0;
+        while(header.hasRemaining()) position += channel.write(header, position);
+    }
+
+    // buffered sequential writer that knows its file position
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long position;
+
+        Output(FileChannel channel){
+            this.channel = channel;
+        }
+
+        void skip(int bytes) throws IOException {
+            for(int i = 0; i < bytes; i++) putByte((byte) 0);
+        }
+
+        void putByte(byte v) throws IOException {
+            ensure(1);
+            buffer.put(v);
+            position++;
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buffer.putInt(v);
+            position += 4;
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buffer.putLong(v);
+            position += 8;
+        }
+
+        long[] strings(String[] values, long base) throws IOException {
+            long[] refs = new long[values.length];
+            for(int i = 0; i < values.length; i++){
+                byte[] bytes = values[i].getBytes(StandardCharsets.UTF_8);
+                long relative = position - base;
+                // pad to the next chunk rather than split a string across two mappings
+                long room = CHUNK - (relative & (CHUNK - 1));
+                if(room<4 + bytes.length){
+                    for(long p = 0; p < room; p++) putByte((byte) 0);
+                    relative += room;
+                }
+                refs[i] = relative;
+                putInt(bytes.length);
+                int offset = 0;
+                while(offset<bytes.length){
+                    ensure(1);
+                    int n = Math.min(buffer.remaining(), bytes.length - offset);
+                    buffer.put(bytes, offset, n);
+                    offset += n;
+                }
+                position += bytes.length;
+            }
+            return refs;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if(buffer.remaining()<bytes) flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
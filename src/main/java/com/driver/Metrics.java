@@ -0,0 +1,126 @@
+package com.driver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide timers, histograms and counters. Look one up once (it is created on first use) and keep it in a static
+// field; recording then only bumps counters, so it is cheap and allocation-free enough to leave on.
+// snapshot() is what GET /spotify/metrics returns.
+public final class Metrics {
+
+    public static final class Timer {
+        private final LongAdder errors = new LongAdder();
+        private final Histogram nanos = new Histogram();
+
+        // with the System.nanoTime() taken when the call started
+        public void record(long startNanos){
+            nanos.record(System.nanoTime() - startNanos);
+        }
+
+        public void error(){
+            errors.increment();
+        }
+
+        public long count(){
+            return nanos.count();
+        }
+
+        public long errors(){
+            return errors.sum();
+        }
+
+        public Histogram latency(){
+            return nanos;
+        }
+    }
+
+    // things that happen off the request path and that no caller would otherwise see (dropped history,
+    // failed snapshots, failed like batches), with the last error if there was one
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+        private volatile String lastError;
+
+        public void increment(){
+            count.increment();
+        }
+
+        public void error(Throwable e){
+            lastError = e.toString();
+            count.increment();
+        }
+
+        public long count(){
+            return count.sum();
+        }
+
+        public String lastError(){
+            return lastError;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private Metrics(){
+    }
+
+    public static Timer timer(String name){
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    public static Histogram histogram(String name){
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public static Counter counter(String name){
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    // timers with their counts and latency percentiles in microseconds, then the plain histograms, then the counters
+    public static Map<String, Object> snapshot(){
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        Map<String, Object> timed = new LinkedHashMap<>();
+        timers.keySet().stream().sorted().forEach(name -> {
+            Timer timer = timers.get(name);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", timer.count());
+            values.put("errors", timer.errors());
+            values.putAll(percentiles(timer.latency(), 1000.0));
+            timed.put(name, values);
+        });
+        snapshot.put("timersMicros", timed);
+        Map<String, Object> plain = new LinkedHashMap<>();
+        histograms.keySet().stream().sorted().forEach(name -> {
+            Histogram histogram = histograms.get(name);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", histogram.count());
+            values.putAll(percentiles(histogram, 1));
+            plain.put(name, values);
+        });
+        snapshot.put("histograms", plain);
+        Map<String, Object> counted = new LinkedHashMap<>();
+        counters.keySet().stream().sorted().forEach(name -> {
+            Counter counter = counters.get(name);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", counter.count());
+            if(counter.lastError()!=null) values.put("lastError", counter.lastError());
+            counted.put(name, values);
+        });
+        snapshot.put("counters", counted);
+        return snapshot;
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram, double unit){
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("mean", histogram.mean() / unit);
+        values.put("p50", histogram.percentile(0.5) / unit);
+        values.put("p90", histogram.percentile(0.9) / unit);
+        values.put("p99", histogram.percentile(0.99) / unit);
+        values.put("p999", histogram.percentile(0.999) / unit);
+        values.put("max", histogram.max() / unit);
+        return values;
+    }
+}
@@ -0,0 +1,220 @@
+package com.driver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Names (mobiles, titles) encoded once into dense int codes, matched trimmed and case-insensitively as the
+// indexes always have been, but without building the normalized string: find() hashes and compares the raw
+// characters in place against the stored UTF-8 bytes of the case-folded name, so a lookup allocates nothing.
+// The encoded names sit back to back in one byte arena, each behind its code and length; a probe slot holds
+// a name's hash and arena offset, so a lookup touches the slot and then the name, and a name costs its bytes
+// plus 8 for the header and 16 for its slots.
+// Folding is per code point (Character.toLowerCase), which is String.toLowerCase(Locale.ROOT) except for the
+// few characters that lower to more than one.
+// Reads take no lock: a slot is written after the name it points at, through a volatile write, and growing
+// the arena or the table publishes a whole new state. Interning is synchronized.
+public class NameDictionary {
+
+    private static final class State {
+        // hash << 32 | (offset + 1) per slot, 0 when empty; linear probing
+        final AtomicLongArray table;
+        final byte[] arena;
+
+        State(AtomicLongArray table, byte[] arena){
+            this.table = table;
+            this.arena = arena;
+        }
+    }
+
+    private volatile State state = new State(new AtomicLongArray(32), new byte[1024]);
+    // guarded by this: arena offset of each code, and the first free arena byte
+    private int[] offsets = new int[16];
+    private int size;
+    private int used;
+
+    // the code of the name, or -1 if it was never interned
+    public int find(CharSequence name){
+        int start = start(name);
+        int end = end(name, start);
+        int hash = hash(name, start, end);
+        State s = state;
+        int mask = s.table.length() - 1;
+        for(int i = hash & mask; ; i = (i + 1) & mask){
+            long slot = s.table.get(i);
+            if(slot==0) return -1;
+            if((int) (slot >>> 32)!=hash) continue;
+            int offset = (int) slot - 1;
+            if(matches(s.arena, offset + 8, readInt(s.arena, offset + 4), name, start, end)) return readInt(s.arena, offset);
+        }
+    }
+
+    // the code of the name, assigned in order of first sight
+    public synchronized int intern(CharSequence name){
+        int found = find(name);
+        if(found>=0) return found;
+        int start = start(name);
+        int end = end(name, start);
+        int hash = hash(name, start, end);
+        int length = encodedLength(name, start, end);
+        if(used + 8L + length>Integer.MAX_VALUE - 1) throw new IllegalStateException("Name dictionary is full");
+
+        State s = state;
+        byte[] arena = s.arena;
+        if(used + 8 + length>arena.length){
+            arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(used + 8L + length, arena.length * 2L)));
+        }
+        // a new arena needs a new table too: the old one is still read with the old arena, so it must not
+        // get slots pointing past it
+        AtomicLongArray table = s.table;
+        if(2 * (size + 1)>table.length()) table = rehash(table, table.length() * 2);
+        else if(arena!=s.arena) table = rehash(table, table.length());
+        if(arena!=s.arena || table!=s.table){
+            s = new State(table, arena);
+            state = s;
+        }
+
+        int code = size++;
+        int offset = used;
+        writeInt(arena, offset, code);
+        writeInt(arena, offset + 4, length);
+        encode(name, start, end, arena, offset + 8);
+        used += 8 + length;
+        if(code==offsets.length) offsets = Arrays.copyOf(offsets, code * 2);
+        offsets[code] = offset;
+
+        int mask = table.length() - 1;
+        int i = hash & mask;
+        while(table.get(i)!=0) i = (i + 1) & mask;
+        table.set(i, (long) hash << 32 | (offset + 1));
+        return code;
+    }
+
+    private static AtomicLongArray rehash(AtomicLongArray table, int capacity){
+        AtomicLongArray next = new AtomicLongArray(capacity);
+        int mask = capacity - 1;
+        for(int j = 0; j < table.length(); j++){
+            long slot = table.get(j);
+            if(slot==0) continue;
+            int i = (int) (slot >>> 32) & mask;
+            while(next.get(i)!=0) i = (i + 1) & mask;
+            next.set(i, slot);
+        }
+        return next;
+    }
+
+    // the normalized name of a code, decoded; for logs and tests, not for lookups
+    public synchronized String name(int code){
+        if(code<0 || code>=size) throw new IndexOutOfBoundsException("No name " + code);
+        byte[] arena = state.arena;
+        int offset = offsets[code];
+        return new String(arena, offset + 8, readInt(arena, offset + 4), StandardCharsets.UTF_8);
+    }
+
+    public synchronized int size(){
+        return size;
+    }
+
+    // the arena, the probe table and the code offsets as allocated
+    public synchronized long bytes(){
+        State s = state;
+        return s.arena.length + 8L * s.table.length() + 4L * offsets.length;
+    }
+
+    // the hash find() probes with, also usable to stripe locks by name
+    public static int hash(CharSequence name){
+        int start = start(name);
+        return hash(name, start, end(name, start));
+    }
+
+    // the same characters String.trim() drops
+    private static int start(CharSequence name){
+        int start = 0;
+        while(start<name.length() && name.charAt(start)<=' ') start++;
+        return start;
+    }
+
+    private static int end(CharSequence name, int start){
+        int end = name.length();
+        while(end>start && name.charAt(end - 1)<=' ') end--;
+        return end;
+    }
+
+    // the folded code point at i; ASCII, by far the common case, skips the Unicode tables
+    private static int foldedAt(CharSequence name, int i){
+        char c = name.charAt(i);
+        if(c<0x80) return c - 'A'<26 && c>='A' ? c + 32 : c;
+        return Character.toLowerCase(Character.codePointAt(name, i));
+    }
+
+    private static int charCountAt(CharSequence name, int i, int end){
+        return Character.isHighSurrogate(name.charAt(i)) && i + 1<end && Character.isLowSurrogate(name.charAt(i + 1)) ? 2 : 1;
+    }
+
+    private static int hash(CharSequence name, int start, int end){
+        int h = 0;
+        for(int i = start; i < end; i += charCountAt(name, i, end)) h = 31 * h + foldedAt(name, i);
+        return h ^ (h >>> 16);
+    }
+
+    private static int encodedLength(CharSequence name, int start, int end){
+        int length = 0;
+        for(int i = start; i < end; i += charCountAt(name, i, end)){
+            int cp = foldedAt(name, i);
+            length += cp<0x80 ? 1 : cp<0x800 ? 2 : cp<0x10000 ? 3 : 4;
+        }
+        return length;
+    }
+
+    private static void encode(CharSequence name, int start, int end, byte[] out, int p){
+        for(int i = start; i < end; i += charCountAt(name, i, end)){
+            int cp = foldedAt(name, i);
+            if(cp<0x80){
+                out[p++] = (byte) cp;
+            } else if(cp<0x800){
+                out[p++] = (byte) (0xC0 | cp >> 6);
+                out[p++] = (byte) (0x80 | cp & 0x3F);
+            } else if(cp<0x10000){
+                out[p++] = (byte) (0xE0 | cp >> 12);
+                out[p++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                out[p++] = (byte) (0x80 | cp & 0x3F);
+            } else {
+                out[p++] = (byte) (0xF0 | cp >> 18);
+                out[p++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                out[p++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                out[p++] = (byte) (0x80 | cp & 0x3F);
+            }
+        }
+    }
+
+    // whether arena[p, p + length) is the encoding of the folded characters, compared as they are read
+    private static boolean matches(byte[] arena, int p, int length, CharSequence name, int start, int end){
+        int limit = p + length;
+        for(int i = start; i < end; i += charCountAt(name, i, end)){
+            int cp = foldedAt(name, i);
+            if(cp<0x80){
+                if(p>=limit || arena[p++]!=cp) return false;
+            } else if(cp<0x800){
+                if(p + 2>limit || arena[p++]!=(byte) (0xC0 | cp >> 6) || arena[p++]!=(byte) (0x80 | cp & 0x3F)) return false;
+            } else if(cp<0x10000){
+                if(p + 3>limit || arena[p++]!=(byte) (0xE0 | cp >> 12) || arena[p++]!=(byte) (0x80 | cp >> 6 & 0x3F)
+                        || arena[p++]!=(byte) (0x80 | cp & 0x3F)) return false;
+            } else {
+                if(p + 4>limit || arena[p++]!=(byte) (0xF0 | cp >> 18) || arena[p++]!=(byte) (0x80 | cp >> 12 & 0x3F)
+                        || arena[p++]!=(byte) (0x80 | cp >> 6 & 0x3F) || arena[p++]!=(byte) (0x80 | cp & 0x3F)) return false;
+            }
+        }
+        return p==limit;
+    }
+
+    private static int readInt(byte[] b, int p){
+        return (b[p] & 0xFF) << 24 | (b[p + 1] & 0xFF) << 16 | (b[p + 2] & 0xFF) << 8 | b[p + 3] & 0xFF;
+    }
+
+    private static void writeInt(byte[] b, int p, int v){
+        b[p] = (byte) (v >>> 24);
+        b[p + 1] = (byte) (v >>> 16);
+        b[p + 2] = (byte) (v >>> 8);
+        b[p + 3] = (byte) v;
+    }
+}
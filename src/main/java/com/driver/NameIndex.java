@@ -0,0 +1,84 @@
+package com.driver;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+// Index from a name to what it names (a user by mobile, an album by title, ...), matched trimmed and
+// case-insensitively through a NameDictionary of its own. Values sit in an array by code, so a lookup is one
+// probe of the dictionary and one array read, and allocates nothing.
+// Reads take no lock; writes are synchronized, and a value is visible once put, as in a ConcurrentHashMap.
+public class NameIndex<T> {
+
+    private final NameDictionary names = new NameDictionary();
+    private volatile AtomicReferenceArray<T> values = new AtomicReferenceArray<>(16);
+    // guarded by this
+    private int size;
+
+    public T get(CharSequence name){
+        int code = names.find(name);
+        return code<0 ? null : at(code);
+    }
+
+    public boolean containsKey(CharSequence name){
+        return get(name)!=null;
+    }
+
+    // the value for a code from intern() or code(), or null
+    public T at(int code){
+        AtomicReferenceArray<T> current = values;
+        return code<current.length() ? current.get(code) : null;
+    }
+
+    // the code of the name, or -1 if it was never interned
+    public int code(CharSequence name){
+        return names.find(name);
+    }
+
+    // the code of the name, interning it if needed; codes are dense, so they can key arrays and bit sets
+    public int intern(CharSequence name){
+        return names.intern(name);
+    }
+
+    public synchronized T put(CharSequence name, T value){
+        return set(names.intern(name), value);
+    }
+
+    public synchronized T set(int code, T value){
+        AtomicReferenceArray<T> current = values;
+        if(code>=current.length()){
+            AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(Math.max(code + 1, current.length() * 2));
+            for(int i = 0; i < current.length(); i++) grown.set(i, current.get(i));
+            values = current = grown;
+        }
+        T previous = current.getAndSet(code, value);
+        if(previous==null && value!=null) size++;
+        if(previous!=null && value==null) size--;
+        return previous;
+    }
+
+    // the value for the name, created by create(code) on first use
+    public T computeIfAbsent(CharSequence name, IntFunction<? extends T> create){
+        T value = get(name);
+        if(value!=null) return value;
+        synchronized (this){
+            int code = names.intern(name);
+            value = at(code);
+            if(value==null) set(code, value = create.apply(code));
+            return value;
+        }
+    }
+
+    // names with a value
+    public synchronized int size(){
+        return size;
+    }
+
+    public NameDictionary names(){
+        return names;
+    }
+
+    // the dictionary and the value array; not the values themselves
+    public long bytes(){
+        return names.bytes() + 4L * values.length();
+    }
+}
@@ -0,0 +1,31 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One page of a read endpoint: up to limit items and the cursor the next page starts at, or -1 after the
+// last page. Ordered relations (songs of a playlist or album, playlists of a user, albums of an artist,
+// a user's likes) are only ever appended to, so their cursor is a position; unordered ones (listeners)
+// are paged by id, so their cursor is the next id. Either way a cursor stays valid as data is added.
+public class Page<T> {
+
+    public final List<T> items;
+    public final long next;
+
+    public Page(List<T> items, long next){
+        this.items = items;
+        this.next = next;
+    }
+
+    // a page by position from items read for it, with one more than the limit if there is more
+    static <T> Page<T> ofPositions(List<T> items, long from, int limit){
+        if(items.size()<=limit) return new Page<>(items, -1);
+        return new Page<>(new ArrayList<>(items.subList(0, limit)), from + limit);
+    }
+
+    // a page by id from items read for it and their ids, with one more than the limit if there is more
+    static <T> Page<T> ofIds(List<T> items, int[] ids, int limit){
+        if(ids.length<=limit) return new Page<>(items, -1);
+        return new Page<>(new ArrayList<>(items.subList(0, limit)), ids[limit]);
+    }
+}
@@ -0,0 +1,139 @@
+package com.driver;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+// Immutable list that appends and replaces by copying only the path to what changes: a 32-way trie of full
+// leaves plus a tail of up to 32 items, so append copies the tail (or one path when the tail is full) and
+// set copies one path, and every other node is shared with the version it was made from. get is at most
+// a few array reads, and a reader can keep using any version while newer ones are built.
+public final class PersistentVector<T> extends AbstractList<T> implements RandomAccess {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // the root of every vector whose items all fit in its tail; copied before it is ever written
+    private static final Object[] EMPTY_ROOT = new Object[WIDTH];
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, EMPTY_ROOT, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail){
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentVector<T> empty(){
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    // index of the first item in the tail
+    private int tailOffset(){
+        return size<WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index){
+        if(index<0 || index>=size) throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        if(index>=tailOffset()) return (T) tail[index & MASK];
+        Object[] node = root;
+        for(int level = shift; level > 0; level -= BITS) node = (Object[]) node[(index >>> level) & MASK];
+        return (T) node[index & MASK];
+    }
+
+    // copies whole leaves, which is what ArrayList.addAll and new ArrayList<>(vector) use
+    @Override
+    public Object[] toArray(){
+        Object[] out = new Object[size];
+        int tailOffset = tailOffset();
+        for(int at = 0; at < tailOffset; at += WIDTH){
+            Object[] node = root;
+            for(int level = shift; level > 0; level -= BITS) node = (Object[]) node[(at >>> level) & MASK];
+            System.arraycopy(node, 0, out, at, WIDTH);
+        }
+        System.arraycopy(tail, 0, out, tailOffset, size - tailOffset);
+        return out;
+    }
+
+    public PersistentVector<T> append(T item){
+        if(size - tailOffset()<WIDTH){
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = item;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        // the tail is full: it becomes a leaf, and the new item starts the next tail
+        Object[] newRoot;
+        int newShift = shift;
+        if((size >>> BITS)>(1 << shift)){
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[]{item});
+    }
+
+    public PersistentVector<T> appendAll(Iterable<? extends T> items){
+        PersistentVector<T> result = this;
+        for(T item: items) result = result.append(item);
+        return result;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf){
+        int at = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if(level==BITS){
+            copy[at] = leaf;
+        } else {
+            Object[] child = (Object[]) parent[at];
+            copy[at] = child!=null ? pushTail(level - BITS, child, leaf) : newPath(level - BITS, leaf);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf){
+        if(level==0) return leaf;
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+
+    // a vector with the item at index replaced; index == size appends
+    public PersistentVector<T> with(int index, T item){
+        if(index==size) return append(item);
+        if(index<0 || index>size) throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        if(index>=tailOffset()){
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = item;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, replace(shift, root, index, item), tail);
+    }
+
+    private static Object[] replace(int level, Object[] node, int index, Object item){
+        Object[] copy = node.clone();
+        if(level==0){
+            copy[index & MASK] = item;
+        } else {
+            int at = (index >>> level) & MASK;
+            copy[at] = replace(level - BITS, (Object[]) node[at], index, item);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,119 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps the graphs as int adjacency (see IntGraph) keyed by dense ids, a few bytes per edge instead of a
+// map entry and a boxed node per edge. Objects are resolved through the repository lists on the way out.
+// The repository's public relation maps stay empty with this store, except creatorPlaylistMap, which has
+// one entry per creator rather than per edge.
+final class PrimitiveRelationStore implements RelationStore {
+
+    private final SpotifyRepository repository;
+    private final IntGraph likers = new IntGraph(true);
+    // sorted, so a page of listeners is a binary search
+    private final IntGraph listeners = IntGraph.sorted();
+    private final IntGraph playlistSongs = new IntGraph(false);
+    private final IntGraph userPlaylists = new IntGraph(false);
+
+    PrimitiveRelationStore(SpotifyRepository repository){
+        this.repository = repository;
+    }
+
+    @Override
+    public boolean addLike(Song song, User user){
+        return likers.add(song.getId(), user.getId(), repository::coldLikers);
+    }
+
+    @Override
+    public boolean hasLike(Song song, User user){
+        int id = song.getId();
+        return likers.has(id) ? likers.contains(id, user.getId()) : repository.coldLiked(id, user.getId());
+    }
+
+    @Override
+    public int likeCount(Song song){
+        int id = song.getId();
+        return likers.has(id) ? likers.size(id) : repository.coldLikerCount(id);
+    }
+
+    @Override
+    public int[] likerIds(Song song){
+        int id = song.getId();
+        return likers.has(id) ? likers.values(id) : null;
+    }
+
+    @Override
+    public void addPlaylist(Playlist playlist, User creator, List<Song> songs){
+        int[] songIds = new int[songs.size()];
+        for(int i = 0; i < songIds.length; i++) songIds[i] = songs.get(i).getId();
+        playlistSongs.set(playlist.getId(), songIds);
+        listeners.add(playlist.getId(), creator.getId(), null);
+        userPlaylists.add(creator.getId(), playlist.getId(), null);
+        repository.creatorPlaylistMap.put(creator, playlist);
+    }
+
+    @Override
+    public List<Song> playlistSongs(Playlist playlist){
+        int[] ids = playlistSongs.values(playlist.getId());
+        List<Song> songs = new ArrayList<>(ids.length);
+        for(int id: ids) songs.add(repository.songs.get(id));
+        return songs;
+    }
+
+    @Override
+    public List<Song> playlistSongs(Playlist playlist, int from, int count){
+        int[] ids = playlistSongs.values(playlist.getId(), from, count);
+        List<Song> songs = new ArrayList<>(ids.length);
+        for(int id: ids) songs.add(repository.songs.get(id));
+        return songs;
+    }
+
+    @Override
+    public boolean addListener(Playlist playlist, User user){
+        if(!listeners.add(playlist.getId(), user.getId(), null)) return false;
+        userPlaylists.add(user.getId(), playlist.getId(), null);
+        return true;
+    }
+
+    @Override
+    public boolean hasListener(Playlist playlist, User user){
+        return listeners.contains(playlist.getId(), user.getId());
+    }
+
+    @Override
+    public int listenerCount(Playlist playlist){
+        return listeners.size(playlist.getId());
+    }
+
+    @Override
+    public int[] listenerIds(Playlist playlist){
+        return listeners.values(playlist.getId());
+    }
+
+    @Override
+    public int[] listenerIds(Playlist playlist, int from, int count){
+        return listeners.smallest(playlist.getId(), from, count);
+    }
+
+    @Override
+    public List<Playlist> userPlaylists(User user){
+        int[] ids = userPlaylists.values(user.getId());
+        List<Playlist> playlists = new ArrayList<>(ids.length);
+        for(int id: ids) playlists.add(repository.playlists.get(id));
+        return playlists;
+    }
+
+    @Override
+    public List<Playlist> userPlaylists(User user, int from, int count){
+        int[] ids = userPlaylists.values(user.getId(), from, count);
+        List<Playlist> playlists = new ArrayList<>(ids.length);
+        for(int id: ids) playlists.add(repository.playlists.get(id));
+        return playlists;
+    }
+
+    @Override
+    public Playlist createdPlaylist(User user){
+        return repository.creatorPlaylistMap.get(user);
+    }
+}
@@ -0,0 +1,536 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Item-item collaborative filtering over the like graph and the playlists. Two songs co-occur when one user
+// liked both, or when they sit within PLAYLIST_WINDOW places of each other in a playlist. Each song keeps a
+// row of co-occurrence counts, and songs are scored against each other by cosine, count / sqrt(occurrences
+// of both), so a hit that co-occurs with everything does not crowd out the songs a song is really paired with.
+//
+// Rows are updated as likes and playlists are added. To keep that cost bounded at any scale a row holds at
+// most NEIGHBORS songs (a Misra-Gries summary: a new song meeting a full row takes one off every count and
+// those reaching zero leave), and a like pairs the song with at most HISTORY of the user's latest likes.
+// A user's recommendations are the songs scored highest against their latest likes and the songs of the
+// playlists they listen to, read live from the repository, minus what the user already liked.
+//
+// rebuild() recomputes every row from the repository in parallel on the common fork-join pool, e.g. after
+// a catalog load, where it runs in the background (rebuildInBackground) so startup does not wait for it;
+// likes and playlists added meanwhile are queued and applied to the new rows afterwards.
+public class Recommendations {
+
+    static final int NEIGHBORS = 256;
+    static final int HISTORY = 64;
+    static final int PLAYLIST_WINDOW = 8;
+    // at most this many liked songs and playlist songs seed a user's recommendations
+    static final int SEEDS = 64;
+    // songs per parallel rebuild task
+    private static final int REBUILD_CHUNK = 1024;
+
+    // co-occurrence counts of one song, an open-addressing map from song id to count
+    private static final class Row {
+        private int[] keys = new int[8];
+        private int[] counts = new int[8];
+        private int size;
+        // every pair the song took part in, including those the summary dropped; read without the lock
+        private volatile long occurrences;
+
+        synchronized void add(int key){
+            occurrences++;
+            int slot = find(key);
+            if(keys[slot]==key + 1){
+                counts[slot]++;
+                return;
+            }
+            if(size==NEIGHBORS){
+                decrement();
+                return;
+            }
+            if(2 * (size + 1)>keys.length){
+                resize(keys.length * 2);
+                slot = find(key);
+            }
+            keys[slot] = key + 1;
+            counts[slot] = 1;
+            size++;
+        }
+
+        // keys hold id + 1, so 0 marks an empty slot
+        private int find(int key){
+            int mask = keys.length - 1;
+            int slot = (key * 0x9E3779B9 >>> 7) & mask;
+            while(keys[slot]!=0 && keys[slot]!=key + 1) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void decrement(){
+            for(int i = 0; i < keys.length; i++){
+                if(keys[i]!=0 && --counts[i]==0){
+                    keys[i] = 0;
+                    size--;
+                }
+            }
+            resize(keys.length);
+        }
+
+        private void resize(int capacity){
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new int[capacity];
+            counts = new int[capacity];
+            for(int i = 0; i < oldKeys.length; i++){
+                if(oldKeys[i]==0) continue;
+                int slot = find(oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+
+        // the row as song id, count pairs
+        synchronized int[] snapshot(){
+            int[] pairs = new int[2 * size];
+            int n = 0;
+            for(int i = 0; i < keys.length; i++){
+                if(keys[i]==0) continue;
+                pairs[n++] = keys[i] - 1;
+                pairs[n++] = counts[i];
+            }
+            return pairs;
+        }
+    }
+
+    // a user's latest likes, growing up to HISTORY and then overwriting the oldest
+    private static final class History {
+        private int[] songs = new int[4];
+        private int count;
+
+        // the latest likes before this one
+        synchronized int[] addAndGet(int song){
+            int[] before = latest();
+            add(song);
+            return before;
+        }
+
+        synchronized void add(int song){
+            if(count<HISTORY && count==songs.length) songs = Arrays.copyOf(songs, Math.min(HISTORY, count * 2));
+            songs[count % HISTORY] = song;
+            count++;
+        }
+
+        // newest first
+        synchronized int[] latest(){
+            int n = Math.min(count, HISTORY);
+            int[] latest = new int[n];
+            for(int i = 0; i < n; i++) latest[i] = songs[Math.floorMod(count - 1 - i, HISTORY)];
+            return latest;
+        }
+    }
+
+    private final SpotifyRepository repository;
+
+    private volatile Row[] rows = new Row[0];
+    private volatile History[] histories = new History[0];
+
+    // playlists already paired, so one read by rebuild() and also reported as new is paired once
+    private BitSet pairedPlaylists = new BitSet();
+
+    // set while rebuild() runs; likes (user, song pairs) and playlists wait here for the new rows
+    private volatile boolean rebuilding;
+    private final Object rebuildLock = new Object();
+    private volatile Thread rebuilder;
+    private final IntList pendingLikes = new IntList();
+    private final IntList pendingPlaylistIds = new IntList();
+    private final List<int[]> pendingPlaylists = new ArrayList<>();
+
+    Recommendations(SpotifyRepository repository){
+        this.repository = repository;
+    }
+
+    private Row row(int song){
+        Row[] current = rows;
+        Row row = song<current.length ? current[song] : null;
+        if(row!=null) return row;
+        synchronized (this){
+            if(song>=rows.length) rows = Arrays.copyOf(rows, Math.max(song + 1, rows.length * 2));
+            if(rows[song]==null) rows[song] = new Row();
+            return rows[song];
+        }
+    }
+
+    // the row if the song has one, without creating it
+    private Row existingRow(int song){
+        Row[] current = rows;
+        return song<current.length ? current[song] : null;
+    }
+
+    private History history(int user){
+        History[] current = histories;
+        History history = user<current.length ? current[user] : null;
+        if(history!=null) return history;
+        synchronized (this){
+            if(user>=histories.length) histories = Arrays.copyOf(histories, Math.max(user + 1, histories.length * 2));
+            if(histories[user]==null) histories[user] = new History();
+            return histories[user];
+        }
+    }
+
+    private void pair(int a, int b){
+        if(a==b) return;
+        row(a).add(b);
+        row(b).add(a);
+    }
+
+    // a new like; the caller has already checked it was not a repeat
+    void like(int user, int song){
+        if(rebuilding){
+            synchronized (this){
+                if(rebuilding){
+                    pendingLikes.add(user);
+                    pendingLikes.add(song);
+                    return;
+                }
+            }
+        }
+        for(int other: history(user).addAndGet(song)) pair(song, other);
+    }
+
+    // a new playlist's songs, in playlist order
+    void playlist(int id, int[] songs){
+        synchronized (this){
+            if(rebuilding){
+                pendingPlaylistIds.add(id);
+                pendingPlaylists.add(songs);
+                return;
+            }
+            if(pairedPlaylists.get(id)) return;
+            pairedPlaylists.set(id);
+        }
+        pairWindows(songs);
+    }
+
+    private void pairWindows(int[] songs){
+        for(int i = 0; i < songs.length; i++){
+            for(int j = i + 1; j < songs.length && j <= i + PLAYLIST_WINDOW; j++) pair(songs[i], songs[j]);
+        }
+    }
+
+    // the songs most often paired with the song, best first; ties go to the song created first
+    public List<Integer> similar(int song, int k){
+        Row row = existingRow(song);
+        if(row==null || k<=0) return new ArrayList<>();
+        double self = row.occurrences;
+        int[] pairs = row.snapshot();
+        Scores scores = new Scores(pairs.length / 2);
+        for(int i = 0; i < pairs.length; i += 2) scores.add(pairs[i], pairs[i + 1] / Math.sqrt(self * occurrences(pairs[i])));
+        return scores.top(k);
+    }
+
+    private long occurrences(int song){
+        Row row = existingRow(song);
+        return row==null ? 1 : Math.max(1, row.occurrences);
+    }
+
+    // songs to recommend to the user, best first
+    public List<Integer> recommend(User user, int k){
+        if(k<=0) return new ArrayList<>();
+        History history = user.getId()<histories.length ? histories[user.getId()] : null;
+        int[] liked = history==null ? new int[0] : history.latest();
+
+        // seeds: the latest likes, then the songs of the user's playlists at half the weight
+        IntList seeds = new IntList();
+        for(int i = 0; i < liked.length && seeds.size() < SEEDS; i++) seeds.add(liked[i]);
+        int likedSeeds = seeds.size();
+        for(Playlist playlist: repository.getUserPlaylists(user)){
+            for(Song song: repository.getPlaylistSongs(playlist)){
+                if(seeds.size()>=SEEDS) break;
+                seeds.add(song.getId());
+            }
+            if(seeds.size()>=SEEDS) break;
+        }
+
+        Scores scores = new Scores(seeds.size() * NEIGHBORS);
+        for(int s = 0; s < seeds.size(); s++){
+            Row row = existingRow(seeds.get(s));
+            if(row==null) continue;
+            double weight = s<likedSeeds ? 1.0 : 0.5;
+            double self = row.occurrences;
+            int[] pairs = row.snapshot();
+            for(int i = 0; i < pairs.length; i += 2){
+                scores.add(pairs[i], weight * pairs[i + 1] / Math.sqrt(self * occurrences(pairs[i])));
+            }
+        }
+        // the user already has the seeds, and every song they liked, however long ago
+        for(int s = 0; s < seeds.size(); s++) scores.remove(seeds.get(s));
+        for(int song: repository.likedSongIds(user.getId())) scores.remove(song);
+        return scores.top(k);
+    }
+
+    // Recomputes every row from the likes and playlists the repository holds now. Rows are built in parallel
+    // by song: a song's row is found from its likers' liked songs, so no two tasks write the same row. Then
+    // the playlists are paired in parallel, the rows locking as usual.
+    void rebuild(){
+        synchronized (rebuildLock){
+            rebuildRows();
+        }
+    }
+
+    // Starts rebuild() on a thread of its own. Likes and playlists are queued from this call on, so none
+    // reaches the old rows; until the rebuild is done, recommendations come from those old rows.
+    void rebuildInBackground(){
+        synchronized (this){
+            rebuilding = true;
+        }
+        Thread thread = new Thread(this::rebuild, "recommendations-rebuild");
+        thread.setDaemon(true);
+        rebuilder = thread;
+        thread.start();
+    }
+
+    void awaitRebuild() throws InterruptedException {
+        Thread thread = rebuilder;
+        if(thread!=null) thread.join();
+    }
+
+    private void rebuildRows(){
+        synchronized (this){
+            rebuilding = true;
+        }
+        Song[] songs = repository.songs.toArray(new Song[0]);
+        int userCount = repository.users.size();
+
+        // likes by user, as compressed rows of song ids; a user keeps the last HISTORY songs by id
+        int[][] likers = new int[songs.length][];
+        int[] perUser = new int[userCount];
+        for(Song song: songs){
+            int[] ids = repository.likerIds(song);
+            likers[song.getId()] = ids;
+            for(int user: ids){
+                if(user<userCount) perUser[user]++;
+            }
+        }
+        int[] starts = new int[userCount + 1];
+        for(int u = 0; u < userCount; u++) starts[u + 1] = starts[u] + perUser[u];
+        int[] userSongs = new int[starts[userCount]];
+        int[] fill = Arrays.copyOf(starts, userCount);
+        for(Song song: songs){
+            for(int user: likers[song.getId()]){
+                if(user<userCount) userSongs[fill[user]++] = song.getId();
+            }
+        }
+
+        Row[] built = new Row[songs.length];
+        ForkJoinPool.commonPool().invoke(new BuildRows(built, likers, starts, userSongs, 0, songs.length));
+
+        History[] builtHistories = new History[userCount];
+        for(int u = 0; u < userCount; u++){
+            if(starts[u]==starts[u + 1]) continue;
+            History history = new History();
+            for(int i = Math.max(starts[u], starts[u + 1] - HISTORY); i < starts[u + 1]; i++) history.add(userSongs[i]);
+            builtHistories[u] = history;
+        }
+
+        // playlists whose songs all have a row by now; the rest are left to the final step
+        BitSet paired = new BitSet();
+        List<int[]> windows = new ArrayList<>();
+        for(Playlist playlist: playlistsNow()){
+            int[] ids = songIds(repository.getPlaylistSongs(playlist));
+            if(ids.length==0 || Arrays.stream(ids).anyMatch(id -> id>=built.length)) continue;
+            paired.set(playlist.getId());
+            windows.add(ids);
+        }
+        for(int[] ids: windows){
+            for(int id: ids){
+                if(built[id]==null) built[id] = new Row();
+            }
+        }
+        windows.parallelStream().forEach(ids -> {
+            for(int i = 0; i < ids.length; i++){
+                for(int j = i + 1; j < ids.length && j <= i + PLAYLIST_WINDOW; j++){
+                    if(ids[i]==ids[j]) continue;
+                    built[ids[i]].add(ids[j]);
+                    built[ids[j]].add(ids[i]);
+                }
+            }
+        });
+
+        synchronized (this){
+            rows = built;
+            histories = builtHistories;
+            pairedPlaylists = paired;
+            // what arrived during the rebuild, unless it was already read above
+            for(int i = 0; i < pendingLikes.size(); i += 2){
+                int user = pendingLikes.get(i);
+                int song = pendingLikes.get(i + 1);
+                if(user<userCount && contains(userSongs, starts[user], starts[user + 1], song)) continue;
+                for(int other: history(user).addAndGet(song)) pair(song, other);
+            }
+            for(int i = 0; i < pendingPlaylists.size(); i++){
+                if(paired.get(pendingPlaylistIds.get(i))) continue;
+                paired.set(pendingPlaylistIds.get(i));
+                pairWindows(pendingPlaylists.get(i));
+            }
+            for(Playlist playlist: playlistsNow()){
+                if(paired.get(playlist.getId())) continue;
+                int[] ids = songIds(repository.getPlaylistSongs(playlist));
+                if(ids.length==0) continue;
+                paired.set(playlist.getId());
+                pairWindows(ids);
+            }
+            pendingLikes.clear();
+            pendingPlaylistIds.clear();
+            pendingPlaylists.clear();
+            rebuilding = false;
+        }
+    }
+
+    private List<Playlist> playlistsNow(){
+        synchronized (repository.playlists){
+            return new ArrayList<>(repository.playlists);
+        }
+    }
+
+    private static boolean contains(int[] values, int from, int to, int value){
+        for(int i = from; i < to; i++){
+            if(values[i]==value) return true;
+        }
+        return false;
+    }
+
+    static int[] songIds(List<Song> songs){
+        if(songs==null) return new int[0];
+        int[] ids = new int[songs.size()];
+        for(int i = 0; i < ids.length; i++) ids[i] = songs.get(i).getId();
+        return ids;
+    }
+
+    private static final class BuildRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Row[] rows;
+        private final int[][] likers;
+        private final int[] starts;
+        private final int[] userSongs;
+        private final int from;
+        private final int to;
+
+        BuildRows(Row[] rows, int[][] likers, int[] starts, int[] userSongs, int from, int to){
+            this.rows = rows;
+            this.likers = likers;
+            this.starts = starts;
+            this.userSongs = userSongs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from > REBUILD_CHUNK){
+                int middle = (from + to) >>> 1;
+                invokeAll(new BuildRows(rows, likers, starts, userSongs, from, middle),
+                        new BuildRows(rows, likers, starts, userSongs, middle, to));
+                return;
+            }
+            for(int song = from; song < to; song++){
+                if(likers[song].length==0) continue;
+                Row row = new Row();
+                for(int user: likers[song]){
+                    if(user>=starts.length - 1) continue;
+                    for(int i = Math.max(starts[user], starts[user + 1] - HISTORY); i < starts[user + 1]; i++){
+                        if(userSongs[i]!=song) row.add(userSongs[i]);
+                    }
+                }
+                rows[song] = row;
+            }
+        }
+    }
+
+    // scores per song id in an open-addressing map, for ranking candidates without boxing
+    private static final class Scores {
+        private int[] keys;
+        private double[] values;
+        private int size;
+
+        Scores(int expected){
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            keys = new int[capacity];
+            values = new double[capacity];
+        }
+
+        void add(int key, double score){
+            if(2 * (size + 1)>keys.length) grow();
+            int mask = keys.length - 1;
+            int slot = (key * 0x9E3779B9 >>> 7) & mask;
+            while(keys[slot]!=0 && keys[slot]!=key + 1) slot = (slot + 1) & mask;
+            if(keys[slot]==0){
+                keys[slot] = key + 1;
+                size++;
+            }
+            values[slot] += score;
+        }
+
+        private void grow(){
+            int[] oldKeys = keys;
+            double[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new double[oldKeys.length * 2];
+            size = 0;
+            for(int i = 0; i < oldKeys.length; i++){
+                if(oldKeys[i]!=0) add(oldKeys[i] - 1, oldValues[i]);
+            }
+        }
+
+        void remove(int key){
+            int mask = keys.length - 1;
+            for(int slot = (key * 0x9E3779B9 >>> 7) & mask; keys[slot]!=0; slot = (slot + 1) & mask){
+                if(keys[slot]==key + 1) values[slot] = Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        // whether slot a ranks below slot b: a lower score, or the same score and a later song
+        private boolean below(int a, int b){
+            if(values[a]!=values[b]) return values[a]<values[b];
+            return keys[a]>keys[b];
+        }
+
+        // the k best keys, highest score first and then lowest id, through a min-heap of slots
+        List<Integer> top(int k){
+            int[] heap = new int[Math.max(1, Math.min(k, size))];
+            int n = 0;
+            for(int slot = 0; slot < keys.length; slot++){
+                if(keys[slot]==0 || values[slot]==Double.NEGATIVE_INFINITY) continue;
+                if(n<heap.length){
+                    heap[n] = slot;
+                    for(int i = n++; i > 0 && below(heap[i], heap[(i - 1) >>> 1]); i = (i - 1) >>> 1) swap(heap, i, (i - 1) >>> 1);
+                } else if(below(heap[0], slot)){
+                    heap[0] = slot;
+                    siftDown(heap, n);
+                }
+            }
+            Integer[] result = new Integer[n];
+            while(n > 0){
+                result[n - 1] = keys[heap[0]] - 1;
+                heap[0] = heap[--n];
+                siftDown(heap, n);
+            }
+            return Arrays.asList(result);
+        }
+
+        private void siftDown(int[] heap, int n){
+            for(int i = 0; ; ){
+                int child = 2 * i + 1;
+                if(child>=n) return;
+                if(child + 1<n && below(heap[child + 1], heap[child])) child++;
+                if(!below(heap[child], heap[i])) return;
+                swap(heap, i, child);
+                i = child;
+            }
+        }
+
+        private static void swap(int[] heap, int a, int b){
+            int t = heap[a];
+            heap[a] = heap[b];
+            heap[b] = t;
+        }
+    }
+}
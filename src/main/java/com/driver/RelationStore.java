@@ -0,0 +1,90 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Storage for the like and membership graphs of a SpotifyRepository: who liked a song, which songs and
+// listeners a playlist has, and which playlists a user has. Ids are the dense ids of users, songs and playlists.
+interface RelationStore {
+
+    // how many partitions the store keeps user-owned state in, and which one holds the user's
+    default int shards(){
+        return 1;
+    }
+
+    default int shardOf(User user){
+        return 0;
+    }
+
+    // false if the user already liked the song
+    boolean addLike(Song song, User user);
+
+    // whether the user liked the song, since the catalog was loaded or before
+    boolean hasLike(Song song, User user);
+
+    int likeCount(Song song);
+
+    // ids of the users who liked the song, or null if the song is untouched since the catalog was loaded
+    int[] likerIds(Song song);
+
+    // registers a new playlist: its songs, the creator as its first listener, the creator's latest created
+    // playlist and one of the creator's playlists
+    void addPlaylist(Playlist playlist, User creator, List<Song> songs);
+
+    List<Song> playlistSongs(Playlist playlist);
+
+    // up to count of the playlist's songs from the given position on
+    default List<Song> playlistSongs(Playlist playlist, int from, int count){
+        return range(playlistSongs(playlist), from, count);
+    }
+
+    // adds a listener and the playlist to the listener's playlists; false if the user already listened
+    boolean addListener(Playlist playlist, User user);
+
+    boolean hasListener(Playlist playlist, User user);
+
+    int listenerCount(Playlist playlist);
+
+    int[] listenerIds(Playlist playlist);
+
+    // the count smallest ids of the playlist's listeners at or above from, in order
+    int[] listenerIds(Playlist playlist, int from, int count);
+
+    List<Playlist> userPlaylists(User user);
+
+    // up to count of the user's playlists from the given position on
+    default List<Playlist> userPlaylists(User user, int from, int count){
+        return range(userPlaylists(user), from, count);
+    }
+
+    // the playlist the user created last
+    Playlist createdPlaylist(User user);
+
+    // listeners of a playlist, ordered by user id so a page of them starts with a seek rather than a scan
+    static NavigableSet<User> listenerSet(){
+        return new ConcurrentSkipListSet<>(Comparator.comparingInt(User::getId));
+    }
+
+    // the count smallest ids at or above from of a set made by listenerSet
+    static int[] idPage(NavigableSet<User> users, int from, int count){
+        User bound = new User();
+        bound.setId(from);
+        IntList ids = new IntList(Math.min(Math.max(count, 1), 256));
+        for(User u: users.tailSet(bound, true)){
+            if(ids.size()>=count) break;
+            ids.add(u.getId());
+        }
+        return ids.toArray();
+    }
+
+    // a copy of part of an append-only, random-access list
+    static <T> List<T> range(List<T> list, int from, int count){
+        int end = (int) Math.min(list.size(), (long) from + count);
+        List<T> part = new ArrayList<>(Math.max(0, end - from));
+        for(int i = from; i < end; i++) part.add(list.get(i));
+        return part;
+    }
+}
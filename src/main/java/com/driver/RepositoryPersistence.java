@@ -0,0 +1,257 @@
+package com.driver;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable storage for a SpotifyRepository: every mutation goes to a write-ahead log, and a periodic
+ * snapshot lets older log segments be dropped. A snapshot is a columnar catalog (see MappedCatalog), so
+ * recovery maps catalog-G.col, loads the repository from its columns and replays every wal-H.log with H >= G.
+ *
+ * Enabled by starting the application with -Dspotify.data.dir=/path. Optional settings:
+ * spotify.wal.sync (default true: a request returns once its records are fsynced, sharing the
+ * fsync with concurrent requests; false: return immediately and let the flusher catch up) and
+ * spotify.snapshot.interval.seconds (default 300).
+ *
+ * Likes are applied asynchronously with -Dspotify.likes.async=true (see LikePipeline), by
+ * spotify.likes.writers threads (default 1) from queues holding spotify.likes.queue likes in total
+ * (default 65536); a like waits up to spotify.likes.queue.timeout.ms (default 100) for room.
+ *
+ * Likes and listens are also kept as history in events/ (see EventLog), in segments of
+ * spotify.events.segment.bytes (default 64 MB), all but the newest spotify.events.keep.segments
+ * (default 8) compacted into per-song and per-user counts.
+ */
+public class RepositoryPersistence implements Closeable {
+
+    private final Path dir;
+    private final SpotifyRepository repository;
+    private final WriteAheadLog wal;
+    private final EventLog events;
+    private final ScheduledExecutorService snapshots;
+
+    private RepositoryPersistence(Path dir, SpotifyRepository repository, WriteAheadLog wal, EventLog events, long snapshotIntervalSeconds){
+        this.dir = dir;
+        this.repository = repository;
+        this.wal = wal;
+        this.events = events;
+        this.snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "repository-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        if(snapshotIntervalSeconds>0){
+            snapshots.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private static volatile SpotifyRepository shared;
+
+    // the one repository of this process, opened on first use; every SpotifyService and the Spring bean share it
+    public static SpotifyRepository shared(){
+        SpotifyRepository repository = shared;
+        if(repository==null){
+            synchronized (RepositoryPersistence.class){
+                repository = shared;
+                if(repository==null) shared = repository = openConfigured();
+            }
+        }
+        return repository;
+    }
+
+    // persistent when spotify.data.dir is set, in-memory otherwise
+    public static SpotifyRepository openConfigured(){
+        String dir = System.getProperty("spotify.data.dir");
+        if(dir==null || dir.trim().isEmpty()) return configureLikes(new SpotifyRepository());
+        boolean waitForSync = Boolean.parseBoolean(System.getProperty("spotify.wal.sync", "true"));
+        long interval = Long.getLong("spotify.snapshot.interval.seconds", 300);
+        try {
+            RepositoryPersistence persistence = open(Paths.get(dir.trim()), waitForSync, interval);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    persistence.close();
+                } catch (IOException ignored) {
+                    // the log is fsynced continuously; nothing more can be done while exiting
+                }
+            }));
+            return configureLikes(persistence.getRepository());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open repository in " + dir, e);
+        }
+    }
+
+    // after recovery, so replay itself stays synchronous
+    private static SpotifyRepository configureLikes(SpotifyRepository repository){
+        if(Boolean.getBoolean("spotify.likes.async")){
+            repository.enableAsyncLikes(Integer.getInteger("spotify.likes.writers", 1),
+                    Integer.getInteger("spotify.likes.queue", 1 << 16),
+                    Long.getLong("spotify.likes.queue.timeout.ms", 100));
+        }
+        return repository;
+    }
+
+    public static RepositoryPersistence open(Path dir, boolean waitForSync, long snapshotIntervalSeconds) throws IOException {
+        Files.createDirectories(dir);
+        SpotifyRepository repository = new SpotifyRepository();
+
+        long snapshotGeneration = 0;
+        List<Long> snapshotGenerations = generations(dir, "catalog-", ".col");
+        if(!snapshotGenerations.isEmpty()){
+            snapshotGeneration = snapshotGenerations.get(snapshotGenerations.size() - 1);
+            repository.loadCatalog(MappedCatalog.open(snapshotPath(dir, snapshotGeneration)));
+        }
+
+        long nextGeneration = snapshotGeneration;
+        for(long g: generations(dir, "wal-", ".log")){
+            if(g<snapshotGeneration) continue;
+            replaySegment(WriteAheadLog.segmentPath(dir, g), repository);
+            nextGeneration = g + 1;
+        }
+
+        // never append to a recovered segment: its tail may be torn
+        WriteAheadLog wal = new WriteAheadLog(dir, nextGeneration, waitForSync);
+        repository.attachLog(wal);
+
+        // after replay: recovery re-applies likes that are already history
+        EventLog events = EventLog.open(dir.resolve("events"), Long.getLong("spotify.events.segment.bytes", 64L << 20),
+                Integer.getInteger("spotify.events.keep.segments", 8), repository::eventBaseline);
+        repository.attachEventLog(events);
+        return new RepositoryPersistence(dir, repository, wal, events, snapshotIntervalSeconds);
+    }
+
+    public SpotifyRepository getRepository(){
+        return repository;
+    }
+
+    static Path snapshotPath(Path dir, long generation){
+        return dir.resolve("catalog-" + generation + ".col");
+    }
+
+    static List<Long> generations(Path dir, String prefix, String suffix) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)){
+            for(Path file: files){
+                String name = file.getFileName().toString();
+                try {
+                    result.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void replaySegment(Path file, SpotifyRepository repository) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))){
+            if(readMagic(in)!=WriteAheadLog.MAGIC) return;
+            byte[] payload;
+            // a crash can leave a partial record at the end; everything before it is intact
+            while((payload = readRecord(in))!=null){
+                LogRecords.apply(payload, repository);
+            }
+        }
+    }
+
+    private static int readMagic(DataInputStream in) throws IOException {
+        try {
+            return in.readInt();
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    // null at end of input or at a torn / corrupt record
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if(length<=0 || length>(1 << 26)) return null;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 check = new CRC32();
+            check.update(payload, 0, payload.length);
+            return (int) check.getValue()==crc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static final Metrics.Counter SNAPSHOT_FAILURES = Metrics.counter("repository.snapshot.failures");
+
+    private void snapshotQuietly(){
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            // keep the schedule going; the log alone is still enough to recover, but segments pile up until a
+            // snapshot succeeds, so the failure and its cause show in /spotify/metrics
+            SNAPSHOT_FAILURES.error(e);
+        }
+    }
+
+    /**
+     * Starts a new log segment and writes a catalog that covers everything logged before it. Writers
+     * keep going while the catalog is collected; whatever they do lands in the new segment, and replaying
+     * it over a catalog that already contains some of it is harmless because every record is idempotent.
+     */
+    public synchronized void snapshot() throws IOException {
+        SnapshotCut cut = repository.cutForSnapshot(wal);
+        MappedCatalog.Contents contents = repository.collectCatalog(cut);
+        Path tmp = dir.resolve("catalog-" + cut.generation + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            MappedCatalog.write(channel, contents);
+            channel.force(true);
+        }
+        Path file = snapshotPath(dir, cut.generation);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // the new catalog supersedes older catalogs and segments; cold likers are read from it from now on
+        repository.useCatalog(MappedCatalog.open(file));
+        for(long g: generations(dir, "catalog-", ".col")){
+            if(g<cut.generation) Files.deleteIfExists(snapshotPath(dir, g));
+        }
+        WriteAheadLog.deleteSegmentsBefore(dir, cut.generation);
+    }
+
+    // the log position a snapshot starts from, and how many songs, artists and playlists existed at that point
+    static final class SnapshotCut {
+        final long generation;
+        final int songCount;
+        final int artistCount;
+        final int playlistCount;
+
+        SnapshotCut(long generation, int songCount, int artistCount, int playlistCount){
+            this.generation = generation;
+            this.songCount = songCount;
+            this.artistCount = artistCount;
+            this.playlistCount = playlistCount;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshots.shutdownNow();
+        try {
+            repository.flushLikes();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // a failed like batch is thrown from the flush, after the logs are closed
+            try {
+                events.close();
+            } finally {
+                wal.close();
+            }
+        }
+    }
+
+    public EventLog getEvents(){
+        return events;
+    }
+}
@@ -0,0 +1,163 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Inverted index from the words of a name or title to the items that contain them, for search and typeahead.
+// Words are runs of letters and digits, lower-cased. The dictionary is sorted, so the items behind a prefix
+// are the postings of a contiguous range of words. Items are only ever added, from the create paths.
+//
+// A query matches an item when every complete word of the query is a word of the item and, unless the query
+// ends in a separator, its last (partial) word is a prefix of one of them. find() looks at no more than a
+// budget of postings, so a one-letter prefix over millions of songs costs the same as a rare word; callers
+// add the most popular items as extra candidates so the best matches are not lost to the budget.
+public class SearchIndex<T> {
+
+    // append-only list of items; readers see a prefix of it without locking
+    private static final class Postings {
+        private volatile Object[] items = new Object[2];
+        private volatile int size;
+
+        synchronized void add(Object item){
+            Object[] current = items;
+            if(size==current.length) items = current = Arrays.copyOf(current, size * 2);
+            current[size] = item;
+            // publishes the slot: a reader that sees the new size sees the array holding it
+            size = size + 1;
+        }
+    }
+
+    public static final class Query {
+        final List<String> words;
+        final String prefix;
+
+        private Query(List<String> words, String prefix){
+            this.words = words;
+            this.prefix = prefix;
+        }
+
+        public boolean isEmpty(){
+            return words.isEmpty() && prefix==null;
+        }
+    }
+
+    private final ConcurrentSkipListMap<String, Postings> dictionary = new ConcurrentSkipListMap<>();
+    private final Function<T, String> text;
+
+    public SearchIndex(Function<T, String> text){
+        this.text = text;
+    }
+
+    public static List<String> words(String text){
+        List<String> words = new ArrayList<>(4);
+        int start = -1;
+        for(int i = 0; i <= text.length(); i++){
+            boolean inWord = i<text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(inWord && start<0) start = i;
+            if(!inWord && start>=0){
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    public static Query parse(String query){
+        List<String> words = words(query);
+        boolean partial = !words.isEmpty() && Character.isLetterOrDigit(query.charAt(query.length() - 1));
+        String prefix = partial ? words.remove(words.size() - 1) : null;
+        return new Query(words, prefix);
+    }
+
+    public void add(T item){
+        for(String word: new LinkedHashSet<>(words(text.apply(item)))){
+            dictionary.computeIfAbsent(word, k -> new Postings()).add(item);
+        }
+    }
+
+    // Passes matching items to the consumer, reading at most budget postings; popular items are checked as
+    // well, whatever the budget. An item may be passed more than once. Checking a candidate against the query
+    // costs a walk over its text, so candidates the caller would not keep anyway are dropped first.
+    @SuppressWarnings("unchecked")
+    public void find(Query query, int budget, Collection<T> popular, Predicate<T> wanted, Consumer<T> consumer){
+        if(query.isEmpty()) return;
+        for(T item: popular){
+            if(wanted.test(item) && matches(item, query)) consumer.accept(item);
+        }
+
+        // candidates come from the rarest complete word, or from the words the prefix starts if those are only a
+        // few words holding fewer items than that and than the budget; walking the dictionary is the slow part
+        Postings rarest = null;
+        for(String word: query.words){
+            Postings postings = dictionary.get(word);
+            if(postings==null) return;
+            if(rarest==null || postings.size<rarest.size) rarest = postings;
+        }
+        Collection<Postings> prefixed = query.prefix==null ? null
+                : dictionary.subMap(query.prefix, true, query.prefix + Character.MAX_VALUE, false).values();
+        if(rarest!=null && (prefixed==null || !fewer(prefixed, Math.min(rarest.size, budget)))){
+            boolean exact = query.words.size()==1 && query.prefix==null;
+            int n = Math.min(rarest.size, budget);
+            Object[] items = rarest.items;
+            for(int i = 0; i < n; i++){
+                T item = (T) items[i];
+                if(wanted.test(item) && (exact || matches(item, query))) consumer.accept(item);
+            }
+            return;
+        }
+        boolean exact = query.words.isEmpty();
+        int read = 0;
+        for(Postings postings: prefixed){
+            int n = postings.size;
+            Object[] items = postings.items;
+            for(int i = 0; i < n && read < budget; i++, read++){
+                T item = (T) items[i];
+                if(wanted.test(item) && (exact || matches(item, query))) consumer.accept(item);
+            }
+            if(read>=budget) return;
+        }
+    }
+
+    private static final int PREFIX_WORDS = 64;
+
+    // whether at most PREFIX_WORDS postings add up to less than the limit
+    private static boolean fewer(Collection<Postings> postings, int limit){
+        long total = 0;
+        int words = 0;
+        for(Postings p: postings){
+            total += p.size;
+            if(total>=limit || ++words>PREFIX_WORDS) return false;
+        }
+        return true;
+    }
+
+    // walks the words of the item's text in place, without splitting it
+    private boolean matches(T item, Query query){
+        String value = text.apply(item);
+        long missing = query.words.size()>=64 ? -1L : (1L << query.words.size()) - 1;
+        boolean prefixFound = query.prefix==null;
+        int start = -1;
+        for(int i = 0; i <= value.length(); i++){
+            boolean inWord = i<value.length() && Character.isLetterOrDigit(value.charAt(i));
+            if(inWord && start<0) start = i;
+            if(inWord || start<0) continue;
+            int length = i - start;
+            for(int w = 0; w < query.words.size() && w < 64; w++){
+                String word = query.words.get(w);
+                if(word.length()==length && value.regionMatches(true, start, word, 0, length)) missing &= ~(1L << w);
+            }
+            if(!prefixFound && length>=query.prefix.length()){
+                prefixFound = value.regionMatches(true, start, query.prefix, 0, query.prefix.length());
+            }
+            start = -1;
+        }
+        return missing==0 && prefixFound;
+    }
+
+    public int wordCount(){
+        return dictionary.size();
+    }
+}
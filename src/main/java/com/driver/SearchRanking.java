@@ -0,0 +1,59 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The best matches seen so far, at most limit of them: most likes first, then the shorter name, then by name.
+// Candidates that do not make the cut cost a comparison; results are only built for the ones kept.
+final class SearchRanking {
+    private final Object[] items;
+    private final String[] types;
+    private final String[] names;
+    private final int[] likes;
+    private int size;
+
+    SearchRanking(int limit){
+        items = new Object[limit];
+        types = new String[limit];
+        names = new String[limit];
+        this.likes = new int[limit];
+    }
+
+    // whether an item with these likes and this name would be kept if it matched
+    boolean wants(String name, int itemLikes){
+        return items.length>0 && (size<items.length || before(itemLikes, name, size - 1));
+    }
+
+    void offer(Object item, String type, String name, int itemLikes){
+        int limit = items.length;
+        if(!wants(name, itemLikes)) return;
+        // the same item can be offered twice, as a popular item and from the postings
+        for(int i = 0; i < size; i++){
+            if(items[i]==item) return;
+        }
+        int pos = size<limit ? size++ : limit - 1;
+        while(pos>0 && before(itemLikes, name, pos - 1)){
+            items[pos] = items[pos - 1];
+            types[pos] = types[pos - 1];
+            names[pos] = names[pos - 1];
+            likes[pos] = likes[pos - 1];
+            pos--;
+        }
+        items[pos] = item;
+        types[pos] = type;
+        names[pos] = name;
+        likes[pos] = itemLikes;
+    }
+
+    private boolean before(int itemLikes, String name, int i){
+        if(itemLikes!=likes[i]) return itemLikes>likes[i];
+        if(name.length()!=names[i].length()) return name.length()<names[i].length();
+        return name.compareTo(names[i])<0;
+    }
+
+    List<SearchResult> results(){
+        List<SearchResult> results = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) results.add(new SearchResult(types[i], names[i], likes[i]));
+        return results;
+    }
+}
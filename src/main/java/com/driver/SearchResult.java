@@ -0,0 +1,41 @@
+package com.driver;
+
+public class SearchResult {
+    private String type;
+    private String name;
+    private int likes;
+
+    public SearchResult(){
+
+    }
+
+    public SearchResult(String type, String name, int likes){
+        this.type = type;
+        this.name = name;
+        this.likes = likes;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getLikes() {
+        return likes;
+    }
+
+    public void setLikes(int likes) {
+        this.likes = likes;
+    }
+}
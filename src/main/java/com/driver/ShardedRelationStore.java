@@ -0,0 +1,171 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Partitions user-owned state by the hash of the user's mobile: each shard holds the likes of its users
+// (as the likers of a song among those users), their playlists and the playlists they created. Likes from
+// users of different shards never share a set, and the repository ranks them in per-shard leaderboards.
+// Playlist songs and listeners belong to the playlist and stay in the repository's shared maps.
+final class ShardedRelationStore implements RelationStore {
+
+    private static final class Shard {
+        final ConcurrentHashMap<Song, Set<User>> likers = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<User, List<Playlist>> userPlaylists = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<User, Playlist> createdPlaylists = new ConcurrentHashMap<>();
+    }
+
+    private final SpotifyRepository repository;
+    private final Shard[] shards;
+
+    ShardedRelationStore(SpotifyRepository repository, int shardCount){
+        this.repository = repository;
+        this.shards = new Shard[Math.max(1, shardCount)];
+        for(int i = 0; i < shards.length; i++) shards[i] = new Shard();
+    }
+
+    @Override
+    public int shards(){
+        return shards.length;
+    }
+
+    @Override
+    public int shardOf(User user){
+        int h = user.getMobile().hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, shards.length);
+    }
+
+    @Override
+    public boolean addLike(Song song, User user){
+        int shard = shardOf(user);
+        return shards[shard].likers.computeIfAbsent(song, s -> initialLikers(s, shard)).add(user);
+    }
+
+    // the likers of the shard the song was loaded with
+    private Set<User> initialLikers(Song song, int shard){
+        Set<User> likers = ConcurrentHashMap.newKeySet();
+        int[] cold = repository.coldLikers(song.getId());
+        if(cold!=null){
+            for(int id: cold){
+                User user = repository.users.get(id);
+                if(shardOf(user)==shard) likers.add(user);
+            }
+        }
+        return likers;
+    }
+
+    @Override
+    public boolean hasLike(Song song, User user){
+        Set<User> likers = shards[shardOf(user)].likers.get(song);
+        return likers==null ? repository.coldLiked(song.getId(), user.getId()) : likers.contains(user);
+    }
+
+    // counted from the likers, not the song's counter, so rebuildLikesFromEvents can check one against the other;
+    // a shard that has not seen the song since the catalog was loaded counts its users among the cold likers
+    @Override
+    public int likeCount(Song song){
+        int count = 0;
+        boolean touched = false;
+        int[] cold = null;
+        for(int s = 0; s < shards.length; s++){
+            Set<User> likers = shards[s].likers.get(song);
+            if(likers!=null){
+                touched = true;
+                count += likers.size();
+                continue;
+            }
+            if(cold==null) cold = repository.coldLikers(song.getId());
+            if(cold==null) continue;
+            for(int id: cold){
+                if(shardOf(repository.users.get(id))==s) count++;
+            }
+        }
+        return touched ? count : repository.coldLikerCount(song.getId());
+    }
+
+    @Override
+    public int[] likerIds(Song song){
+        IntList ids = new IntList();
+        boolean touched = false;
+        int[] cold = null;
+        for(int s = 0; s < shards.length; s++){
+            Set<User> likers = shards[s].likers.get(song);
+            if(likers!=null){
+                touched = true;
+                for(User u: likers) ids.add(u.getId());
+                continue;
+            }
+            if(cold==null) cold = repository.coldLikers(song.getId());
+            if(cold==null) continue;
+            for(int id: cold){
+                if(shardOf(repository.users.get(id))==s) ids.add(id);
+            }
+        }
+        return touched ? ids.toArray() : null;
+    }
+
+    @Override
+    public void addPlaylist(Playlist playlist, User creator, List<Song> songs){
+        repository.playlistSongMap.put(playlist, songs);
+        NavigableSet<User> listeners = RelationStore.listenerSet();
+        listeners.add(creator);
+        repository.playlistListenerMap.put(playlist, listeners);
+        Shard shard = shards[shardOf(creator)];
+        shard.createdPlaylists.put(creator, playlist);
+        shard.userPlaylists.computeIfAbsent(creator, k -> new CopyOnWriteArrayList<>()).add(playlist);
+    }
+
+    @Override
+    public List<Song> playlistSongs(Playlist playlist){
+        List<Song> songs = repository.playlistSongMap.get(playlist);
+        return songs==null ? Collections.emptyList() : songs;
+    }
+
+    @Override
+    public boolean addListener(Playlist playlist, User user){
+        Set<User> listeners = repository.playlistListenerMap.computeIfAbsent(playlist, k -> RelationStore.listenerSet());
+        if(!listeners.add(user)) return false;
+        shards[shardOf(user)].userPlaylists.computeIfAbsent(user, k -> new CopyOnWriteArrayList<>()).add(playlist);
+        return true;
+    }
+
+    @Override
+    public boolean hasListener(Playlist playlist, User user){
+        Set<User> listeners = repository.playlistListenerMap.get(playlist);
+        return listeners!=null && listeners.contains(user);
+    }
+
+    @Override
+    public int listenerCount(Playlist playlist){
+        Set<User> listeners = repository.playlistListenerMap.get(playlist);
+        return listeners==null ? 0 : listeners.size();
+    }
+
+    @Override
+    public int[] listenerIds(Playlist playlist){
+        Set<User> listeners = repository.playlistListenerMap.get(playlist);
+        if(listeners==null) return new int[0];
+        IntList ids = new IntList(listeners.size() + 1);
+        for(User u: listeners) ids.add(u.getId());
+        return ids.toArray();
+    }
+
+    @Override
+    public int[] listenerIds(Playlist playlist, int from, int count){
+        NavigableSet<User> listeners = repository.playlistListenerMap.get(playlist);
+        return listeners==null ? new int[0] : RelationStore.idPage(listeners, from, count);
+    }
+
+    @Override
+    public List<Playlist> userPlaylists(User user){
+        List<Playlist> playlists = shards[shardOf(user)].userPlaylists.get(user);
+        return playlists==null ? Collections.emptyList() : playlists;
+    }
+
+    @Override
+    public Playlist createdPlaylist(User user){
+        return shards[shardOf(user)].createdPlaylists.get(user);
+    }
+}
@@ -1,9 +1,12 @@
 package com.driver;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Song {
     private String title;
     private int length;
-    private int likes;
+    private int id;
+    private final AtomicInteger likes = new AtomicInteger();
 
     public Song(){
 
@@ -30,11 +33,27 @@ public class Song {
         this.length = length;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public int getLikes() {
-        return likes;
+        return likes.get();
     }
 
     public void setLikes(int likes) {
-        this.likes = likes;
+        this.likes.set(likes);
+    }
+
+    public int incrementLikes() {
+        return likes.incrementAndGet();
+    }
+
+    public int addLikes(int delta) {
+        return likes.addAndGet(delta);
     }
 }
@@ -0,0 +1,41 @@
+package com.driver;
+
+public class SongRequest {
+    private String title;
+    private String albumName;
+    private int length;
+
+    public SongRequest(){
+
+    }
+
+    public SongRequest(String title, String albumName, int length){
+        this.title = title;
+        this.albumName = albumName;
+        this.length = length;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getAlbumName() {
+        return albumName;
+    }
+
+    public void setAlbumName(String albumName) {
+        this.albumName = albumName;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+}
@@ -0,0 +1,222 @@
+package com.driver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Space-Saving summary of the most frequent int keys (Metwally et al.), in a fixed number of counters.
+// A key not being counted takes over the smallest counter, inheriting its count as the key's error, so
+// a counter is never below its key's true count and never more than error above it. Any key seen more
+// than total / capacity times is always counted. Not thread-safe; HeavyHitters locks around it.
+//
+// Counters live in a min-heap on count, in parallel arrays, and an open-addressing table maps each key to
+// its heap position, so an update costs a probe and a few swaps and allocates nothing.
+public class SpaceSaving<T> {
+
+    private final int capacity;
+    private final int[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Object[] items;
+    // table slot of each heap position's key
+    private final int[] slotOf;
+    private int size;
+    private long total;
+
+    // heap position + 1 per slot, 0 for empty
+    private final int[] table;
+    private final int mask;
+
+    public SpaceSaving(int capacity){
+        this.capacity = Math.max(1, capacity);
+        keys = new int[this.capacity];
+        counts = new long[this.capacity];
+        errors = new long[this.capacity];
+        items = new Object[this.capacity];
+        slotOf = new int[this.capacity];
+        int tableSize = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+        table = new int[tableSize];
+        mask = tableSize - 1;
+    }
+
+    private static int hash(int key){
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(int key){
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask){
+            int pos = table[slot] - 1;
+            if(pos<0) return -1;
+            if(keys[pos]==key) return pos;
+        }
+    }
+
+    private void insert(int pos){
+        int slot = hash(keys[pos]) & mask;
+        while(table[slot]!=0) slot = (slot + 1) & mask;
+        table[slot] = pos + 1;
+        slotOf[pos] = slot;
+    }
+
+    // backward-shift deletion, so lookups never need tombstones
+    private void delete(int pos){
+        int hole = slotOf[pos];
+        table[hole] = 0;
+        for(int slot = (hole + 1) & mask; table[slot]!=0; slot = (slot + 1) & mask){
+            int moved = table[slot] - 1;
+            int home = hash(keys[moved]) & mask;
+            // the entry may fill the hole only if its home is not in (hole, slot]
+            if(((slot - home) & mask) >= ((slot - hole) & mask)){
+                table[hole] = moved + 1;
+                slotOf[moved] = hole;
+                table[slot] = 0;
+                hole = slot;
+            }
+        }
+    }
+
+    public void add(int key, T item, long count){
+        total += count;
+        int pos = find(key);
+        if(pos>=0){
+            counts[pos] += count;
+            siftDown(pos);
+            return;
+        }
+        if(size<capacity){
+            pos = size++;
+            keys[pos] = key;
+            items[pos] = item;
+            counts[pos] = count;
+            errors[pos] = 0;
+            insert(pos);
+            siftUp(pos);
+            return;
+        }
+        // evict the smallest counter
+        delete(0);
+        keys[0] = key;
+        items[0] = item;
+        errors[0] = counts[0];
+        counts[0] += count;
+        insert(0);
+        siftDown(0);
+    }
+
+    private void siftUp(int pos){
+        while(pos>0){
+            int parent = (pos - 1) >>> 1;
+            if(counts[parent]<=counts[pos]) return;
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos){
+        while(true){
+            int child = 2 * pos + 1;
+            if(child>=size) return;
+            if(child + 1<size && counts[child + 1]<counts[child]) child++;
+            if(counts[pos]<=counts[child]) return;
+            swap(pos, child);
+            pos = child;
+        }
+    }
+
+    private void swap(int a, int b){
+        int key = keys[a]; keys[a] = keys[b]; keys[b] = key;
+        long count = counts[a]; counts[a] = counts[b]; counts[b] = count;
+        long error = errors[a]; errors[a] = errors[b]; errors[b] = error;
+        Object item = items[a]; items[a] = items[b]; items[b] = item;
+        int slot = slotOf[a]; slotOf[a] = slotOf[b]; slotOf[b] = slot;
+        table[slotOf[a]] = a + 1;
+        table[slotOf[b]] = b + 1;
+    }
+
+    // the key's counter, or 0 if it is not counted
+    public long count(int key){
+        int pos = find(key);
+        return pos<0 ? 0 : counts[pos];
+    }
+
+    // how far the key's counter may exceed its true count
+    public long error(int key){
+        int pos = find(key);
+        return pos<0 ? 0 : errors[pos];
+    }
+
+    // an upper bound on the count of any key that is not counted
+    public long floor(){
+        return size<capacity ? 0 : counts[0];
+    }
+
+    public long total(){
+        return total;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int capacity(){
+        return capacity;
+    }
+
+    public interface Visitor<T> {
+        void visit(int key, T item, long count, long error);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<T> visitor){
+        for(int i = 0; i < size; i++) visitor.visit(keys[i], (T) items[i], counts[i], errors[i]);
+    }
+
+    private static final class Merged<T> {
+        final int key;
+        final T item;
+        final long count;
+        final long error;
+
+        Merged(int key, T item, long count, long error){
+            this.key = key;
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    // Folds another summary into this one (Berinde et al.): a key missing from one side may still have had
+    // up to that side's floor, so it is charged the floor as count and error. Of the combined counters the
+    // largest capacity are kept, and those still bound their keys' true counts from above.
+    public void merge(SpaceSaving<T> other){
+        long ownFloor = floor();
+        long otherFloor = other.floor();
+        List<Merged<T>> combined = new ArrayList<>(size + other.size);
+        forEach((key, item, count, error) -> {
+            int pos = other.find(key);
+            combined.add(pos<0 ? new Merged<>(key, item, count + otherFloor, error + otherFloor)
+                    : new Merged<>(key, item, count + other.counts[pos], error + other.errors[pos]));
+        });
+        other.forEach((key, item, count, error) -> {
+            if(find(key)<0) combined.add(new Merged<>(key, item, count + ownFloor, error + ownFloor));
+        });
+        combined.sort((a, b) -> Long.compare(b.count, a.count));
+        long merged = total + other.total;
+
+        Arrays.fill(table, 0);
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+        for(int i = 0; i < combined.size() && i < capacity; i++){
+            Merged<T> m = combined.get(i);
+            add(m.key, m.item, m.count);
+            errors[find(m.key)] = m.error;
+        }
+        total = merged;
+    }
+
+    public long bytes(){
+        // keys, counts, errors, item references (compressed), heap-to-slot and slot-to-heap ints
+        return capacity * (4L + 8 + 8 + 4 + 4) + 4L * table.length;
+    }
+}
@@ -0,0 +1,14 @@
+package com.driver;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SpotifyConfiguration {
+
+    // the process-wide repository, the same instance every SpotifyService uses
+    @Bean
+    public SpotifyRepository spotifyRepository(){
+        return RepositoryPersistence.shared();
+    }
+}
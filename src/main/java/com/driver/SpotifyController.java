@@ -1,8 +1,11 @@
 package com.driver;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("spotify")
@@ -11,86 +14,256 @@ public class SpotifyController {
     //Autowire will not work in this case, no need to change this and add autowire
     SpotifyService spotifyService = new SpotifyService();
 
+    // Writes return a future: with -Dspotify.web.async=true the request thread is released while the write is
+    // made durable and the response is sent from the log flusher; reads never block on I/O and stay synchronous
+
     @PostMapping("/add-user")
-    public String createUser(@RequestParam(name = "name") String name, String mobile){
+    public CompletableFuture<String> createUser(@RequestParam(name = "name") String name, String mobile) throws Exception{
         //create the user with given name and number
-        User person = spotifyService.createUser(name,mobile);
-        return "Success";
+        return spotifyService.write(() -> {
+            User person = spotifyService.createUser(name,mobile);
+            return "Success";
+        });
     }
 
     @PostMapping("/add-artist")
-    public String createArtist(@RequestParam(name = "name") String name){
+    public CompletableFuture<String> createArtist(@RequestParam(name = "name") String name) throws Exception{
         //create the artist with given name
-        Artist person = spotifyService.createArtist(name);
-        return "Success";
+        return spotifyService.write(() -> {
+            Artist person = spotifyService.createArtist(name);
+            return "Success";
+        });
     }
 
     @PostMapping("/add-album")
-    public String createAlbum(@RequestParam(name = "title") String title, String artistName){
+    public CompletableFuture<String> createAlbum(@RequestParam(name = "title") String title, String artistName) throws Exception{
         //If the artist does not exist, first create an artist with given name
         //Create an album with given title and artist
-        Album songsList = spotifyService.createAlbum(title,artistName);
-        return "Success";
+        return spotifyService.write(() -> {
+            Album songsList = spotifyService.createAlbum(title,artistName);
+            return "Success";
+        });
     }
 
     @PostMapping("/add-song")
-    public String createSong(@RequestParam(name = "title")String title,@RequestParam(name = "albumName")String albumName,@RequestParam(name = "length")int length) throws Exception{
+    public CompletableFuture<String> createSong(@RequestParam(name = "title")String title,@RequestParam(name = "albumName")String albumName,@RequestParam(name = "length")int length) throws Exception{
         //If the album does not exist in database, throw "Album does not exist" exception
         //Create and add the song to respective album
-        Song gaana = spotifyService.createSong(title, albumName, length);
-        return "Success";
+        return spotifyService.write(() -> {
+            Song gaana = spotifyService.createSong(title, albumName, length);
+            return "Success";
+        });
+    }
+
+    @PostMapping("/add-users")
+    public CompletableFuture<List<String>> createUsers(@RequestBody List<User> users) throws Exception{
+        //Create every user in the JSON array [{"name", "mobile"}]; a mobile that already exists keeps its user
+        //Returns one result per item, in request order
+        return spotifyService.write(() -> spotifyService.createUsers(users));
+    }
+
+    @PostMapping("/add-artists")
+    public CompletableFuture<List<String>> createArtists(@RequestBody List<String> names) throws Exception{
+        //Create an artist for every name in the JSON array that does not exist yet
+        //Returns one result per item, in request order
+        return spotifyService.write(() -> spotifyService.createArtists(names));
+    }
+
+    @PostMapping("/add-albums")
+    public CompletableFuture<List<String>> createAlbums(@RequestBody List<AlbumRequest> albums) throws Exception{
+        //Create every album in the JSON array [{"title", "artistName"}], creating missing artists first
+        //Returns one result per item, in request order
+        return spotifyService.write(() -> spotifyService.createAlbums(albums));
+    }
+
+    @PostMapping("/add-songs")
+    public CompletableFuture<List<String>> createSongs(@RequestBody List<SongRequest> songs) throws Exception{
+        //Create every song in the JSON array [{"title", "albumName", "length"}]
+        //Songs whose album does not exist are skipped with "Album does not exist" as their result
+        //Returns one result per item, in request order
+        return spotifyService.write(() -> spotifyService.createSongs(songs));
     }
 
     @PostMapping("/add-playlist-on-length")
-    public String createPlaylistOnLength(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "title")String title, @RequestParam(name = "length")int length) throws Exception{
+    public CompletableFuture<String> createPlaylistOnLength(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "title")String title, @RequestParam(name = "length")int length) throws Exception{
         //Create a playlist with given title and add all songs having the given length in the database to that playlist
         //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
         //If the user does not exist, throw "User does not exist" exception
-        Playlist listOfSongs = spotifyService.createPlaylistOnLength(mobile, title, length);
-        return "Success";
+        return spotifyService.write(() -> {
+            Playlist listOfSongs = spotifyService.createPlaylistOnLength(mobile, title, length);
+            return "Success";
+        });
+    }
+
+    @PostMapping("/add-playlist-on-length-range")
+    public CompletableFuture<String> createPlaylistOnLengthRange(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "title")String title, @RequestParam(name = "minLength")int minLength, @RequestParam(name = "maxLength")int maxLength) throws Exception{
+        //Create a playlist with given title and add all songs whose length lies between minLength and maxLength (both inclusive)
+        //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
+        //If minLength is greater than maxLength, throw "Invalid length range" exception
+        //If the user does not exist, throw "User does not exist" exception
+        return spotifyService.write(() -> {
+            Playlist listOfSongs = spotifyService.createPlaylistOnLengthRange(mobile, title, minLength, maxLength);
+            return "Success";
+        });
     }
 
     @PostMapping("/add-playlist-on-name")
-    public String createPlaylistOnName(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "title")String title, @RequestParam(name = "songTitles")List<String> songTitles) throws Exception{
+    public CompletableFuture<String> createPlaylistOnName(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "title")String title, @RequestParam(name = "songTitles")List<String> songTitles) throws Exception{
         //Create a playlist with given title and add all songs having the given titles in the database to that playlist
         //The creater of the playlist will be the given user and will also be the only listener at the time of playlist creation
         //If the user does not exist, throw "User does not exist" exception
-        Playlist listOfSongs = spotifyService.createPlaylistOnName(mobile, title, songTitles);
-        return "Success";
+        //Titles are matched ignoring case and surrounding spaces; titles with no matching song are listed in the response
+        return spotifyService.write(() -> {
+            Playlist listOfSongs = spotifyService.createPlaylistOnName(mobile, title, songTitles);
+            List<String> unmatched = spotifyService.getUnmatchedSongTitles(songTitles);
+            if(unmatched.isEmpty()) return "Success";
+            return "Success. Unmatched song titles: " + String.join(", ", unmatched);
+        });
     }
 
     @PutMapping("/find-playlist")
-    public String findPlaylist(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "playlistTitle")String playlistTitle) throws Exception{
+    public CompletableFuture<String> findPlaylist(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "playlistTitle")String playlistTitle) throws Exception{
         //Find the playlist with given title and add user as listener of that playlist and update user accordingly
         //If the user is creater or already a listener, do nothing
         //If the user does not exist, throw "User does not exist" exception
         //If the playlist does not exists, throw "Playlist does not exist" exception
         // Return the playlist after updating
-        Playlist tempPlaylist = spotifyService.findPlaylist(mobile,playlistTitle);
-        return "Success";
+        return spotifyService.write(() -> {
+            Playlist tempPlaylist = spotifyService.findPlaylist(mobile,playlistTitle);
+            return "Success";
+        });
     }
 
     @PutMapping("/like-song")
-    public String likeSong(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "songTitle")String songTitle) throws Exception{
+    public CompletableFuture<String> likeSong(@RequestParam(name = "mobile")String mobile, @RequestParam(name = "songTitle")String songTitle) throws Exception{
         //The user likes the given song. The corresponding artist of the song gets auto-liked
         //A song can be liked by a user only once. If a user tried to like a song multiple times, do nothing
         //However, an artist can indirectly have multiple likes from a user, if the user has liked multiple songs of that artist.
         //If the user does not exist, throw "User does not exist" exception
         //If the song does not exist, throw "Song does not exist" exception
         //Return the song after updating
-        Song tempSong = spotifyService.likeSong(mobile, songTitle);
-        return "Success";
+        return spotifyService.write(() -> {
+            Song tempSong = spotifyService.likeSong(mobile, songTitle);
+            return "Success";
+        });
     }
 
     @GetMapping("/popular-artist")
-    public String mostPopularArtist(){
+    public String mostPopularArtist(@RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
         //Return the artist name with maximum likes
+        //consistent=true waits for likes still queued by the asynchronous like pipeline
+        if(consistent) spotifyService.flushLikes();
         return spotifyService.mostPopularArtist();
     }
 
     @GetMapping("/popular-song")
-    public String mostPopularSong(){
+    public String mostPopularSong(@RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
         //return the song title with maximum likes
+        if(consistent) spotifyService.flushLikes();
         return spotifyService.mostPopularSong();
     }
+
+    @GetMapping("/popular-artists")
+    public List<String> mostPopularArtists(@RequestParam(name = "k", defaultValue = "10") int k, @RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
+        //Return up to k artist names ranked by likes; ties go to the artist created first
+        if(consistent) spotifyService.flushLikes();
+        return spotifyService.mostPopularArtists(k);
+    }
+
+    @GetMapping("/popular-songs")
+    public List<String> mostPopularSongs(@RequestParam(name = "k", defaultValue = "10") int k, @RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
+        //Return up to k song titles ranked by likes; ties go to the song created first
+        if(consistent) spotifyService.flushLikes();
+        return spotifyService.mostPopularSongs(k);
+    }
+
+    @GetMapping("/trending")
+    public Map<String, List<String>> trending(@RequestParam(name = "window", defaultValue = "1h") String window, @RequestParam(name = "k", defaultValue = "10") int k, @RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
+        //Return up to k song titles and k artist names ranked by likes received in the window (1h or 1d)
+        //If the window is not one of those, throw "Unknown window" exception
+        if(consistent) spotifyService.flushLikes();
+        return spotifyService.trending(window, k);
+    }
+
+    @GetMapping("/recommendations")
+    public List<String> recommendations(@RequestParam(name = "mobile") String mobile, @RequestParam(name = "k", defaultValue = "10") int k, @RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
+        //Return up to k song titles the user has not liked, scored by how often they were liked by the same users
+        //as the user's latest likes or placed next to them and to the songs of the user's playlists. At most 100
+        //When nothing scores (e.g. a user with no likes and no playlists) it returns the most liked songs, liked or not
+        //If the user does not exist, throw "User does not exist" exception
+        if(consistent) spotifyService.flushLikes();
+        return spotifyService.recommendations(mobile, Math.min(k, 100));
+    }
+
+    @GetMapping("/similar-songs")
+    public List<String> similarSongs(@RequestParam(name = "songTitle") String songTitle, @RequestParam(name = "k", defaultValue = "10") int k, @RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
+        //Return up to k song titles most often liked by the same users as the song or placed next to it in playlists. At most 100
+        //If the song does not exist, throw "Song does not exist" exception
+        if(consistent) spotifyService.flushLikes();
+        return spotifyService.similarSongs(songTitle, Math.min(k, 100));
+    }
+
+    //The read endpoints below stream {"items": [...], "nextCursor": "..."} without building the whole answer;
+    //pass nextCursor back as cursor for the next page, it is null after the last one. limit is 100 by default, at most 10000
+
+    @GetMapping(value = "/playlist-songs", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody playlistSongs(@RequestParam(name = "title") String title, @RequestParam(name = "cursor", defaultValue = "") String cursor, @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Songs of the playlist in playlist order
+        //If the playlist does not exist, throw "Playlist does not exist" exception
+        return spotifyService.playlistSongs(title, cursor, pageLimit(limit));
+    }
+
+    @GetMapping(value = "/playlist-listeners", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody playlistListeners(@RequestParam(name = "title") String title, @RequestParam(name = "cursor", defaultValue = "") String cursor, @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Listeners of the playlist, the creator included, in the order they signed up
+        //If the playlist does not exist, throw "Playlist does not exist" exception
+        return spotifyService.playlistListeners(title, cursor, pageLimit(limit));
+    }
+
+    @GetMapping(value = "/user-playlists", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody userPlaylists(@RequestParam(name = "mobile") String mobile, @RequestParam(name = "cursor", defaultValue = "") String cursor, @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Playlists the user created or listens to, in the order they were added
+        //If the user does not exist, throw "User does not exist" exception
+        return spotifyService.userPlaylists(mobile, cursor, pageLimit(limit));
+    }
+
+    @GetMapping(value = "/user-likes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody likedSongs(@RequestParam(name = "mobile") String mobile, @RequestParam(name = "cursor", defaultValue = "") String cursor, @RequestParam(name = "limit", defaultValue = "100") int limit, @RequestParam(name = "consistent", defaultValue = "false") boolean consistent) throws Exception{
+        //Songs the user liked, in the order they were liked (by song after a restart from a snapshot)
+        //If the user does not exist, throw "User does not exist" exception
+        if(consistent) spotifyService.flushLikes();
+        return spotifyService.likedSongs(mobile, cursor, pageLimit(limit));
+    }
+
+    @GetMapping(value = "/album-songs", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody albumSongs(@RequestParam(name = "title") String title, @RequestParam(name = "cursor", defaultValue = "") String cursor, @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Songs of the album in the order they were added
+        //If the album does not exist, throw "Album does not exist" exception
+        return spotifyService.albumSongs(title, cursor, pageLimit(limit));
+    }
+
+    @GetMapping(value = "/artist-albums", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody artistAlbums(@RequestParam(name = "name") String name, @RequestParam(name = "cursor", defaultValue = "") String cursor, @RequestParam(name = "limit", defaultValue = "100") int limit) throws Exception{
+        //Albums of the artist in the order they were added
+        //If the artist does not exist, throw "Artist does not exist" exception
+        return spotifyService.artistAlbums(name, cursor, pageLimit(limit));
+    }
+
+    private static int pageLimit(int limit){
+        return Math.max(1, Math.min(limit, 10_000));
+    }
+
+    @GetMapping("/search")
+    public List<SearchResult> search(@RequestParam(name = "q") String q, @RequestParam(name = "limit", defaultValue = "10") int limit){
+        //Songs, albums and artists whose title or name contains every word of q; the last word may be partial (typeahead)
+        //Ranked by likes, most liked first; an album counts the likes of its artist. At most 100 results
+        return spotifyService.search(q, Math.min(limit, 100));
+    }
+
+    @GetMapping("/metrics")
+    public Map<String, Object> metrics(){
+        //Request counts, errors and latency percentiles per endpoint, internal timers and histograms,
+        //the size of every repository collection and the lookup cache counters
+        return spotifyService.metrics();
+    }
 }
\ No newline at end of file
@@ -1,222 +1,661 @@
 package com.driver;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
 
-import org.springframework.stereotype.Repository;
-
-@Repository
+// exposed to Spring as the shared bean from SpotifyConfiguration, not by component scanning,
+// so the service and every other bean see the same instance
 public class SpotifyRepository {
-    public HashMap<Artist, List<Album>> artistAlbumMap;
-    public HashMap<Album, List<Song>> albumSongMap;
-    public HashMap<Playlist, List<Song>> playlistSongMap;
-    public HashMap<Playlist, List<User>> playlistListenerMap;
-    public HashMap<User, Playlist> creatorPlaylistMap;
-    public HashMap<User, List<Playlist>> userPlaylistMap;
-    public HashMap<Song, List<User>> songLikeMap;
+    public ConcurrentHashMap<Artist, List<Album>> artistAlbumMap;
+    public ConcurrentHashMap<Album, List<Song>> albumSongMap;
+    public ConcurrentHashMap<Playlist, List<Song>> playlistSongMap;
+    public ConcurrentHashMap<Playlist, NavigableSet<User>> playlistListenerMap;
+    public ConcurrentHashMap<User, Playlist> creatorPlaylistMap;
+    public ConcurrentHashMap<User, List<Playlist>> userPlaylistMap;
+    public ConcurrentHashMap<Song, Set<User>> songLikeMap;
+
+    // back-references so a like can be credited to the artist without scanning the catalog
+    public ConcurrentHashMap<Song, Album> songAlbumMap;
+    public ConcurrentHashMap<Album, Artist> albumArtistMap;
+    public ConcurrentHashMap<Playlist, User> playlistCreatorMap;
 
+    // synchronized lists; iterate them inside synchronized(list)
     public List<User> users;
     public List<Song> songs;
     public List<Playlist> playlists;
     public List<Album> albums;
     public List<Artist> artists;
 
+    // secondary indexes by mobile / name / title, matched trimmed and case-insensitively through a dictionary
+    // of each, so a lookup neither normalizes nor allocates
+    public NameIndex<User> userIndex;
+    public NameIndex<Artist> artistIndex;
+    public NameIndex<Album> albumIndex;
+    public NameIndex<List<Song>> songIndex;
+    public NameIndex<Playlist> playlistIndex;
+
+    // songs bucketed by length (synchronized lists, in creation order) for the length-based playlists
+    public ConcurrentSkipListMap<Integer, List<Song>> songLengthIndex;
+
+    // artists, albums and songs with their links as of the last create, for reads that must not lock;
+    // replaced whole by publishCatalog, never changed
+    private volatile CatalogVersion catalog = CatalogVersion.EMPTY;
+    private final Object catalogLock = new Object();
+
+    // ranked by likes as they happen, so the popularity endpoints never scan the catalog
+    private volatile LikeRanking<Artist> artistLeaderboard;
+    private volatile LikeRanking<Song> songLeaderboard;
+
+    // likes and listens are logged and applied under the read lock; rebuildLikesFromEvents takes the write lock
+    // to reset the counters and swap the rankings with no like half applied, and a snapshot cut takes it so
+    // nothing logged before the cut is added after it
+    private final ReentrantReadWriteLock likesGate = new ReentrantReadWriteLock();
+
+    // set once recovery is done; records are appended inside the same critical section that makes a change
+    // visible, so the log order matches the id order of songs and artists, and before anything is changed, so
+    // a record that cannot be encoded or appended leaves nothing half created
+    private volatile WriteAheadLog wal;
+
+    // history of likes and listens, set after recovery like the log; see EventLog
+    private volatile EventLog events;
+
+    // serializes check-then-create per normalized key without a global lock;
+    // the index entry is always written last, so anything found through an index is fully linked
+    private final StripedLock createLocks = new StripedLock(64);
+
+    // catalog the repository was loaded from; holds the likers of every song the relation store has not touched yet
+    private volatile MappedCatalog coldLikes;
+
+    // bounded caches in front of the three lookups requests resolve on every call; -Dspotify.cache.entries
+    // per cache (default 16384, 0 disables them)
+    public final LookupCache<User> userCache;
+    public final LookupCache<Song> songCache;
+    public final LookupCache<Playlist> playlistCache;
+
+    // words of song titles, album titles and artist names, for /spotify/search
+    public final SearchIndex<Song> songSearch = new SearchIndex<>(Song::getTitle);
+    public final SearchIndex<Album> albumSearch = new SearchIndex<>(Album::getTitle);
+    public final SearchIndex<Artist> artistSearch = new SearchIndex<>(Artist::getName);
+
+    // likes per song and artist over the last hour (12 five-minute buckets) and day (24 hourly buckets), fed by
+    // likeSong but not by recovery, which has no timestamps; for /spotify/trending
+    public final Map<String, TrendingChart<Song>> songTrends = new LinkedHashMap<>();
+    public final Map<String, TrendingChart<Artist>> artistTrends = new LinkedHashMap<>();
+    private volatile LongSupplier trendingClock = System::currentTimeMillis;
+
+    // songs each user liked, by id in the order they were liked, for /spotify/user-likes; a user the catalog
+    // holds likes for is only read into the heap when they like again, like the likers of a song
+    private final IntGraph userLikes = new IntGraph(false);
+
+    // songs liked together or placed together in playlists, for /spotify/recommendations and /spotify/similar-songs
+    public final Recommendations recommendations;
+
+    // set while whenLogged runs a mutation on this thread
+    private final ThreadLocal<boolean[]> deferLog = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    // set when likes are applied asynchronously (see LikePipeline)
+    private volatile LikePipeline likePipeline;
+
+    // likes, playlist songs, listeners and user playlists; the public maps above unless
+    // -Dspotify.relations=primitive or sharded (with -Dspotify.shards, default one per core)
+    private final RelationStore relations;
+
     public SpotifyRepository(){
+        this(System.getProperty("spotify.relations", "heap"), Integer.getInteger("spotify.shards", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public SpotifyRepository(boolean primitiveRelations){
+        this(primitiveRelations ? "primitive" : "heap", 1);
+    }
+
+    public SpotifyRepository(String relationStore, int shards){
         //To avoid hitting apis multiple times, initialize all the hashmaps here with some dummy data
-        artistAlbumMap = new HashMap<>();
-        albumSongMap = new HashMap<>();
-        playlistSongMap = new HashMap<>();
-        playlistListenerMap = new HashMap<>();
-        creatorPlaylistMap = new HashMap<>();
-        userPlaylistMap = new HashMap<>();
-        songLikeMap = new HashMap<>();
+        artistAlbumMap = new ConcurrentHashMap<>();
+        albumSongMap = new ConcurrentHashMap<>();
+        playlistSongMap = new ConcurrentHashMap<>();
+        playlistListenerMap = new ConcurrentHashMap<>();
+        creatorPlaylistMap = new ConcurrentHashMap<>();
+        userPlaylistMap = new ConcurrentHashMap<>();
+        songLikeMap = new ConcurrentHashMap<>();
+
+        songAlbumMap = new ConcurrentHashMap<>();
+        albumArtistMap = new ConcurrentHashMap<>();
+        playlistCreatorMap = new ConcurrentHashMap<>();
+
+        users = Collections.synchronizedList(new ArrayList<>());
+        songs = Collections.synchronizedList(new ArrayList<>());
+        playlists = Collections.synchronizedList(new ArrayList<>());
+        albums = Collections.synchronizedList(new ArrayList<>());
+        artists = Collections.synchronizedList(new ArrayList<>());
+
+        userIndex = new NameIndex<>();
+        artistIndex = new NameIndex<>();
+        albumIndex = new NameIndex<>();
+        songIndex = new NameIndex<>();
+        playlistIndex = new NameIndex<>();
+        songLengthIndex = new ConcurrentSkipListMap<>();
+
+        switch (relationStore.trim().toLowerCase(Locale.ROOT)){
+            case "primitive":
+                relations = new PrimitiveRelationStore(this);
+                break;
+            case "sharded":
+                relations = new ShardedRelationStore(this, shards);
+                break;
+            default:
+                relations = new HeapRelationStore(this);
+        }
+
+        recommendations = new Recommendations(this);
 
-        users = new ArrayList<>();
-        songs = new ArrayList<>();
-        playlists = new ArrayList<>();
-        albums = new ArrayList<>();
-        artists = new ArrayList<>();
+        int cacheEntries = Integer.getInteger("spotify.cache.entries", 1 << 14);
+        userCache = new LookupCache<>(cacheEntries);
+        songCache = new LookupCache<>(cacheEntries);
+        playlistCache = new LookupCache<>(cacheEntries);
+
+        LongSupplier clock = () -> trendingClock.getAsLong();
+        songTrends.put("1h", new TrendingChart<>(TimeUnit.HOURS.toMillis(1), 12, clock));
+        songTrends.put("1d", new TrendingChart<>(TimeUnit.DAYS.toMillis(1), 24, clock));
+        artistTrends.put("1h", new TrendingChart<>(TimeUnit.HOURS.toMillis(1), 12, clock));
+        artistTrends.put("1d", new TrendingChart<>(TimeUnit.DAYS.toMillis(1), 24, clock));
+
+        // with a sharded store every shard ranks the likes of its own users; -Dspotify.popularity=approximate
+        // ranks from fixed-size heavy-hitter summaries instead (-Dspotify.popularity.counters, .width)
+        artistLeaderboard = newRanking(Artist::getLikes);
+        songLeaderboard = newRanking(Song::getLikes);
     }
 
-    public User createUser(String name, String mobile) {
-        for(User u: users){
-            if(mobile.trim().equalsIgnoreCase(u.getMobile().trim())) return u;
+    private <T> LikeRanking<T> newRanking(ToIntFunction<T> likes){
+        if("approximate".equalsIgnoreCase(System.getProperty("spotify.popularity", "exact").trim())){
+            int counters = Integer.getInteger("spotify.popularity.counters", 1024);
+            int width = Integer.getInteger("spotify.popularity.width", 1 << 12);
+            return new HeavyHitters<>(counters, width);
+        }
+        return new Leaderboard<>(relations.shards(), likes);
+    }
+
+    void attachLog(WriteAheadLog wal){
+        this.wal = wal;
+    }
+
+    void attachEventLog(EventLog events){
+        this.events = events;
+    }
+
+    // the like and listen counts as they are now, for an event log opened over an existing repository
+    EventLog.Summary eventBaseline(){
+        EventLog.Summary baseline = new EventLog.Summary();
+        for(Song song: songs.toArray(new Song[0])){
+            if(song.getLikes()>0) baseline.add(EventLog.LIKE, -1, song.getId(), song.getLikes());
         }
-        User person = new User(name.trim(),mobile.trim());
-        users.add(person);
+        for(User user: users.toArray(new User[0])){
+            int liked = likedSongCount(user.getId());
+            if(liked>0) baseline.add(EventLog.LIKE, user.getId(), -1, liked);
+            int listened = relations.userPlaylists(user).size();
+            if(listened>0) baseline.add(EventLog.LISTEN, user.getId(), -1, listened);
+        }
+        for(Playlist playlist: playlists.toArray(new Playlist[0])){
+            int listeners = relations.listenerCount(playlist);
+            if(listeners>0) baseline.add(EventLog.LISTEN, -1, playlist.getId(), listeners);
+        }
+        return baseline;
+    }
+
+    private void log(byte[] record){
+        WriteAheadLog current = wal;
+        if(current!=null) current.append(record);
+    }
+
+    // called where a mutation finds its work already done, so awaitLog waits for whoever did it
+    private void observeLog(){
+        WriteAheadLog current = wal;
+        if(current!=null) current.observeAppended();
+    }
+
+    private static final Metrics.Timer LOG_WAIT = Metrics.timer("repository.logWait");
+    private static final Metrics.Timer LIKE_BATCH = Metrics.timer("repository.likeBatch");
+    private static final Histogram LIKE_BATCH_SIZE = Metrics.histogram("repository.likeBatch.likes");
+    private static final Histogram LENGTH_RANGE_SCAN = Metrics.histogram("repository.lengthRange.songsScanned");
+
+    // called once a public mutation is done and its locks are released
+    private void awaitLog(){
+        WriteAheadLog current = wal;
+        if(current==null || deferLog.get()[0]) return;
+        long start = System.nanoTime();
+        current.awaitDurable();
+        LOG_WAIT.record(start);
+    }
+
+    public interface Mutation<T> {
+        T run() throws Exception;
+    }
+
+    // Runs a mutation without waiting for its log records to be fsynced; the future completes with the
+    // result once they are. The caller's thread is free in the meantime, but nothing is acknowledged early.
+    public <T> CompletableFuture<T> whenLogged(Mutation<T> mutation) throws Exception {
+        boolean[] defer = deferLog.get();
+        T result;
+        defer[0] = true;
+        try {
+            result = mutation.run();
+        } finally {
+            defer[0] = false;
+        }
+        WriteAheadLog current = wal;
+        if(current==null) return CompletableFuture.completedFuture(result);
+        return current.whenDurable().thenApply(v -> result);
+    }
+
+    public User createUser(String name, String mobile) {
+        User person = createUserLogged(name, mobile);
+        awaitLog();
         return person;
     }
 
-    public Artist createArtist(String name) {
-        for(Artist a: artists){
-            if(name.trim().equalsIgnoreCase(a.getName().trim())) return a;
+    private User createUserLogged(String name, String mobile) {
+        synchronized (createLocks.lockFor(NameDictionary.hash(mobile))){
+            User existing = userIndex.get(mobile);
+            if(existing!=null){
+                observeLog();
+                return existing;
+            }
+            User person = new User(name.trim(),mobile.trim());
+            byte[] record = wal==null ? null : LogRecords.user(person.getName(), person.getMobile());
+            // the id is the position in the list, which is what the relation store and the catalog use
+            // logged in id order, so replay numbers users as they were; events refer to them by id
+            synchronized (users){
+                if(record!=null) log(record);
+                person.setId(users.size());
+                users.add(person);
+            }
+            userIndex.put(mobile,person);
+            userCache.invalidate();
+            return person;
         }
-        Artist person = new Artist(name.trim());
-        artists.add(person);
+    }
+
+    public Artist createArtist(String name) {
+        Artist person = createArtistLogged(name);
+        awaitLog();
         return person;
     }
 
+    private Artist createArtistLogged(String name) {
+        synchronized (createLocks.lockFor(NameDictionary.hash(name))){
+            Artist existing = artistIndex.get(name);
+            if(existing!=null){
+                observeLog();
+                return existing;
+            }
+            Artist person = new Artist(name.trim());
+            // the id is the position in the list, i.e. creation order, which breaks popularity ties
+            synchronized (artists){
+                if(wal!=null) log(LogRecords.artist(artists.size(), person.getName()));
+                person.setId(artists.size());
+                artists.add(person);
+                publishCatalog(next -> next.addArtist(person));
+            }
+            artistIndex.put(name,person);
+            artistSearch.add(person);
+            return person;
+        }
+    }
+
     public Album createAlbum(String title, String artistName) {
         // if artists does not exists
-        Artist artistKey = createArtist(artistName.trim());
+        Artist artistKey = createArtistLogged(artistName.trim());
+        Album album = createAlbum(title, artistKey);
+        awaitLog();
+        return album;
+    }
 
+    private Album createAlbum(String title, Artist artistKey) {
         // creating album
-        for(Album album : albums){
-            if(album.getTitle().trim().equalsIgnoreCase(title.trim()))
-                return  album;
-        }
-        Album tempAlbum = new Album(title.trim());
-        albums.add(tempAlbum);
-
-        // put in artist-album map
-        List<Album> tempAlbumList = artistAlbumMap.getOrDefault(artistKey,new ArrayList<>());
-        tempAlbumList.add(tempAlbum);
-        artistAlbumMap.put(artistKey,tempAlbumList);
+        synchronized (createLocks.lockFor(NameDictionary.hash(title))){
+            Album existing = albumIndex.get(title);
+            if(existing!=null){
+                observeLog();
+                return existing;
+            }
+            Album tempAlbum = new Album(title.trim());
+            byte[] record = wal==null ? null : LogRecords.album(tempAlbum.getTitle(), artistKey.getName());
 
-        return tempAlbum;
+            synchronized (albums){
+                if(record!=null) log(record);
+                // put in artist-album map; linked before the album is listed so a snapshot never sees it without its artist
+                artistAlbumMap.computeIfAbsent(artistKey, k -> new CopyOnWriteArrayList<>()).add(tempAlbum);
+                albumArtistMap.put(tempAlbum,artistKey);
+                tempAlbum.setId(albums.size());
+                albums.add(tempAlbum);
+                publishCatalog(next -> next.addAlbum(tempAlbum, artistKey));
+            }
+            albumIndex.put(title,tempAlbum);
+            albumSearch.add(tempAlbum);
+            return tempAlbum;
+        }
     }
 
     public Song createSong(String title, String albumName, int length) throws Exception{
 
         // search for album
-        Album albumKey = null;
-        for(Album a: albums){
-            if (albumName.trim().equalsIgnoreCase(a.getTitle().trim())) {
-                albumKey = a;
-                break;
-            }
-        }
+        Album albumKey = albumIndex.get(albumName);
         if(albumKey==null)   throw new Exception("Album does not exist");
 
-        // create song
+        // create song; linked to its album before it is listed, so a snapshot never sees it without one
         Song gaana = new Song(title.trim(),length);
-        songs.add(gaana);
+        synchronized (songs){
+            if(wal!=null) log(LogRecords.song(songs.size(), gaana.getTitle(), albumKey.getTitle(), length));
+            gaana.setId(songs.size());
+            songAlbumMap.put(gaana,albumKey);
+            songs.add(gaana);
+            publishCatalog(next -> next.addSong(gaana, albumKey));
 
-        // putting in album - song map
-        List<Song> tempSongsList = albumSongMap.getOrDefault(albumKey,new ArrayList<>());
-        tempSongsList.add(gaana);
-        albumSongMap.put(albumKey,tempSongsList);
+            // putting in album - song map
+            albumSongMap.computeIfAbsent(albumKey, k -> new CopyOnWriteArrayList<>()).add(gaana);
+            songLengthIndex.computeIfAbsent(length, k -> Collections.synchronizedList(new ArrayList<>())).add(gaana);
 
+            // titles are not unique, so the index keeps every song with a title in creation order; written last but
+            // under the same lock, so same-title songs are indexed in id order
+            songIndex.computeIfAbsent(title, k -> new CopyOnWriteArrayList<>()).add(gaana);
+        }
+        songCache.invalidate();
+        songSearch.add(gaana);
+
+        awaitLog();
         return gaana;
     }
-    public User getUser(String mobile){
-        User currUser = null;
-        for(User a: users){
-            if(mobile.trim().equalsIgnoreCase(a.getMobile().trim())){
-                currUser = a;
-                break;
+
+    // Batch variants: one dedup pass over the batch, then the same create steps without repeated work.
+    // Each returns one result per item, in request order: "Success" or the reason the item was rejected.
+
+    public List<String> createUsers(List<User> batch) {
+        List<String> results = new ArrayList<>(batch.size());
+        BitSet seen = new BitSet();
+        for(User u: batch){
+            if(u.getName()==null || u.getMobile()==null){
+                results.add("Name and mobile are required");
+                continue;
             }
+            // a mobile repeated within the batch resolves to the user created for its first occurrence
+            int code = userIndex.intern(u.getMobile());
+            if(!seen.get(code)){
+                seen.set(code);
+                createUserLogged(u.getName(), u.getMobile());
+            }
+            results.add("Success");
         }
-        return currUser;
+        awaitLog();
+        return results;
     }
 
-    public Playlist createPlaylistOnLength(String mobile, String title, int length) throws Exception {
-        for(Playlist p: playlists){
-            if(title.trim().equalsIgnoreCase(p.getTitle().trim())){
-                return p;
+    public List<String> createArtists(List<String> batch) {
+        List<String> results = new ArrayList<>(batch.size());
+        BitSet seen = new BitSet();
+        for(String name: batch){
+            if(name==null){
+                results.add("Name is required");
+                continue;
             }
+            int code = artistIndex.intern(name);
+            if(!seen.get(code)){
+                seen.set(code);
+                createArtistLogged(name);
+            }
+            results.add("Success");
         }
-        Playlist tempPlaylist = new Playlist(title.trim());
-        playlists.add(tempPlaylist);
-
+        awaitLog();
+        return results;
+    }
 
-        // list of songs having given length
-        List<Song> songOfGivenLength = new ArrayList<>();
-        for(Song s: songs){
-            if(length == s.getLength()){
-                songOfGivenLength.add(s);
+    public List<String> createAlbums(List<AlbumRequest> batch) {
+        List<String> results = new ArrayList<>(batch.size());
+        BitSet seenAlbums = new BitSet();
+        // a label batch has far fewer artists than albums, so each artist is resolved once
+        Map<Integer, Artist> artistsByCode = new HashMap<>();
+        for(AlbumRequest a: batch){
+            if(a.getTitle()==null || a.getArtistName()==null){
+                results.add("Title and artist name are required");
+                continue;
             }
+            int code = albumIndex.intern(a.getTitle());
+            if(!seenAlbums.get(code)){
+                seenAlbums.set(code);
+                Artist artist = artistsByCode.computeIfAbsent(artistIndex.intern(a.getArtistName()), k -> createArtistLogged(a.getArtistName()));
+                createAlbum(a.getTitle(), artist);
+            }
+            results.add("Success");
         }
-        //        public HashMap<Playlist, List<Song>> playlistSongMap;
-        playlistSongMap.put(tempPlaylist,songOfGivenLength);
+        awaitLog();
+        return results;
+    }
 
+    public List<String> createSongs(List<SongRequest> batch) {
+        List<String> results = new ArrayList<>(batch.size());
+        List<Song> created = new ArrayList<>(batch.size());
+        List<Album> createdAlbums = new ArrayList<>(batch.size());
+        Map<Integer, Album> albumsByCode = new HashMap<>();
+        Map<Album, List<Song>> songsByAlbum = new LinkedHashMap<>();
+        Map<Integer, List<Song>> songsByLength = new LinkedHashMap<>();
 
-        User currUser = getUser(mobile.trim());
-        if(currUser==null) throw new Exception("User does not exist");
+        // one pass: resolve each album once and group the new songs by album and by length
+        for(SongRequest r: batch){
+            if(r.getTitle()==null || r.getAlbumName()==null){
+                results.add("Title and album name are required");
+                continue;
+            }
+            int albumCode = albumIndex.code(r.getAlbumName());
+            Album album = albumCode<0 ? null : albumsByCode.get(albumCode);
+            if(album==null){
+                album = albumCode<0 ? null : albumIndex.at(albumCode);
+                if(album==null){
+                    results.add("Album does not exist");
+                    continue;
+                }
+                albumsByCode.put(albumCode, album);
+            }
+            Song gaana = new Song(r.getTitle().trim(), r.getLength());
+            created.add(gaana);
+            createdAlbums.add(album);
+            songsByAlbum.computeIfAbsent(album, k -> new ArrayList<>()).add(gaana);
+            songsByLength.computeIfAbsent(r.getLength(), k -> new ArrayList<>()).add(gaana);
+            results.add("Success");
+        }
 
-        //        public HashMap<Playlist, List<User>> playlistListenerMap;
-        List<User> listOfListener = playlistListenerMap.getOrDefault(tempPlaylist,new ArrayList<>());
-        listOfListener.add(currUser);
-        playlistListenerMap.put(tempPlaylist,listOfListener);
+        // ids are assigned in one block so the batch keeps its request order; the batch is logged in one
+        // append, so either every song of it is logged and created or none is
+        synchronized (songs){
+            int first = songs.size();
+            if(wal!=null){
+                List<byte[]> records = new ArrayList<>(created.size());
+                for(int i = 0; i < created.size(); i++){
+                    Song gaana = created.get(i);
+                    records.add(LogRecords.song(first + i, gaana.getTitle(), createdAlbums.get(i).getTitle(), gaana.getLength()));
+                }
+                wal.append(records);
+            }
+            for(int i = 0; i < created.size(); i++){
+                created.get(i).setId(first + i);
+                songAlbumMap.put(created.get(i), createdAlbums.get(i));
+            }
+            songs.addAll(created);
+            // the whole batch becomes visible to catalog readers at once
+            publishCatalog(next -> {
+                for(Song gaana: created) next.addSong(gaana, songAlbumMap.get(gaana));
+            });
 
+            // one append per album and per length bucket instead of one per song
+            for(Map.Entry<Album, List<Song>> e: songsByAlbum.entrySet()){
+                albumSongMap.computeIfAbsent(e.getKey(), k -> new CopyOnWriteArrayList<>()).addAll(e.getValue());
+            }
+            for(Map.Entry<Integer, List<Song>> e: songsByLength.entrySet()){
+                songLengthIndex.computeIfAbsent(e.getKey(), k -> Collections.synchronizedList(new ArrayList<>())).addAll(e.getValue());
+            }
 
-        //        public HashMap<User, Playlist> creatorPlaylistMap;
-        creatorPlaylistMap.put(currUser,tempPlaylist);
+            // titles are published last, as in createSong
+            for(Song gaana: created){
+                songIndex.computeIfAbsent(gaana.getTitle(), k -> new CopyOnWriteArrayList<>()).add(gaana);
+            }
+        }
+        for(Song gaana: created) songSearch.add(gaana);
+        songCache.invalidate();
+        awaitLog();
+        return results;
+    }
 
+    public User getUser(String mobile){
+        return userCache.get(mobile, userIndex::get);
+    }
 
-//        public HashMap<User, List<Playlist>> userPlaylistMap;
-        List<Playlist> listOfPlaylist = userPlaylistMap.getOrDefault(currUser,new ArrayList<>());
-        listOfPlaylist.add(tempPlaylist);
-        userPlaylistMap.put(currUser,listOfPlaylist);
+    public Playlist getPlaylist(String title){
+        return playlistCache.get(title, playlistIndex::get);
+    }
 
-        return tempPlaylist;
+    public Song getSong(String title){
+        return songCache.get(title, t -> {
+            List<Song> sameTitle = songIndex.get(t);
+            if(sameTitle==null || sameTitle.isEmpty()) return null;
+            return sameTitle.get(0);
+        });
     }
 
-    public Playlist createPlaylistOnName(String mobile, String title, List<String> songTitles) throws Exception {
-        for(Playlist p: playlists){
-            if(title.trim().equalsIgnoreCase(p.getTitle().trim())){
-                return p;
-            }
+    public Playlist createPlaylistOnLength(String mobile, String title, int length) throws Exception {
+        Playlist existing = getPlaylist(title);
+        if(existing!=null){
+            observeLog();
+            return existing;
         }
-        // playlist
-        Playlist tempPlaylist = new Playlist(title.trim());
-        playlists.add(tempPlaylist);
 
-        // songs
-        List<Song> songOfGivenName = new ArrayList<>();
-        for(Song s: songs){
-            if(songTitles.contains(s.getTitle().trim())){
-                songOfGivenName.add(s);
-            }
+        User currUser = getUser(mobile);
+        if(currUser==null) throw new Exception("User does not exist");
+
+        // list of songs having given length, read from the published catalog without locking; copied, because the
+        // bucket is shared with every later catalog version and playlist song lists are mutable like the others
+        List<Song> songOfGivenLength = new ArrayList<>(catalog.songsOfLength(length));
+        return registerPlaylist(currUser, title, songOfGivenLength);
+    }
+
+    public Playlist createPlaylistOnLengthRange(String mobile, String title, int minLength, int maxLength) throws Exception {
+        if(minLength>maxLength) throw new Exception("Invalid length range");
+
+        Playlist existing = getPlaylist(title);
+        if(existing!=null){
+            observeLog();
+            return existing;
         }
 
-        // playlist - list of song map
-        playlistSongMap.put(tempPlaylist,songOfGivenName);
+        User currUser = getUser(mobile);
+        if(currUser==null) throw new Exception("User does not exist");
+
+        // songs ordered by length, then by creation within the same length
+        List<Song> songsInRange = catalog.songsOfLengths(minLength, maxLength);
+        LENGTH_RANGE_SCAN.record(songsInRange.size());
+        return registerPlaylist(currUser, title, songsInRange);
+    }
+
+    public Playlist createPlaylistOnName(String mobile, String title, List<String> songTitles) throws Exception {
+        Playlist existing = getPlaylist(title);
+        if(existing!=null){
+            observeLog();
+            return existing;
+        }
 
         // user
-        User currUser = getUser(mobile.trim());
+        User currUser = getUser(mobile);
         if(currUser==null) throw new Exception("User does not exist");
 
-        // playlist - list of listeners map
-        List<User> listOfListener = playlistListenerMap.getOrDefault(tempPlaylist,new ArrayList<>());
-        listOfListener.add(currUser);
-        playlistListenerMap.put(tempPlaylist,listOfListener);
+        // songs, in the order their titles were requested; a repeated title adds its songs once
+        List<Song> songOfGivenName = new ArrayList<>();
+        BitSet seen = new BitSet();
+        for(String songTitle: songTitles){
+            int code = songIndex.code(songTitle);
+            if(code<0 || seen.get(code)) continue;
+            seen.set(code);
+            List<Song> sameTitle = songIndex.at(code);
+            if(sameTitle!=null) songOfGivenName.addAll(sameTitle);
+        }
+        return registerPlaylist(currUser, title, songOfGivenName);
+    }
 
-        // creator - playlist map
-        creatorPlaylistMap.put(currUser,tempPlaylist);
+    public List<String> getUnmatchedSongTitles(List<String> songTitles){
+        List<String> unmatched = new ArrayList<>();
+        for(String songTitle: songTitles){
+            if(getSong(songTitle)==null) unmatched.add(songTitle);
+        }
+        return unmatched;
+    }
 
-        // user - list of playlist map
-        List<Playlist> listOfPlaylist = userPlaylistMap.getOrDefault(currUser,new ArrayList<>());
-        listOfPlaylist.add(tempPlaylist);
-        userPlaylistMap.put(currUser,listOfPlaylist);
+    // creates the playlist with the user as creator and only listener; a concurrent creator of the same title wins
+    private Playlist registerPlaylist(User currUser, String title, List<Song> playlistSongs){
+        Playlist tempPlaylist;
+        synchronized (createLocks.lockFor(NameDictionary.hash(title))){
+            Playlist existing = playlistIndex.get(title);
+            if(existing!=null){
+                observeLog();
+                return existing;
+            }
 
-        return tempPlaylist;
+            // playlist, logged in id order like users; a snapshot takes every playlist below its cut whole, so
+            // the songs, the creator as first listener, creator - playlist and the creator's list of playlists
+            // are linked in the same section
+            tempPlaylist = new Playlist(title.trim());
+            byte[] record = wal==null ? null : LogRecords.playlist(currUser.getMobile(), tempPlaylist.getTitle(), playlistSongs);
+            synchronized (playlists){
+                if(record!=null) log(record);
+                tempPlaylist.setId(playlists.size());
+                playlists.add(tempPlaylist);
+                relations.addPlaylist(tempPlaylist, currUser, playlistSongs);
+                playlistCreatorMap.put(tempPlaylist,currUser);
+            }
+            recommendations.playlist(tempPlaylist.getId(), Recommendations.songIds(playlistSongs));
 
+            EventLog history = events;
+            if(history!=null) history.listen(currUser.getId(), tempPlaylist.getId(), trendingClock.getAsLong());
+            playlistIndex.put(title,tempPlaylist);
+            playlistCache.invalidate();
+        }
+        awaitLog();
+        return tempPlaylist;
     }
 
 
     public Playlist findPlaylist(String mobile, String playlistTitle) throws Exception {
 
         // check for user existance
-        User currUser = getUser(mobile.trim());
+        User currUser = getUser(mobile);
         if(currUser==null) throw new Exception("User does not exist");
 
         // check for playlist existance
-        Playlist currPlaylist = null;
-        for(Playlist p: playlists){
-            if(p.getTitle().trim().equalsIgnoreCase(playlistTitle.trim())){
-                currPlaylist = p;
-                break;
-            }
-        }
+        Playlist currPlaylist = getPlaylist(playlistTitle);
         if(currPlaylist==null) throw new Exception("Playlist does not exist");
 
 
 
-        // listener playlist
-        List<User> tempList = playlistListenerMap.getOrDefault(currPlaylist,new ArrayList<>());
-        if(!tempList.contains(currUser)){
-            tempList.add(currUser);
-            playlistListenerMap.put(currPlaylist,tempList);
+        // listener playlist; every listener (the creator included) already has the playlist
+        // in its list of playlists, so it only needs adding when the user was not a listener yet.
+        // Logged before it is added, so a listener in memory is always in the log
+        likesGate.readLock().lock();
+        try {
+            if(relations.hasListener(currPlaylist, currUser)){
+                observeLog();
+            } else {
+                if(wal!=null) log(LogRecords.listen(currUser.getMobile(), currPlaylist.getTitle()));
+                // losing a race to add the same listener leaves a second record, which replay ignores
+                if(relations.addListener(currPlaylist, currUser)){
+                    EventLog history = events;
+                    if(history!=null) history.listen(currUser.getId(), currPlaylist.getId(), trendingClock.getAsLong());
+                }
+            }
+        } finally {
+            likesGate.readLock().unlock();
         }
 
 
@@ -225,81 +664,763 @@ public class SpotifyRepository {
 //            creatorPlaylistMap.put(currUser,currPlaylist);
 //        }
 
-        // user playlist
-        List<Playlist> temp2PlayList =  userPlaylistMap.getOrDefault(currUser,new ArrayList<>());
-        if(!temp2PlayList.contains(currPlaylist)){
-            temp2PlayList.add(currPlaylist);
-            userPlaylistMap.put(currUser,temp2PlayList);
-        }
-
 
+        awaitLog();
         return currPlaylist;
     }
 
     public Song likeSong(String mobile, String songTitle) throws Exception {
-        User currUser = getUser(mobile.trim());
+        User currUser = getUser(mobile);
         if(currUser==null) throw new Exception("User does not exist");
 
         // check for song existance
-        Song currSong = null;
-        for(Song s: songs){
-            if(songTitle.trim().equalsIgnoreCase(s.getTitle().trim())){
-                currSong = s;
-                break;
-            }
-        }
+        Song currSong = getSong(songTitle);
         if(currSong==null) throw new Exception("Song does not exist");
 
-//        public HashMap<Song, List<User>> songLikeMap;
-        List<User> likesList = songLikeMap.getOrDefault(currSong,new ArrayList<>());
-        if(!likesList.contains(currUser)){
-            likesList.add(currUser);
-            songLikeMap.put(currSong,likesList);
-            currSong.setLikes(currSong.getLikes()+1);
+        LikePipeline pipeline = likePipeline;
+        if(pipeline!=null){
+            pipeline.submit(currUser, currSong);
+            return currSong;
+        }
+        like(currUser, currSong, true);
+        awaitLog();
+        return currSong;
+    }
+
+    // from now on likeSong only validates and enqueues; see LikePipeline
+    public void enableAsyncLikes(int writers, int capacity, long offerTimeoutMillis){
+        likePipeline = new LikePipeline(this, writers, capacity, offerTimeoutMillis);
+    }
+
+    // returns once every like submitted before the call is applied; a no-op when likes are synchronous.
+    // Throws IllegalStateException once a batch of likes has failed to apply (see LikePipeline).
+    public void flushLikes() throws InterruptedException {
+        LikePipeline pipeline = likePipeline;
+        if(pipeline!=null) pipeline.flush();
+    }
+
+    // applies a batch from the like pipeline: the new likes are logged in one append before any is added,
+    // and every song and artist gets one counter and leaderboard update for the whole batch
+    void applyLikes(List<LikePipeline.Like> batch, int writer){
+        long start = System.nanoTime();
+        LIKE_BATCH_SIZE.record(batch.size());
+        likesGate.readLock().lock();
+        try {
+            applyBatch(batch, writer);
+        } finally {
+            likesGate.readLock().unlock();
+        }
+        awaitLog();
+        LIKE_BATCH.record(start);
+    }
+
+    private void applyBatch(List<LikePipeline.Like> batch, int writer){
+        Map<Song, int[]> songLikes = new LinkedHashMap<>();
+        Map<Artist, int[]> artistLikes = new LinkedHashMap<>();
+        EventLog history = events;
+        long now = trendingClock.getAsLong();
+        List<LikePipeline.Like> fresh = new ArrayList<>(batch.size());
+        for(LikePipeline.Like like: batch){
+            if(relations.hasLike(like.song, like.user)) observeLog();
+            else fresh.add(like);
+        }
+        if(wal!=null && !fresh.isEmpty()){
+            List<byte[]> records = new ArrayList<>(fresh.size());
+            for(LikePipeline.Like like: fresh) records.add(LogRecords.like(like.user.getMobile(), like.song.getId()));
+            wal.append(records);
+        }
+        for(LikePipeline.Like like: fresh){
+            // false when a like of the same song by the same user got in first; its record is a harmless repeat
+            if(!relations.addLike(like.song, like.user)) continue;
+            if(history!=null) history.like(like.user.getId(), like.song.getId(), now);
+            userLikes.add(like.user.getId(), like.song.getId(), this::coldLikedSongs);
+            recommendations.like(like.user.getId(), like.song.getId());
+            songLikes.computeIfAbsent(like.song, k -> new int[1])[0]++;
+            Artist artist = albumArtistMap.get(songAlbumMap.get(like.song));
+            artistLikes.computeIfAbsent(artist, k -> new int[1])[0]++;
+        }
+        for(Map.Entry<Song, int[]> e: songLikes.entrySet()){
+            Song song = e.getKey();
+            int added = e.getValue()[0];
+            songLeaderboard.record(writer, song, song.getId(), song.addLikes(added), added);
+            for(TrendingChart<Song> chart: songTrends.values()) chart.record(song, song.getId(), added);
+        }
+        for(Map.Entry<Artist, int[]> e: artistLikes.entrySet()){
+            Artist artist = e.getKey();
+            int added = e.getValue()[0];
+            artistLeaderboard.record(writer, artist, artist.getId(), artist.addLikes(added), added);
+            for(TrendingChart<Artist> chart: artistTrends.values()) chart.record(artist, artist.getId(), added);
+        }
+    }
+
+    private void like(User currUser, Song currSong, boolean trending){
+        likesGate.readLock().lock();
+        try {
+            likeGated(currUser, currSong, trending);
+        } finally {
+            likesGate.readLock().unlock();
+        }
+    }
+
+    private void likeGated(User currUser, Song currSong, boolean trending){
+//        public HashMap<Song, Set<User>> songLikeMap;
+        if(relations.hasLike(currSong, currUser)){
+            observeLog();
+            return;
+        }
+        // logged before the like is added, so a like in memory is always in the log; one that loses a race
+        // with the same like leaves a second record, which replay ignores
+        if(wal!=null) log(LogRecords.like(currUser.getMobile(), currSong.getId()));
+        if(relations.addLike(currSong, currUser)){
+            EventLog history = events;
+            if(history!=null) history.like(currUser.getId(), currSong.getId(), trendingClock.getAsLong());
+            userLikes.add(currUser.getId(), currSong.getId(), this::coldLikedSongs);
+            recommendations.like(currUser.getId(), currSong.getId());
+            int shard = relations.shardOf(currUser);
+            songLeaderboard.record(shard, currSong, currSong.getId(), currSong.incrementLikes(), 1);
+
 
+            // song -> album -> artist
+            Album currAlbum = songAlbumMap.get(currSong);
+            Artist currArtist = albumArtistMap.get(currAlbum);
+            assert currArtist != null;
+            artistLeaderboard.record(shard, currArtist, currArtist.getId(), currArtist.incrementLikes(), 1);
+            if(trending) trend(currSong, currArtist, 1);
+        }
+    }
+
+    private void trend(Song song, Artist artist, int added){
+        for(TrendingChart<Song> chart: songTrends.values()) chart.record(song, song.getId(), added);
+        for(TrendingChart<Artist> chart: artistTrends.values()) chart.record(artist, artist.getId(), added);
+    }
 
-            // song -> album
-            Album currAlbum = null;
-            for(Album a: albumSongMap.keySet()){
-                if(albumSongMap.get(a).contains(currSong)){
-                    currAlbum = a;
-                    break;
+    // Folds the event history into an aggregate; see EventLog.replay.
+    public <A> A replayEvents(EventLog.Replay<A> replay) throws Exception {
+        EventLog history = events;
+        if(history==null) throw new Exception("No event log");
+        return history.replay(replay);
+    }
+
+    // Recomputes the like counters of every song and artist from the event history and ranks them afresh.
+    // Queued likes are applied first; likes arriving meanwhile wait for the rebuild.
+    // The history is lossy (a crash drops its last flush, and recovery does not record the likes it replays),
+    // so a song whose history disagrees with its likers takes the number of likers, which the write-ahead log
+    // keeps exact. Returns the number of songs reconciled that way.
+    public int rebuildLikesFromEvents() throws Exception {
+        flushLikes();
+        likesGate.writeLock().lock();
+        try {
+            return rebuildLikes(replayEvents(EventLog.Summary.COUNTS));
+        } finally {
+            likesGate.writeLock().unlock();
+        }
+    }
+
+    private int rebuildLikes(EventLog.Summary counts){
+        CatalogVersion current = catalog;
+        LikeRanking<Song> songRanking = newRanking(Song::getLikes);
+        LikeRanking<Artist> artistRanking = newRanking(Artist::getLikes);
+        long[] artistLikes = new long[current.artists.size()];
+        int reconciled = 0;
+        for(Album album: current.albums){
+            Artist artist = current.artistOf(album);
+            for(Song song: current.songsOf(album)){
+                int likes = (int) counts.songLikes(song.getId());
+                int likers = relations.likeCount(song);
+                if(likes!=likers){
+                    likes = likers;
+                    reconciled++;
                 }
+                song.setLikes(likes);
+                if(likes>0) songRanking.update(song, song.getId(), likes);
+                artistLikes[artist.getId()] += likes;
             }
-            // album -> artist
-            Artist currArtist = null;
-            for(Artist a: artistAlbumMap.keySet()){
-                if(artistAlbumMap.get(a).contains(currAlbum)){
-                    currArtist = a;
-                    break;
+        }
+        for(int i = 0; i < artistLikes.length; i++){
+            Artist artist = current.artists.get(i);
+            artist.setLikes((int) artistLikes[i]);
+            if(artistLikes[i]>0) artistRanking.update(artist, i, (int) artistLikes[i]);
+        }
+        songLeaderboard = songRanking;
+        artistLeaderboard = artistRanking;
+        return reconciled;
+    }
+
+    public LikeRanking<Song> songRanking(){
+        return songLeaderboard;
+    }
+
+    public LikeRanking<Artist> artistRanking(){
+        return artistLeaderboard;
+    }
+
+    // the clock the trending windows read, in milliseconds
+    public void setTrendingClock(LongSupplier clock){
+        trendingClock = clock;
+    }
+
+    public List<String> trendingSongs(String window, int k) throws Exception {
+        TrendingChart<Song> chart = songTrends.get(window);
+        if(chart==null) throw new Exception("Unknown window, use one of " + songTrends.keySet());
+        List<String> result = new ArrayList<>();
+        for(Song s: chart.top(k)) result.add(s.getTitle());
+        return result;
+    }
+
+    public List<String> trendingArtists(String window, int k) throws Exception {
+        TrendingChart<Artist> chart = artistTrends.get(window);
+        if(chart==null) throw new Exception("Unknown window, use one of " + artistTrends.keySet());
+        List<String> result = new ArrayList<>();
+        for(Artist a: chart.top(k)) result.add(a.getName());
+        return result;
+    }
+
+    // entry counts of every collection, for the metrics endpoint; the relation store's own structures
+    // replace some of the maps (see RelationStore), so those may stay empty
+    public Map<String, Integer> sizes(){
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("users", users.size());
+        sizes.put("artists", artists.size());
+        sizes.put("albums", albums.size());
+        sizes.put("songs", songs.size());
+        sizes.put("playlists", playlists.size());
+        sizes.put("artistAlbumMap", artistAlbumMap.size());
+        sizes.put("albumSongMap", albumSongMap.size());
+        sizes.put("playlistSongMap", playlistSongMap.size());
+        sizes.put("playlistListenerMap", playlistListenerMap.size());
+        sizes.put("creatorPlaylistMap", creatorPlaylistMap.size());
+        sizes.put("userPlaylistMap", userPlaylistMap.size());
+        sizes.put("songLikeMap", songLikeMap.size());
+        sizes.put("songAlbumMap", songAlbumMap.size());
+        sizes.put("albumArtistMap", albumArtistMap.size());
+        sizes.put("playlistCreatorMap", playlistCreatorMap.size());
+        sizes.put("userIndex", userIndex.size());
+        sizes.put("artistIndex", artistIndex.size());
+        sizes.put("albumIndex", albumIndex.size());
+        sizes.put("songIndex", songIndex.size());
+        sizes.put("playlistIndex", playlistIndex.size());
+        sizes.put("songLengthIndex", songLengthIndex.size());
+        sizes.put("artistLeaderboard", artistLeaderboard.size());
+        sizes.put("songLeaderboard", songLeaderboard.size());
+        return sizes;
+    }
+
+    public Map<String, Map<String, Long>> cacheStats(){
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        stats.put("users", cacheStats(userCache));
+        stats.put("songs", cacheStats(songCache));
+        stats.put("playlists", cacheStats(playlistCache));
+        return stats;
+    }
+
+    private static Map<String, Long> cacheStats(LookupCache<?> cache){
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", cache.hits());
+        stats.put("misses", cache.misses());
+        stats.put("evictions", cache.evictions());
+        stats.put("size", (long) cache.size());
+        return stats;
+    }
+
+    public int getLikeCount(Song song){
+        return relations.likeCount(song);
+    }
+
+    public int getListenerCount(Playlist playlist){
+        return relations.listenerCount(playlist);
+    }
+
+    public List<Song> getPlaylistSongs(Playlist playlist){
+        return relations.playlistSongs(playlist);
+    }
+
+    public List<Playlist> getUserPlaylists(User user){
+        return relations.userPlaylists(user);
+    }
+
+    public Playlist getCreatedPlaylist(User user){
+        return relations.createdPlaylist(user);
+    }
+
+    // likers of a song as the catalog has them, by user id; null if the song is newer than the catalog
+    int[] coldLikers(int songId){
+        MappedCatalog catalog = coldLikes;
+        return catalog!=null && songId<catalog.songCount() ? catalog.songLikers(songId) : null;
+    }
+
+    // everyone who liked the song, by user id, whether the song was liked since the catalog was loaded or not
+    int[] likerIds(Song song){
+        int[] likedBy = relations.likerIds(song);
+        if(likedBy==null) likedBy = coldLikers(song.getId());
+        return likedBy==null ? new int[0] : likedBy;
+    }
+
+    int coldLikerCount(int songId){
+        MappedCatalog catalog = coldLikes;
+        return catalog!=null && songId<catalog.songCount() ? catalog.songLikerCount(songId) : 0;
+    }
+
+    boolean coldLiked(int songId, int userId){
+        int[] cold = coldLikers(songId);
+        if(cold==null) return false;
+        for(int id: cold){
+            if(id==userId) return true;
+        }
+        return false;
+    }
+
+    // songs the user liked as the catalog has them; null if the user is newer than the catalog
+    private int[] coldLikedSongs(int userId){
+        MappedCatalog catalog = coldLikes;
+        return catalog!=null && catalog.hasUserLikes() && userId<catalog.userCount() ? catalog.likedSongs(userId) : null;
+    }
+
+    // songs the user liked, by id in the order they were liked, whether they liked any since the catalog was loaded or not
+    int[] likedSongIds(int userId){
+        if(userLikes.has(userId)) return userLikes.values(userId);
+        int[] cold = coldLikedSongs(userId);
+        return cold==null ? new int[0] : cold;
+    }
+
+    private int[] likedSongIds(int userId, int from, int count){
+        if(userLikes.has(userId)) return userLikes.values(userId, from, count);
+        MappedCatalog catalog = coldLikes;
+        if(catalog==null || !catalog.hasUserLikes() || userId>=catalog.userCount()) return new int[0];
+        return catalog.likedSongs(userId, from, count);
+    }
+
+    private int likedSongCount(int userId){
+        if(userLikes.has(userId)) return userLikes.size(userId);
+        MappedCatalog catalog = coldLikes;
+        return catalog!=null && catalog.hasUserLikes() && userId<catalog.userCount() ? catalog.likedSongCount(userId) : 0;
+    }
+
+    // Replay of log records over a loaded catalog (see RepositoryPersistence). A catalog is collected
+    // after its cut, so it can already hold what the first records after the cut create; replaying those
+    // changes nothing. Records that refer to something missing are skipped.
+
+    void restoreArtist(int id, String name) throws IOException {
+        if(artistIndex.containsKey(name)) return;
+        if(id!=artists.size()) throw new IOException("Artist " + name + " replayed out of order");
+        createArtistLogged(name);
+    }
+
+    void restoreAlbum(String title, String artistName){
+        Artist artist = artistIndex.get(artistName);
+        if(artist!=null) createAlbum(title, artist);
+    }
+
+    void restoreSong(int id, String title, String albumTitle, int length) throws IOException {
+        if(id<songs.size()) return;
+        if(id>songs.size()) throw new IOException("Song " + id + " replayed out of order");
+        try {
+            createSong(title, albumTitle, length);
+        } catch (Exception e) {
+            throw new IOException("Song " + id + " refers to a missing album " + albumTitle);
+        }
+    }
+
+    void restorePlaylist(String creatorMobile, String title, int[] songIds){
+        User creator = getUser(creatorMobile);
+        if(creator==null || getPlaylist(title)!=null) return;
+        List<Song> playlistSongs = new ArrayList<>(songIds.length);
+        for(int id: songIds){
+            if(id>=songs.size()) return;
+            playlistSongs.add(songs.get(id));
+        }
+        registerPlaylist(creator, title, playlistSongs);
+    }
+
+    void restoreListener(String mobile, String playlistTitle){
+        try {
+            findPlaylist(mobile, playlistTitle);
+        } catch (Exception ignored) {
+            // user or playlist created after the snapshot cut
+        }
+    }
+
+    void restoreLike(String mobile, int songId){
+        User user = getUser(mobile);
+        if(user==null || songId>=songs.size()) return;
+        like(user, songs.get(songId), false);
+    }
+
+    // rotates the log while no song or artist can be created, so the cut counts are exact, and while no like
+    // or listen is between its record and its edge
+    RepositoryPersistence.SnapshotCut cutForSnapshot(WriteAheadLog log) throws IOException {
+        likesGate.writeLock().lock();
+        try {
+            synchronized (artists){
+                synchronized (songs){
+                    synchronized (playlists){
+                        return new RepositoryPersistence.SnapshotCut(log.rotate(), songs.size(), artists.size(), playlists.size());
+                    }
                 }
             }
-            assert currArtist != null;
-            currArtist.setLikes(currArtist.getLikes()+1);
+        } finally {
+            likesGate.writeLock().unlock();
         }
-        return currSong;
     }
 
-    public String mostPopularArtist() {
-        int maxLikes = 0;
-        String result ="";
-        for(Artist a: artists){
-            if(a.getLikes()>maxLikes){
-                maxLikes = a.getLikes();
-                result = a.getName();
+    // collects everything created before the cut as catalog columns; users are numbered by their ids,
+    // so a user id at or past the copied users belongs to a user created after the cut
+    MappedCatalog.Contents collectCatalog(RepositoryPersistence.SnapshotCut cut){
+        Artist[] artistsAtCut;
+        Song[] songsAtCut;
+        synchronized (artists){
+            artistsAtCut = artists.subList(0, cut.artistCount).toArray(new Artist[0]);
+        }
+        synchronized (songs){
+            songsAtCut = songs.subList(0, cut.songCount).toArray(new Song[0]);
+        }
+        MappedCatalog.Contents c = new MappedCatalog.Contents();
+
+        c.artistNames = new String[artistsAtCut.length];
+        for(Artist a: artistsAtCut) c.artistNames[a.getId()] = a.getName();
+        // filled in from the likers actually written, so counts and likers always agree
+        c.artistLikes = new int[artistsAtCut.length];
+
+        User[] usersAtCut = users.toArray(new User[0]);
+        int userCount = usersAtCut.length;
+        c.userNames = new String[userCount];
+        c.userMobiles = new String[userCount];
+        for(int i = 0; i < userCount; i++){
+            c.userNames[i] = usersAtCut[i].getName();
+            c.userMobiles[i] = usersAtCut[i].getMobile();
+        }
+
+        // an album whose artist is newer than the cut is newer than the cut itself
+        Map<Album, Integer> albumIds = new IdentityHashMap<>();
+        List<String> albumTitles = new ArrayList<>();
+        IntList albumArtists = new IntList();
+        for(Album album: albums.toArray(new Album[0])){
+            Artist artist = albumArtistMap.get(album);
+            if(artist==null || artist.getId()>=cut.artistCount) continue;
+            albumIds.put(album, albumTitles.size());
+            albumTitles.add(album.getTitle());
+            albumArtists.add(artist.getId());
+        }
+        c.albumTitles = albumTitles.toArray(new String[0]);
+        c.albumArtists = albumArtists.toArray();
+
+        c.songTitles = new String[songsAtCut.length];
+        c.songAlbums = new int[songsAtCut.length];
+        c.songLengths = new int[songsAtCut.length];
+        c.songLikes = new int[songsAtCut.length];
+        c.songLikerStarts = new int[songsAtCut.length + 1];
+        IntList likers = new IntList(songsAtCut.length);
+        for(Song song: songsAtCut){
+            int id = song.getId();
+            c.songTitles[id] = song.getTitle();
+            c.songAlbums[id] = albumIds.get(songAlbumMap.get(song));
+            c.songLengths[id] = song.getLength();
+            c.songLikerStarts[id] = likers.size();
+            for(int userId: likerIds(song)){
+                if(userId<userCount) likers.add(userId);
             }
+            int likes = likers.size() - c.songLikerStarts[id];
+            c.songLikes[id] = likes;
+            c.artistLikes[c.albumArtists[c.songAlbums[id]]] += likes;
         }
-        return result;
+        c.songLikerStarts[songsAtCut.length] = likers.size();
+        c.songLikers = likers.toArray();
+
+        c.userLikeStarts = new int[userCount + 1];
+        IntList liked = new IntList(userCount);
+        for(int i = 0; i < userCount; i++){
+            c.userLikeStarts[i] = liked.size();
+            for(int songId: likedSongIds(i)){
+                if(songId<songsAtCut.length) liked.add(songId);
+            }
+        }
+        c.userLikeStarts[userCount] = liked.size();
+        c.userLikes = liked.toArray();
+
+        // every playlist below the cut, so that catalog positions are the playlist ids; its songs and
+        // creator are older than it, so older than the cut
+        Playlist[] playlistsAtCut;
+        synchronized (playlists){
+            playlistsAtCut = playlists.subList(0, cut.playlistCount).toArray(new Playlist[0]);
+        }
+        List<String> playlistTitles = new ArrayList<>();
+        IntList creators = new IntList();
+        IntList songStarts = new IntList();
+        IntList playlistSongIds = new IntList();
+        IntList listenerStarts = new IntList();
+        IntList listenerIds = new IntList();
+        for(Playlist playlist: playlistsAtCut){
+            User creator = playlistCreatorMap.get(playlist);
+            List<Song> playlistSongs = relations.playlistSongs(playlist);
+            playlistTitles.add(playlist.getTitle());
+            creators.add(creator.getId());
+            songStarts.add(playlistSongIds.size());
+            for(Song song: playlistSongs) playlistSongIds.add(song.getId());
+            listenerStarts.add(listenerIds.size());
+            for(int listenerId: relations.listenerIds(playlist)){
+                if(listenerId!=creator.getId() && listenerId<userCount) listenerIds.add(listenerId);
+            }
+        }
+        songStarts.add(playlistSongIds.size());
+        listenerStarts.add(listenerIds.size());
+        c.playlistTitles = playlistTitles.toArray(new String[0]);
+        c.playlistCreators = creators.toArray();
+        c.playlistSongStarts = songStarts.toArray();
+        c.playlistSongs = playlistSongIds.toArray();
+        c.playlistListenerStarts = listenerStarts.toArray();
+        c.playlistListeners = listenerIds.toArray();
+        return c;
     }
 
-    public String mostPopularSong() {
-        int maxLikes = 0;
-        String result ="";
-        for(Song a: songs){
-            if(a.getLikes()>maxLikes){
-                maxLikes = a.getLikes();
-                result = a.getTitle();
+    // Rebuilds an empty repository from a catalog in one pass over its columns, without the per-item
+    // locking and logging of the create methods. Likes stay in the mapping: they are by far the largest
+    // relation, and a song's likers or a user's liked songs are only read into the heap when the song is liked
+    // again (see RelationStore.addLike) or the user likes again. So the time taken does not depend on the number
+    // of likes, and the recommendations, which do, are rebuilt in the background.
+    void loadCatalog(MappedCatalog catalog){
+        Artist[] artistById = new Artist[catalog.artistCount()];
+        for(int i = 0; i < artistById.length; i++){
+            Artist artist = new Artist(catalog.artistName(i));
+            artist.setId(i);
+            artist.setLikes(catalog.artistLikes(i));
+            artistById[i] = artist;
+            artists.add(artist);
+            artistIndex.put(artist.getName(), artist);
+            artistSearch.add(artist);
+            if(artist.getLikes()>0) artistLeaderboard.update(artist, i, artist.getLikes());
+        }
+
+        User[] userAt = new User[catalog.userCount()];
+        for(int i = 0; i < userAt.length; i++){
+            User user = new User(catalog.userName(i), catalog.userMobile(i));
+            user.setId(i);
+            userAt[i] = user;
+            users.add(user);
+            userIndex.put(user.getMobile(), user);
+        }
+
+        Album[] albumAt = new Album[catalog.albumCount()];
+        Map<Artist, List<Album>> albumsByArtist = new HashMap<>();
+        for(int i = 0; i < albumAt.length; i++){
+            Album album = new Album(catalog.albumTitle(i));
+            album.setId(i);
+            Artist artist = artistById[catalog.albumArtist(i)];
+            albumAt[i] = album;
+            albumsByArtist.computeIfAbsent(artist, k -> new ArrayList<>()).add(album);
+            albumArtistMap.put(album, artist);
+            albums.add(album);
+            albumIndex.put(album.getTitle(), album);
+            albumSearch.add(album);
+        }
+        for(Map.Entry<Artist, List<Album>> e: albumsByArtist.entrySet()){
+            artistAlbumMap.put(e.getKey(), new CopyOnWriteArrayList<>(e.getValue()));
+        }
+
+        // grouped first: appending to a copy-on-write list one song at a time is quadratic
+        Song[] songById = new Song[catalog.songCount()];
+        Map<Album, List<Song>> songsByAlbum = new HashMap<>();
+        Map<Integer, List<Song>> songsByTitle = new HashMap<>();
+        for(int i = 0; i < songById.length; i++){
+            Song song = new Song(catalog.songTitle(i), catalog.songLength(i));
+            song.setId(i);
+            song.setLikes(catalog.songLikes(i));
+            songById[i] = song;
+            Album album = albumAt[catalog.songAlbum(i)];
+            songAlbumMap.put(song, album);
+            songs.add(song);
+            songsByAlbum.computeIfAbsent(album, k -> new ArrayList<>()).add(song);
+            songLengthIndex.computeIfAbsent(song.getLength(), k -> Collections.synchronizedList(new ArrayList<>())).add(song);
+            songsByTitle.computeIfAbsent(songIndex.intern(song.getTitle()), k -> new ArrayList<>()).add(song);
+            songSearch.add(song);
+            if(song.getLikes()>0) songLeaderboard.update(song, i, song.getLikes());
+            // a version 1 catalog has no liked songs per user, so they are collected from the likers once
+            if(!catalog.hasUserLikes()){
+                for(int user: catalog.songLikers(i)) userLikes.add(user, i, null);
+            }
+        }
+        for(Map.Entry<Album, List<Song>> e: songsByAlbum.entrySet()){
+            albumSongMap.put(e.getKey(), new CopyOnWriteArrayList<>(e.getValue()));
+        }
+        publishCatalog(next -> {
+            for(Artist artist: artistById) next.addArtist(artist);
+            for(Album album: albumAt) next.addAlbum(album, albumArtistMap.get(album));
+            for(Song song: songById) next.addSong(song, songAlbumMap.get(song));
+        });
+        for(Map.Entry<Integer, List<Song>> e: songsByTitle.entrySet()){
+            songIndex.set(e.getKey(), new CopyOnWriteArrayList<>(e.getValue()));
+        }
+
+        for(int i = 0; i < catalog.playlistCount(); i++){
+            Playlist playlist = new Playlist(catalog.playlistTitle(i));
+            User creator = userAt[catalog.playlistCreator(i)];
+            int[] songIds = catalog.playlistSongs(i);
+            List<Song> playlistSongs = new ArrayList<>(songIds.length);
+            for(int id: songIds) playlistSongs.add(songById[id]);
+            playlist.setId(i);
+            playlists.add(playlist);
+            relations.addPlaylist(playlist, creator, playlistSongs);
+            for(int id: catalog.playlistListeners(i)){
+                relations.addListener(playlist, userAt[id]);
             }
+            playlistCreatorMap.put(playlist, creator);
+            playlistIndex.put(playlist.getTitle(), playlist);
+        }
+        coldLikes = catalog;
+        userCache.invalidate();
+        songCache.invalidate();
+        playlistCache.invalidate();
+        recommendations.rebuildInBackground();
+    }
+
+    // switches the cold likers over to a newer catalog, which holds the same likers for every untouched song
+    void useCatalog(MappedCatalog catalog){
+        coldLikes = catalog;
+    }
+
+    // the catalog as of the last create; it stays the same however long the caller keeps it
+    public CatalogVersion catalog(){
+        return catalog;
+    }
+
+    // Builds the next catalog version from the current one and publishes it with one volatile write.
+    // Called inside the section that assigns the ids of what it adds, so versions add items in id order.
+    private void publishCatalog(Consumer<CatalogVersion.Builder> changes){
+        synchronized (catalogLock){
+            CatalogVersion.Builder next = catalog.next();
+            changes.accept(next);
+            catalog = next.build();
+        }
+    }
+
+    public String mostPopularArtist() {
+        Artist top = artistLeaderboard.top();
+        return top==null ? "" : top.getName();
+    }
+
+    public String mostPopularSong() {
+        Song top = songLeaderboard.top();
+        return top==null ? "" : top.getTitle();
+    }
+
+    // candidates read from the index per kind of result, plus the most liked songs and artists, so a short
+    // prefix matching millions of titles still finds the popular ones
+    private static final int SEARCH_BUDGET = 4096;
+    private static final int SEARCH_POPULAR = 128;
+
+    // songs, albums and artists whose words match the query (the last word may be partial), most liked first;
+    // an album counts its artist's likes
+    public List<SearchResult> search(String q, int limit) {
+        SearchIndex.Query query = SearchIndex.parse(q);
+        SearchRanking ranking = new SearchRanking(Math.max(0, limit));
+        if(query.isEmpty() || limit<=0) return ranking.results();
+        artistSearch.find(query, SEARCH_BUDGET, artistLeaderboard.top(SEARCH_POPULAR),
+                a -> ranking.wants(a.getName(), a.getLikes()),
+                a -> ranking.offer(a, "artist", a.getName(), a.getLikes()));
+        albumSearch.find(query, SEARCH_BUDGET, Collections.emptyList(),
+                a -> ranking.wants(a.getTitle(), albumLikes(a)),
+                a -> ranking.offer(a, "album", a.getTitle(), albumLikes(a)));
+        songSearch.find(query, SEARCH_BUDGET, songLeaderboard.top(SEARCH_POPULAR),
+                s -> ranking.wants(s.getTitle(), s.getLikes()),
+                s -> ranking.offer(s, "song", s.getTitle(), s.getLikes()));
+        return ranking.results();
+    }
+
+    // Pages for the read endpoints, see Page for the cursors. Each reads one item past the limit to tell
+    // whether there is a next page.
+
+    public Page<Song> playlistSongs(String title, long cursor, int limit) throws Exception {
+        Playlist playlist = getPlaylist(title);
+        if(playlist==null) throw new Exception("Playlist does not exist");
+        return Page.ofPositions(relations.playlistSongs(playlist, (int) cursor, limit + 1), cursor, limit);
+    }
+
+    // listeners by id, the creator included
+    public Page<User> playlistListeners(String title, long cursor, int limit) throws Exception {
+        Playlist playlist = getPlaylist(title);
+        if(playlist==null) throw new Exception("Playlist does not exist");
+        int[] ids = relations.listenerIds(playlist, (int) cursor, limit + 1);
+        List<User> listeners = new ArrayList<>(ids.length);
+        for(int id: ids) listeners.add(users.get(id));
+        return Page.ofIds(listeners, ids, limit);
+    }
+
+    // playlists the user created or listens to, in that order
+    public Page<Playlist> userPlaylists(String mobile, long cursor, int limit) throws Exception {
+        User user = getUser(mobile);
+        if(user==null) throw new Exception("User does not exist");
+        return Page.ofPositions(relations.userPlaylists(user, (int) cursor, limit + 1), cursor, limit);
+    }
+
+    // songs the user liked in the order they were liked
+    public Page<Song> likedSongs(String mobile, long cursor, int limit) throws Exception {
+        User user = getUser(mobile);
+        if(user==null) throw new Exception("User does not exist");
+        int[] ids = likedSongIds(user.getId(), (int) cursor, limit + 1);
+        List<Song> liked = new ArrayList<>(ids.length);
+        for(int id: ids) liked.add(songs.get(id));
+        return Page.ofPositions(liked, cursor, limit);
+    }
+
+    public Page<Song> albumSongs(String title, long cursor, int limit) throws Exception {
+        Album album = albumIndex.get(title);
+        if(album==null) throw new Exception("Album does not exist");
+        List<Song> albumSongs = catalog.songsOf(album);
+        return Page.ofPositions(RelationStore.range(albumSongs, (int) cursor, limit + 1), cursor, limit);
+    }
+
+    public Page<Album> artistAlbums(String name, long cursor, int limit) throws Exception {
+        Artist artist = artistIndex.get(name);
+        if(artist==null) throw new Exception("Artist does not exist");
+        List<Album> artistAlbums = catalog.albumsOf(artist);
+        return Page.ofPositions(RelationStore.range(artistAlbums, (int) cursor, limit + 1), cursor, limit);
+    }
+
+    // songs the user is likely to like, from what they liked and the playlists they listen to; a user with
+    // neither gets the most liked songs
+    public List<String> recommendations(String mobile, int k) throws Exception {
+        User user = getUser(mobile);
+        if(user==null) throw new Exception("User does not exist");
+        List<String> result = new ArrayList<>();
+        for(int id: recommendations.recommend(user, k)) result.add(songs.get(id).getTitle());
+        if(result.isEmpty()) return mostPopularSongs(k);
+        return result;
+    }
+
+    // songs most often liked by the same users as the song or placed next to it in playlists
+    public List<String> similarSongs(String songTitle, int k) throws Exception {
+        Song song = getSong(songTitle);
+        if(song==null) throw new Exception("Song does not exist");
+        List<String> result = new ArrayList<>();
+        for(int id: recommendations.similar(song.getId(), k)) result.add(songs.get(id).getTitle());
+        return result;
+    }
+
+    // recomputes the recommendation rows from every like and playlist, in parallel
+    public void rebuildRecommendations(){
+        recommendations.rebuild();
+    }
+
+    // returns once the rebuild a catalog load started in the background is done
+    public void awaitRecommendations() throws InterruptedException {
+        recommendations.awaitRebuild();
+    }
+
+    private int albumLikes(Album album){
+        Artist artist = catalog.artistOf(album);
+        return artist==null ? 0 : artist.getLikes();
+    }
+
+    public List<String> mostPopularArtists(int k) {
+        List<String> result = new ArrayList<>();
+        for(Artist a: artistLeaderboard.top(k)){
+            result.add(a.getName());
+        }
+        return result;
+    }
+
+    public List<String> mostPopularSongs(int k) {
+        List<String> result = new ArrayList<>();
+        for(Song s: songLeaderboard.top(k)){
+            result.add(s.getTitle());
         }
         return result;
     }
@@ -1,61 +1,253 @@
 package com.driver;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Service
 public class SpotifyService {
 
     //Auto-wire will not work in this case, no need to change this and add autowire
 
-    SpotifyRepository spotifyRepository = new SpotifyRepository();
+    SpotifyRepository spotifyRepository = RepositoryPersistence.shared();
+
+    // -Dspotify.web.async=true: write endpoints release the request thread while their log records are fsynced
+    // and the response is sent when the future completes; otherwise the future is already complete
+    private final boolean asyncWrites = Boolean.getBoolean("spotify.web.async");
+
+    // one timer per endpoint, named after the repository method it calls; it covers applying the call, and
+    // waiting for the fsync only when the log is synchronous and spotify.web.async is off
+    private static final Metrics.Timer CREATE_USER = Metrics.timer("createUser");
+    private static final Metrics.Timer CREATE_ARTIST = Metrics.timer("createArtist");
+    private static final Metrics.Timer CREATE_ALBUM = Metrics.timer("createAlbum");
+    private static final Metrics.Timer CREATE_SONG = Metrics.timer("createSong");
+    private static final Metrics.Timer CREATE_USERS = Metrics.timer("createUsers");
+    private static final Metrics.Timer CREATE_ARTISTS = Metrics.timer("createArtists");
+    private static final Metrics.Timer CREATE_ALBUMS = Metrics.timer("createAlbums");
+    private static final Metrics.Timer CREATE_SONGS = Metrics.timer("createSongs");
+    private static final Metrics.Timer CREATE_PLAYLIST_ON_LENGTH = Metrics.timer("createPlaylistOnLength");
+    private static final Metrics.Timer CREATE_PLAYLIST_ON_LENGTH_RANGE = Metrics.timer("createPlaylistOnLengthRange");
+    private static final Metrics.Timer CREATE_PLAYLIST_ON_NAME = Metrics.timer("createPlaylistOnName");
+    private static final Metrics.Timer FIND_PLAYLIST = Metrics.timer("findPlaylist");
+    private static final Metrics.Timer LIKE_SONG = Metrics.timer("likeSong");
+    private static final Metrics.Timer MOST_POPULAR_ARTIST = Metrics.timer("mostPopularArtist");
+    private static final Metrics.Timer MOST_POPULAR_SONG = Metrics.timer("mostPopularSong");
+    private static final Metrics.Timer MOST_POPULAR_ARTISTS = Metrics.timer("mostPopularArtists");
+    private static final Metrics.Timer MOST_POPULAR_SONGS = Metrics.timer("mostPopularSongs");
+    private static final Metrics.Timer SEARCH = Metrics.timer("search");
+    private static final Metrics.Timer TRENDING = Metrics.timer("trending");
+    private static final Metrics.Timer RECOMMENDATIONS = Metrics.timer("recommendations");
+    private static final Metrics.Timer SIMILAR_SONGS = Metrics.timer("similarSongs");
+    // the read endpoints are timed up to their first chunk, which is when a missing user or playlist fails them
+    private static final Metrics.Timer PLAYLIST_SONGS = Metrics.timer("playlistSongs");
+    private static final Metrics.Timer PLAYLIST_LISTENERS = Metrics.timer("playlistListeners");
+    private static final Metrics.Timer USER_PLAYLISTS = Metrics.timer("userPlaylists");
+    private static final Metrics.Timer LIKED_SONGS = Metrics.timer("likedSongs");
+    private static final Metrics.Timer ALBUM_SONGS = Metrics.timer("albumSongs");
+    private static final Metrics.Timer ARTIST_ALBUMS = Metrics.timer("artistAlbums");
+
+    // items read per chunk while streaming a page, so a large limit never holds more than this many
+    private static final int STREAM_CHUNK = 256;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
 
-    public User createUser(String name, String mobile){
-        return spotifyRepository.createUser(name,mobile);
+    // times the call and counts it as an error when it throws; E is inferred from the call, so a handler that
+    // throws nothing checked keeps a signature without throws
+    private static <T, E extends Exception> T timed(Metrics.Timer timer, Call<T, E> call) throws E {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } catch (Exception e) {
+            timer.error();
+            throw e;
+        } finally {
+            timer.record(start);
+        }
+    }
 
+    public <T> CompletableFuture<T> write(SpotifyRepository.Mutation<T> mutation) throws Exception {
+        if(!asyncWrites) return CompletableFuture.completedFuture(mutation.run());
+        return spotifyRepository.whenLogged(mutation);
     }
 
-    public Artist createArtist(String name) {
-        return spotifyRepository.createArtist(name);
+    public User createUser(String name, String mobile){
+        return timed(CREATE_USER, () -> spotifyRepository.createUser(name,mobile));
+    }
 
+    public Artist createArtist(String name) {
+        return timed(CREATE_ARTIST, () -> spotifyRepository.createArtist(name));
     }
 
     public Album createAlbum(String title, String artistName) {
-        return spotifyRepository.createAlbum(title,artistName);
-
+        return timed(CREATE_ALBUM, () -> spotifyRepository.createAlbum(title,artistName));
     }
 
     public Song createSong(String title, String albumName, int length) throws Exception {
-        return spotifyRepository.createSong(title, albumName, length);
+        return timed(CREATE_SONG, () -> spotifyRepository.createSong(title, albumName, length));
+    }
+
+    public List<String> createUsers(List<User> users) {
+        return timed(CREATE_USERS, () -> spotifyRepository.createUsers(users));
+    }
+
+    public List<String> createArtists(List<String> names) {
+        return timed(CREATE_ARTISTS, () -> spotifyRepository.createArtists(names));
+    }
 
+    public List<String> createAlbums(List<AlbumRequest> albums) {
+        return timed(CREATE_ALBUMS, () -> spotifyRepository.createAlbums(albums));
+    }
+
+    public List<String> createSongs(List<SongRequest> songs) {
+        return timed(CREATE_SONGS, () -> spotifyRepository.createSongs(songs));
     }
 
     public Playlist createPlaylistOnLength(String mobile, String title, int length) throws Exception {
-        return spotifyRepository.createPlaylistOnLength(mobile, title, length);
+        return timed(CREATE_PLAYLIST_ON_LENGTH, () -> spotifyRepository.createPlaylistOnLength(mobile, title, length));
+    }
 
+    public Playlist createPlaylistOnLengthRange(String mobile, String title, int minLength, int maxLength) throws Exception {
+        return timed(CREATE_PLAYLIST_ON_LENGTH_RANGE, () -> spotifyRepository.createPlaylistOnLengthRange(mobile, title, minLength, maxLength));
     }
 
     public Playlist createPlaylistOnName(String mobile, String title, List<String> songTitles) throws Exception {
-        return spotifyRepository.createPlaylistOnName(mobile, title, songTitles);
+        return timed(CREATE_PLAYLIST_ON_NAME, () -> spotifyRepository.createPlaylistOnName(mobile, title, songTitles));
+    }
 
+    public List<String> getUnmatchedSongTitles(List<String> songTitles) {
+        return spotifyRepository.getUnmatchedSongTitles(songTitles);
     }
 
     public Playlist findPlaylist(String mobile, String playlistTitle) throws Exception {
-        return spotifyRepository.findPlaylist(mobile,playlistTitle);
-
+        return timed(FIND_PLAYLIST, () -> spotifyRepository.findPlaylist(mobile,playlistTitle));
     }
 
     public Song likeSong(String mobile, String songTitle) throws Exception {
-        return spotifyRepository.likeSong(mobile, songTitle);
+        return timed(LIKE_SONG, () -> spotifyRepository.likeSong(mobile, songTitle));
+    }
 
+    public void flushLikes() throws InterruptedException {
+        spotifyRepository.flushLikes();
+    }
+
+    // timers, histograms, collection sizes and cache counters
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = Metrics.snapshot();
+        metrics.put("sizes", spotifyRepository.sizes());
+        metrics.put("caches", spotifyRepository.cacheStats());
+        return metrics;
     }
 
     public String mostPopularArtist() {
-        return spotifyRepository.mostPopularArtist();
+        return timed(MOST_POPULAR_ARTIST, () -> spotifyRepository.mostPopularArtist());
     }
 
     public String mostPopularSong() {
-        return spotifyRepository.mostPopularSong();
+        return timed(MOST_POPULAR_SONG, () -> spotifyRepository.mostPopularSong());
+    }
+
+    public List<String> mostPopularArtists(int k) {
+        return timed(MOST_POPULAR_ARTISTS, () -> spotifyRepository.mostPopularArtists(k));
+    }
+
+    public List<String> mostPopularSongs(int k) {
+        return timed(MOST_POPULAR_SONGS, () -> spotifyRepository.mostPopularSongs(k));
+    }
+
+    public List<SearchResult> search(String q, int limit) {
+        return timed(SEARCH, () -> spotifyRepository.search(q, limit));
+    }
+
+    public Map<String, List<String>> trending(String window, int k) throws Exception {
+        return timed(TRENDING, () -> {
+            Map<String, List<String>> trending = new LinkedHashMap<>();
+            trending.put("songs", spotifyRepository.trendingSongs(window, k));
+            trending.put("artists", spotifyRepository.trendingArtists(window, k));
+            return trending;
+        });
+    }
+
+    public List<String> recommendations(String mobile, int k) throws Exception {
+        return timed(RECOMMENDATIONS, () -> spotifyRepository.recommendations(mobile, k));
+    }
+
+    public List<String> similarSongs(String songTitle, int k) throws Exception {
+        return timed(SIMILAR_SONGS, () -> spotifyRepository.similarSongs(songTitle, k));
+    }
+
+    public StreamingResponseBody playlistSongs(String title, String cursor, int limit) throws Exception {
+        return stream(PLAYLIST_SONGS, cursor, limit, (from, count) -> spotifyRepository.playlistSongs(title, from, count));
+    }
+
+    public StreamingResponseBody playlistListeners(String title, String cursor, int limit) throws Exception {
+        return stream(PLAYLIST_LISTENERS, cursor, limit, (from, count) -> spotifyRepository.playlistListeners(title, from, count));
+    }
+
+    public StreamingResponseBody userPlaylists(String mobile, String cursor, int limit) throws Exception {
+        return stream(USER_PLAYLISTS, cursor, limit, (from, count) -> spotifyRepository.userPlaylists(mobile, from, count));
+    }
+
+    public StreamingResponseBody likedSongs(String mobile, String cursor, int limit) throws Exception {
+        return stream(LIKED_SONGS, cursor, limit, (from, count) -> spotifyRepository.likedSongs(mobile, from, count));
+    }
+
+    public StreamingResponseBody albumSongs(String title, String cursor, int limit) throws Exception {
+        return stream(ALBUM_SONGS, cursor, limit, (from, count) -> spotifyRepository.albumSongs(title, from, count));
+    }
+
+    public StreamingResponseBody artistAlbums(String name, String cursor, int limit) throws Exception {
+        return stream(ARTIST_ALBUMS, cursor, limit, (from, count) -> spotifyRepository.artistAlbums(name, from, count));
+    }
+
+    interface Pager<T> {
+        Page<T> page(long cursor, int limit) throws Exception;
+    }
+
+    // Reads the first chunk now, so a missing user or playlist fails the request before anything is sent, then
+    // writes {"items": [...], "nextCursor": "..."} while reading the rest chunk by chunk; nextCursor is null
+    // after the last page. An empty cursor starts from the beginning.
+    private <T> StreamingResponseBody stream(Metrics.Timer timer, String cursor, int limit, Pager<T> pager) throws Exception {
+        Page<T> first = timed(timer, () -> pager.page(parseCursor(cursor), Math.min(limit, STREAM_CHUNK)));
+        return out -> {
+            JsonGenerator json = JSON.getFactory().createGenerator(out);
+            json.writeStartObject();
+            json.writeArrayFieldStart("items");
+            Page<T> page = first;
+            int remaining = limit - page.items.size();
+            for(T item: page.items) json.writeObject(item);
+            while(page.next>=0 && remaining>0){
+                json.flush();
+                try {
+                    page = pager.page(page.next, Math.min(remaining, STREAM_CHUNK));
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+                for(T item: page.items) json.writeObject(item);
+                remaining -= page.items.size();
+            }
+            json.writeEndArray();
+            json.writeStringField("nextCursor", page.next<0 ? null : Long.toString(page.next));
+            json.writeEndObject();
+            json.flush();
+        };
+    }
+
+    private static long parseCursor(String cursor) throws Exception {
+        if(cursor==null || cursor.isEmpty()) return 0;
+        try {
+            long from = Long.parseLong(cursor);
+            if(from>=0 && from<=Integer.MAX_VALUE) return from;
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        throw new Exception("Invalid cursor");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,26 @@
+package com.driver;
+
+public class StripedLock {
+    private final Object[] stripes;
+    private final int mask;
+
+    public StripedLock(int stripeCount){
+        // round up to a power of two so a stripe can be picked with a mask
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Object[size];
+        for(int i = 0; i < size; i++){
+            stripes[i] = new Object();
+        }
+        mask = size - 1;
+    }
+
+    public Object lockFor(Object key){
+        return lockFor(key.hashCode());
+    }
+
+    // for int keys such as dense ids, without boxing them
+    public Object lockFor(int key){
+        int h = key ^ (key >>> 16);
+        return stripes[h & mask];
+    }
+}
@@ -0,0 +1,147 @@
+package com.driver;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Likes per item over a rolling window, ranked highest first; ties go to the item created first.
+// The window is a ring of buckets (e.g. 12 five-minute buckets for an hour), so an item only tracked while it
+// has likes in the window costs two fixed-size arrays. A like bumps the item's current bucket and re-ranks it
+// under the item's stripe lock, as Leaderboard does.
+//
+// Buckets that fall out of the window are swept by readers: every bucket remembers which items it counted,
+// and top() recounts those items once the bucket has expired, dropping the ones left with no likes. The sweep
+// is tried without waiting, so a like never waits for it and concurrent readers do not queue behind it.
+public class TrendingChart<T> {
+
+    private static final class Entry<T> {
+        final T item;
+        final int likes;
+        final int order;
+
+        Entry(T item, int likes, int order){
+            this.item = item;
+            this.likes = likes;
+            this.order = order;
+        }
+    }
+
+    // per item: the likes of each bucket, and which bucket (by number since the epoch) each slot holds
+    private static final class Counter<T> {
+        final int[] likes;
+        final long[] bucket;
+        volatile Entry<T> entry;
+
+        Counter(int buckets){
+            likes = new int[buckets];
+            bucket = new long[buckets];
+            Arrays.fill(bucket, -1);
+        }
+
+        int total(long now, int buckets){
+            int total = 0;
+            for(int i = 0; i < likes.length; i++){
+                if(bucket[i]>now - buckets) total += likes[i];
+            }
+            return total;
+        }
+    }
+
+    private final long bucketMillis;
+    private final int buckets;
+    private final LongSupplier clock;
+
+    private final ConcurrentSkipListSet<Entry<T>> ranking = new ConcurrentSkipListSet<>((a, b) -> {
+        if(a.likes!=b.likes) return a.likes>b.likes ? -1 : 1;
+        return Integer.compare(a.order, b.order);
+    });
+    private final ConcurrentHashMap<T, Counter<T>> counters = new ConcurrentHashMap<>();
+    private final StripedLock locks = new StripedLock(64);
+
+    // items counted in each bucket that has not been swept yet
+    private final ConcurrentHashMap<Long, Set<T>> touched = new ConcurrentHashMap<>();
+    private final ReentrantLock sweep = new ReentrantLock();
+    private long swept = Long.MIN_VALUE;
+
+    public TrendingChart(long windowMillis, int buckets, LongSupplier clock){
+        this.buckets = buckets;
+        this.bucketMillis = Math.max(1, windowMillis / buckets);
+        this.clock = clock;
+    }
+
+    private long bucketNow(){
+        return clock.getAsLong() / bucketMillis;
+    }
+
+    public void record(T item, int order, int added){
+        long now = bucketNow();
+        boolean first;
+        synchronized (locks.lockFor(item)){
+            Counter<T> counter = counters.computeIfAbsent(item, k -> new Counter<>(buckets));
+            int slot = (int) Math.floorMod(now, (long) buckets);
+            first = counter.bucket[slot]!=now;
+            if(first){
+                counter.bucket[slot] = now;
+                counter.likes[slot] = 0;
+            }
+            counter.likes[slot] += added;
+            rank(item, order, counter, counter.total(now, buckets));
+        }
+        if(first) touched.computeIfAbsent(now, k -> ConcurrentHashMap.newKeySet()).add(item);
+    }
+
+    // under the item's lock
+    private void rank(T item, int order, Counter<T> counter, int total){
+        Entry<T> old = counter.entry;
+        if(old!=null && old.likes==total) return;
+        Entry<T> next = total>0 ? new Entry<>(item, total, order) : null;
+        // add before removing so a concurrent reader never sees the item missing
+        if(next!=null) ranking.add(next);
+        counter.entry = next;
+        if(old!=null) ranking.remove(old);
+        if(next==null) counters.remove(item);
+    }
+
+    public List<T> top(int k){
+        expire();
+        List<T> result = new ArrayList<>();
+        if(k<=0) return result;
+        for(Entry<T> e: ranking){
+            Counter<T> counter = counters.get(e.item);
+            if(counter==null || counter.entry!=e) continue;
+            result.add(e.item);
+            if(result.size()==k) break;
+        }
+        return result;
+    }
+
+    // recounts the items of every bucket that has left the window since the last sweep
+    private void expire(){
+        if(!sweep.tryLock()) return;
+        try {
+            long now = bucketNow();
+            long oldest = now - buckets + 1;
+            if(swept>=oldest - 1) return;
+            for(Iterator<Map.Entry<Long, Set<T>>> it = touched.entrySet().iterator(); it.hasNext(); ){
+                Map.Entry<Long, Set<T>> e = it.next();
+                if(e.getKey()>=oldest) continue;
+                it.remove();
+                for(T item: e.getValue()){
+                    synchronized (locks.lockFor(item)){
+                        Counter<T> counter = counters.get(item);
+                        if(counter!=null) rank(item, counter.entry==null ? 0 : counter.entry.order, counter, counter.total(now, buckets));
+                    }
+                }
+            }
+            swept = oldest - 1;
+        } finally {
+            sweep.unlock();
+        }
+    }
+
+    public int tracked(){
+        return counters.size();
+    }
+}
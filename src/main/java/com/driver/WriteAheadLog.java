@@ -0,0 +1,290 @@
+package com.driver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+// Append-only log split into numbered segments (wal-<generation>.log).
+// Appends only copy into an in-memory buffer; a single flusher thread writes whatever has accumulated
+// and fsyncs it once, so concurrent writers share one fsync (group commit).
+public class WriteAheadLog implements Closeable {
+
+    static final int MAGIC = 0x53504c47; // "SPLG"
+
+    private final Path dir;
+    private final boolean waitForSync;
+    private final Thread flusher;
+
+    // guards the channel; always taken before the monitor of this
+    private final Object ioLock = new Object();
+    private FileChannel channel;
+    private long generation;
+
+    // guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private long appendedSeq;
+    private long durableSeq;
+    private IOException failure;
+    private boolean closed;
+    // futures of whenDurable() callers, completed by the flusher in sequence order
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>((a, b) -> Long.compare(a.seq, b.seq));
+
+    private static final class Waiter {
+        final long seq;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        Waiter(long seq){
+            this.seq = seq;
+        }
+    }
+
+    private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+
+    public WriteAheadLog(Path dir, long generation, boolean waitForSync) throws IOException {
+        this.dir = dir;
+        this.waitForSync = waitForSync;
+        this.generation = generation;
+        this.channel = openSegment(generation);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static Path segmentPath(Path dir, long generation){
+        return dir.resolve("wal-" + generation + ".log");
+    }
+
+    private FileChannel openSegment(long generation) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(dir, generation),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+        header.flip();
+        while(header.hasRemaining()) ch.write(header);
+        return ch;
+    }
+
+    // frames the payload as [length][crc32][payload] so recovery can stop at a torn tail
+    public void append(byte[] payload){
+        append(Collections.singletonList(payload));
+    }
+
+    // appends every payload or, when the log is closed or has failed, none of them
+    public void append(List<byte[]> payloads){
+        int[] crcs = new int[payloads.size()];
+        for(int i = 0; i < crcs.length; i++){
+            CRC32 crc = new CRC32();
+            crc.update(payloads.get(i), 0, payloads.get(i).length);
+            crcs[i] = (int) crc.getValue();
+        }
+        long seq;
+        synchronized (this){
+            if(closed) throw new IllegalStateException("Write-ahead log is closed");
+            if(failure!=null) throw new UncheckedIOException(failure);
+            for(int i = 0; i < crcs.length; i++){
+                byte[] payload = payloads.get(i);
+                writeInt(pending, payload.length);
+                writeInt(pending, crcs[i]);
+                pending.write(payload, 0, payload.length);
+            }
+            appendedSeq += crcs.length;
+            seq = appendedSeq;
+            notifyAll();
+        }
+        lastAppended.get()[0] = seq;
+    }
+
+    // For a caller that found what it was asked to create already there: its next awaitDurable or whenDurable
+    // also waits for everything appended so far, which includes the record that created what it found.
+    public void observeAppended(){
+        long seq;
+        synchronized (this){
+            seq = appendedSeq;
+        }
+        long[] last = lastAppended.get();
+        last[0] = Math.max(last[0], seq);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v){
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    // blocks until everything this thread appended is on disk; a no-op when the log is asynchronous
+    public void awaitDurable(){
+        if(!waitForSync) return;
+        long seq = lastAppended.get()[0];
+        synchronized (this){
+            while(durableSeq<seq){
+                if(failure!=null) throw new UncheckedIOException(failure);
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+                }
+            }
+        }
+    }
+
+    // like awaitDurable(), but without blocking: the future completes on the flusher thread once everything
+    // this thread appended is on disk, so a request thread can be released while the fsync is in flight
+    public CompletableFuture<Void> whenDurable(){
+        if(!waitForSync) return CompletableFuture.completedFuture(null);
+        long seq = lastAppended.get()[0];
+        synchronized (this){
+            if(failure!=null){
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new UncheckedIOException(failure));
+                return failed;
+            }
+            if(durableSeq>=seq) return CompletableFuture.completedFuture(null);
+            Waiter waiter = new Waiter(seq);
+            waiters.add(waiter);
+            return waiter.durable;
+        }
+    }
+
+    private void flushLoop(){
+        while(true){
+            // wait for work without holding ioLock, so rotate() is never blocked by an idle flusher
+            synchronized (this){
+                while(pending.size()==0 && !closed){
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(pending.size()==0) return;
+            }
+            List<Waiter> done;
+            synchronized (ioLock){
+                byte[] batch;
+                long upTo;
+                synchronized (this){
+                    // rotate() may have drained the buffer in the meantime
+                    if(pending.size()==0) continue;
+                    batch = pending.toByteArray();
+                    pending.reset();
+                    upTo = appendedSeq;
+                }
+                try {
+                    write(batch);
+                    channel.force(false);
+                    done = markDurable(upTo);
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+            complete(done);
+        }
+    }
+
+    private void write(byte[] batch) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while(buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    // the waiters now durable; the caller completes them once it has released ioLock
+    private List<Waiter> markDurable(long upTo){
+        List<Waiter> done = new ArrayList<>();
+        synchronized (this){
+            durableSeq = Math.max(durableSeq, upTo);
+            notifyAll();
+            while(!waiters.isEmpty() && waiters.peek().seq<=durableSeq) done.add(waiters.poll());
+        }
+        return done;
+    }
+
+    // Completing a future runs the caller's continuations (in the web mode, sending the response) on this
+    // thread, so it is done outside both ioLock and the monitor: a slow continuation must not hold up the
+    // next fsync or a rotate().
+    private static void complete(List<Waiter> done){
+        for(Waiter w: done) w.durable.complete(null);
+    }
+
+    private void fail(IOException e){
+        List<Waiter> failed;
+        synchronized (this){
+            failure = e;
+            notifyAll();
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for(Waiter w: failed) w.durable.completeExceptionally(new UncheckedIOException(e));
+    }
+
+    // makes everything appended so far durable in the current segment and starts the next one;
+    // returns the generation of the new segment
+    public long rotate() throws IOException {
+        List<Waiter> done;
+        long next;
+        synchronized (ioLock){
+            byte[] batch;
+            long upTo;
+            synchronized (this){
+                batch = pending.toByteArray();
+                pending.reset();
+                upTo = appendedSeq;
+            }
+            try {
+                write(batch);
+                channel.force(false);
+                channel.close();
+                generation++;
+                channel = openSegment(generation);
+            } catch (IOException e) {
+                // the drained batch is gone, so nothing appended from here on may be reported durable
+                fail(e);
+                throw e;
+            }
+            done = markDurable(upTo);
+            next = generation;
+        }
+        complete(done);
+        return next;
+    }
+
+    public long getGeneration(){
+        synchronized (ioLock){
+            return generation;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this){
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (ioLock){
+            channel.close();
+        }
+    }
+
+    static void deleteSegmentsBefore(Path dir, long generation) throws IOException {
+        for(long g: RepositoryPersistence.generations(dir, "wal-", ".log")){
+            if(g<generation) Files.deleteIfExists(segmentPath(dir, g));
+        }
+    }
+}
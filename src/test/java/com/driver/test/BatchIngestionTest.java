@@ -0,0 +1,62 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchIngestionTest {
+
+    SpotifyRepository repository = new SpotifyRepository();
+
+    @Test
+    void createUsers_shouldDedupeWithinBatchAndAgainstExistingUsers() {
+        User existing = repository.createUser("John", "111");
+        List<String> results = repository.createUsers(Arrays.asList(
+                new User("Johnny", " 111 "), new User("Doe", "222"), new User("Dup", "222"), new User("Nobody", null)));
+
+        assertEquals(Arrays.asList("Success", "Success", "Success", "Name and mobile are required"), results);
+        assertEquals(2, repository.users.size());
+        assertSame(existing, repository.getUser("111"));
+        assertEquals("Doe", repository.getUser("222").getName());
+    }
+
+    @Test
+    void createAlbums_shouldCreateMissingArtistsOnce() {
+        repository.createArtists(Arrays.asList("Ed Sheeran", "ed sheeran "));
+        List<String> results = repository.createAlbums(Arrays.asList(
+                new AlbumRequest("Divide", "Ed Sheeran"), new AlbumRequest("X", "ED SHEERAN"),
+                new AlbumRequest("1989", "Taylor Swift"), new AlbumRequest("divide", "Taylor Swift")));
+
+        assertEquals(Arrays.asList("Success", "Success", "Success", "Success"), results);
+        assertEquals(2, repository.artists.size());
+        assertEquals(3, repository.albums.size());
+        Artist ed = repository.artistIndex.get("ed sheeran");
+        assertEquals(2, repository.artistAlbumMap.get(ed).size());
+        assertSame(ed, repository.albumArtistMap.get(repository.albumIndex.get("divide")));
+    }
+
+    @Test
+    void createSongs_shouldLinkSongsLikeCreateSong() throws Exception {
+        repository.createAlbum("Divide", "Ed Sheeran");
+        repository.createUser("John", "111");
+        Song first = repository.createSong("Perfect", "Divide", 263);
+        List<String> results = repository.createSongs(Arrays.asList(
+                new SongRequest("Shape of You", "Divide", 233), new SongRequest("Lost", "Nowhere", 100),
+                new SongRequest("Castle on the Hill", "divide", 261)));
+
+        assertEquals(Arrays.asList("Success", "Album does not exist", "Success"), results);
+        assertEquals(3, repository.songs.size());
+        Album divide = repository.albumIndex.get("divide");
+        assertEquals(3, repository.albumSongMap.get(divide).size());
+        Song shape = repository.getSong("shape of you");
+        assertEquals(first.getId() + 1, shape.getId());
+        assertEquals(1, repository.songLengthIndex.get(233).size());
+
+        repository.likeSong("111", "Castle on the Hill");
+        assertEquals("Ed Sheeran", repository.mostPopularArtist());
+    }
+}
@@ -0,0 +1,82 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogVersionTest {
+
+    private static List<String> titles(List<Song> songs){
+        return songs.stream().map(Song::getTitle).collect(Collectors.toList());
+    }
+
+    @Test
+    void persistentVector_shouldKeepEveryVersionIntact() {
+        List<PersistentVector<Integer>> versions = new ArrayList<>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        // past 32 * 32 * 32 + 32, so the trie grows to four levels
+        for(int i = 0; i < 40_000; i++){
+            if(i % 997==0) versions.add(vector);
+            vector = vector.append(i);
+        }
+        assertEquals(40_000, vector.size());
+        for(int i = 0; i < vector.size(); i++) assertEquals(i, vector.get(i));
+        for(PersistentVector<Integer> old: versions){
+            for(int i = 0; i < old.size(); i++) assertEquals(i, old.get(i));
+        }
+
+        PersistentVector<Integer> changed = vector.with(5, -5).with(39_999, -1);
+        assertEquals(-5, changed.get(5));
+        assertEquals(-1, changed.get(39_999));
+        assertEquals(5, vector.get(5));
+        assertEquals(39_999, vector.get(39_999));
+        PersistentVector<Integer> last = vector;
+        assertThrows(IndexOutOfBoundsException.class, () -> last.get(40_000));
+    }
+
+    @Test
+    void readers_shouldKeepTheVersionTheyRead() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        repository.createAlbum("Divide", "Ed Sheeran");
+        repository.createSong("Shape of You", "Divide", 233);
+        CatalogVersion before = repository.catalog();
+
+        repository.createAlbum("Folklore", "Taylor Swift");
+        repository.createSong("Cardigan", "Folklore", 239);
+        repository.createSong("Perfect", "Divide", 233);
+        CatalogVersion after = repository.catalog();
+
+        assertEquals(1, before.songs.size());
+        assertEquals(1, before.albums.size());
+        assertEquals(Arrays.asList("Shape of You"), titles(before.songsOfLength(233)));
+        assertTrue(before.songsOfLength(239).isEmpty());
+
+        assertTrue(after.version>before.version);
+        assertEquals(Arrays.asList("Shape of You", "Perfect"), titles(after.songsOfLength(233)));
+        assertEquals(Arrays.asList("Shape of You", "Perfect", "Cardigan"), titles(after.songsOfLengths(200, 240)));
+        Album divide = repository.albumIndex.get("divide");
+        assertEquals(Arrays.asList("Shape of You", "Perfect"), titles(after.songsOf(divide)));
+        assertEquals("Ed Sheeran", after.artistOf(divide).getName());
+        assertEquals(1, after.albumsOf(repository.artistIndex.get("taylor swift")).size());
+    }
+
+    @Test
+    void batches_shouldBePublishedAsOneVersion() {
+        SpotifyRepository repository = new SpotifyRepository();
+        repository.createAlbum("Divide", "Ed Sheeran");
+        long version = repository.catalog().version;
+        repository.createSongs(Arrays.asList(new SongRequest("A", "Divide", 100), new SongRequest("B", "Divide", 101),
+                new SongRequest("C", "Missing", 102)));
+
+        CatalogVersion published = repository.catalog();
+        assertEquals(version + 1, published.version);
+        assertEquals(2, published.songs.size());
+        assertEquals(Arrays.asList("A", "B"), titles(published.songsOfLengths(0, 1000)));
+    }
+}
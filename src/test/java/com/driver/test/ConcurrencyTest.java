@@ -0,0 +1,135 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int USERS = 400;
+    private static final int SONGS = 50;
+
+    SpotifyRepository repository = new SpotifyRepository();
+
+    @Test
+    void likeSong_concurrentLikesShouldBeCountedExactly() throws Exception {
+        repository.createAlbum("Album 1", "Artist 1");
+        repository.createAlbum("Album 2", "Artist 2");
+        for(int s = 0; s < SONGS; s++){
+            repository.createSong("Song " + s, s % 2 == 0 ? "Album 1" : "Album 2", 200);
+        }
+        for(int u = 0; u < USERS; u++){
+            repository.createUser("User " + u, "mobile-" + u);
+        }
+
+        // every thread likes every song for every user, so each like is attempted THREADS times
+        runOnThreads(t -> {
+            for(int u = 0; u < USERS; u++){
+                for(int s = 0; s < SONGS; s++){
+                    repository.likeSong("mobile-" + u, "Song " + ((s + t) % SONGS));
+                }
+            }
+        });
+
+        for(int s = 0; s < SONGS; s++){
+            Song song = repository.getSong("Song " + s);
+            assertEquals(USERS, song.getLikes());
+            assertEquals(USERS, repository.getLikeCount(song));
+        }
+        int songsPerArtist = SONGS / 2;
+        for(Artist artist : repository.artists){
+            assertEquals(USERS * songsPerArtist, artist.getLikes());
+        }
+    }
+
+    @Test
+    void create_concurrentDuplicatesShouldCreateOneEntity() throws Exception {
+        runOnThreads(t -> {
+            for(int i = 0; i < 200; i++){
+                repository.createUser("User " + i, " mobile-" + i + " ");
+                repository.createAlbum("Album " + i, "Artist " + (i % 10));
+                repository.createSong("Song " + t + "-" + i, "Album " + i, 180);
+            }
+        });
+
+        assertEquals(200, repository.users.size());
+        assertEquals(200, repository.albums.size());
+        assertEquals(10, repository.artists.size());
+        assertEquals(200 * THREADS, repository.songs.size());
+        for(int i = 0; i < 200; i++){
+            Album album = repository.albumIndex.get("album " + i);
+            assertEquals(THREADS, repository.albumSongMap.get(album).size());
+        }
+    }
+
+    @Test
+    void createSong_sameTitleShouldBeIndexedInIdOrder() throws Exception {
+        repository.createAlbum("Album 1", "Artist 1");
+        runOnThreads(t -> {
+            for(int i = 0; i < 200; i++){
+                if(i % 2 == 0) repository.createSong("Same", "Album 1", 100 + t);
+                else repository.createSongs(List.of(new SongRequest("Same", "Album 1", 100 + t), new SongRequest("Same", "Album 1", 100 + t)));
+            }
+        });
+
+        List<Song> sameTitle = repository.songIndex.get("Same");
+        assertEquals(300 * THREADS, sameTitle.size());
+        for(int i = 0; i < sameTitle.size(); i++){
+            assertEquals(i, sameTitle.get(i).getId());
+        }
+    }
+
+    @Test
+    void findPlaylist_concurrentListenersShouldBeAddedOnce() throws Exception {
+        repository.createAlbum("Album 1", "Artist 1");
+        repository.createSong("Song 1", "Album 1", 200);
+        for(int u = 0; u < USERS; u++){
+            repository.createUser("User " + u, "mobile-" + u);
+        }
+        Playlist playlist = repository.createPlaylistOnLength("mobile-0", "Shared", 200);
+
+        runOnThreads(t -> {
+            for(int u = 0; u < USERS; u++){
+                repository.findPlaylist("mobile-" + u, "Shared");
+            }
+        });
+
+        assertEquals(USERS, repository.getListenerCount(playlist));
+        for(int u = 0; u < USERS; u++){
+            User user = repository.getUser("mobile-" + u);
+            assertEquals(1, repository.userPlaylistMap.get(user).size());
+        }
+    }
+
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    private static void runOnThreads(Work work) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++){
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                work.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for(Future<?> f : futures){
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
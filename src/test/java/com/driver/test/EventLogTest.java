@@ -0,0 +1,242 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventLogTest {
+
+    @TempDir
+    Path dir;
+
+    // events in the order replay saw them, merged segment by segment
+    private static final EventLog.Replay<List<Long>> ORDER = new EventLog.Replay<List<Long>>() {
+        @Override
+        public List<Long> create(){
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void event(List<Long> into, byte type, int user, int item, long time){
+            into.add(time);
+        }
+
+        @Override
+        public List<Long> merge(List<Long> earlier, List<Long> later){
+            earlier.addAll(later);
+            return earlier;
+        }
+    };
+
+    @Test
+    void compaction_shouldKeepTheCountsAndBoundTheSegments() throws Exception {
+        long time = 0;
+        try (EventLog log = EventLog.open(dir, 1, 2, EventLog.Summary::new)){
+            for(int round = 0; round < 20; round++){
+                for(int i = 0; i < 100; i++){
+                    log.like(i % 10, i % 7, time++);
+                    log.listen(i % 10, 3, time++);
+                }
+                log.flush();
+                assertTrue(log.segmentCount()<=3);
+            }
+            EventLog.Summary counts = log.replay(EventLog.Summary.COUNTS);
+            // each round likes songs 0 and 1 15 times and the others 14 times
+            assertEquals(300, counts.songLikes(0));
+            assertEquals(280, counts.songLikes(6));
+            assertEquals(200, counts.userLikes(4));
+            assertEquals(2000, counts.playlistListens(3));
+            assertEquals(200, counts.userListens(9));
+            assertEquals(0, counts.songLikes(7));
+
+            // the live segments replay in parallel, but merge in the order they were written
+            List<Long> times = log.replay(ORDER);
+            assertFalse(times.isEmpty());
+            assertTrue(times.size()<time);
+            for(int i = 1; i < times.size(); i++) assertEquals(times.get(i - 1) + 1, (long) times.get(i));
+            assertEquals(time - 1, (long) times.get(times.size() - 1));
+        }
+
+        try (EventLog reopened = EventLog.open(dir, 1, 2, () -> fail("a log exists"))){
+            assertEquals(300, reopened.replay(EventLog.Summary.COUNTS).songLikes(0));
+        }
+    }
+
+    @Test
+    void failedWrite_shouldSurfaceFromFlushReplayAndClose() throws Exception {
+        EventLog log = EventLog.open(dir, 1, 8, EventLog.Summary::new);
+        // the segment after the current one already exists, so sealing the current one fails
+        Files.createFile(dir.resolve("events-2.seg"));
+        for(int i = 0; i < 100; i++) log.like(i, i, i);
+        assertThrows(IOException.class, log::flush);
+        log.like(1, 1, 1);
+        assertThrows(IOException.class, () -> log.replay(EventLog.Summary.COUNTS));
+        assertThrows(IOException.class, log::close);
+    }
+
+    @Test
+    void rebuild_shouldNotLoseLikesAppliedMeanwhile() throws Exception {
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, false, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createAlbum("Album", "Artist");
+            for(int s = 0; s < 10; s++) repository.createSong("Song " + s, "Album", 200);
+            for(int u = 0; u < 200; u++) repository.createUser("User", "m" + u);
+            repository.enableAsyncLikes(2, 1 << 12, 1000);
+
+            Thread liker = new Thread(() -> {
+                try {
+                    for(int u = 0; u < 200; u++){
+                        for(int s = 0; s < 10; s++) repository.likeSong("m" + u, "Song " + s);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            liker.start();
+            for(int i = 0; i < 5; i++) repository.rebuildLikesFromEvents();
+            liker.join();
+            repository.flushLikes();
+
+            for(int s = 0; s < 10; s++){
+                Song song = repository.getSong("Song " + s);
+                assertEquals(200, song.getLikes());
+                assertEquals(repository.getLikeCount(song), song.getLikes());
+            }
+            assertEquals(2000, repository.artistRanking().top().getLikes());
+        }
+    }
+
+    @Test
+    void history_shouldMatchTheCountersAndRebuildThem() throws Exception {
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createUser("A", "001");
+            repository.createUser("B", "002");
+            repository.createAlbum("Album", "Artist");
+            repository.createSong("One", "Album", 200);
+            repository.createSong("Two", "Album", 180);
+            repository.createPlaylistOnName("001", "Mix", Arrays.asList("One", "Two"));
+            repository.findPlaylist("002", "Mix");
+            repository.likeSong("001", "One");
+            repository.likeSong("002", "One");
+            repository.likeSong("002", "Two");
+            // a second like of the same song is not an event
+            repository.likeSong("002", "Two");
+        }
+
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            EventLog.Summary counts = repository.replayEvents(EventLog.Summary.COUNTS);
+            Song one = repository.getSong("One");
+            Song two = repository.getSong("Two");
+            assertEquals(2, counts.songLikes(one.getId()));
+            assertEquals(1, counts.songLikes(two.getId()));
+            assertEquals(2, counts.userLikes(repository.getUser("002").getId()));
+            assertEquals(2, counts.playlistListens(repository.getPlaylist("Mix").getId()));
+
+            one.setLikes(0);
+            two.setLikes(0);
+            repository.rebuildLikesFromEvents();
+            assertEquals(2, one.getLikes());
+            assertEquals(1, two.getLikes());
+            assertEquals(3, repository.artistRanking().top().getLikes());
+            assertEquals("One", repository.mostPopularSong());
+        }
+    }
+
+    @Test
+    void rebuild_shouldKeepLikesTheHistoryLost() throws Exception {
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createUser("A", "001");
+            repository.createUser("B", "002");
+            repository.createAlbum("Album", "Artist");
+            repository.createSong("One", "Album", 200);
+            repository.likeSong("001", "One");
+            repository.likeSong("002", "One");
+        }
+        // as if the process died before the last events were flushed
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir.resolve("events"), "events-*.seg")){
+            for(Path file: files){
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+                    channel.truncate(4);
+                }
+            }
+        }
+
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            assertEquals(0, repository.replayEvents(EventLog.Summary.COUNTS).songLikes(repository.getSong("One").getId()));
+            assertEquals(1, repository.rebuildLikesFromEvents());
+            assertEquals(2, repository.getSong("One").getLikes());
+            assertEquals(2, repository.artistRanking().top().getLikes());
+            // the likers are what counts from now on, so a second rebuild finds the same again
+            assertEquals(1, repository.rebuildLikesFromEvents());
+            assertEquals(2, repository.getSong("One").getLikes());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "primitive", "sharded"})
+    void rebuild_shouldRepairACorruptedCounter(String store) throws Exception {
+        System.setProperty("spotify.relations", store);
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createUser("A", "001");
+            repository.createUser("B", "002");
+            repository.createAlbum("Album", "Artist");
+            repository.createSong("One", "Album", 200);
+            repository.likeSong("001", "One");
+            repository.likeSong("002", "One");
+            // a counter that drifted from both its likers and the history; the likers agree with the history
+            repository.getSong("One").setLikes(5);
+            assertEquals(0, repository.rebuildLikesFromEvents());
+            assertEquals(2, repository.getSong("One").getLikes());
+            assertEquals(2, repository.artistRanking().top().getLikes());
+        } finally {
+            System.clearProperty("spotify.relations");
+        }
+    }
+
+    @Test
+    void firstOpen_shouldStartFromTheExistingCounts() throws Exception {
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createUser("A", "001");
+            repository.createAlbum("Album", "Artist");
+            repository.createSong("One", "Album", 200);
+            repository.createPlaylistOnName("001", "Mix", Arrays.asList("One"));
+            repository.likeSong("001", "One");
+        }
+        // as if the repository predated the history
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir.resolve("events"))){
+            for(Path file: files) Files.delete(file);
+        }
+
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createUser("B", "002");
+            repository.likeSong("002", "One");
+            repository.findPlaylist("002", "Mix");
+            EventLog.Summary counts = repository.replayEvents(EventLog.Summary.COUNTS);
+            assertEquals(2, counts.songLikes(repository.getSong("One").getId()));
+            assertEquals(1, counts.userLikes(repository.getUser("001").getId()));
+            assertEquals(2, counts.playlistListens(repository.getPlaylist("Mix").getId()));
+            assertEquals(1, counts.userListens(repository.getUser("001").getId()));
+        }
+    }
+}
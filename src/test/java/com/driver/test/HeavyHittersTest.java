@@ -0,0 +1,107 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeavyHittersTest {
+
+    // keys drawn with probability ~ 1 / rank, like song popularity
+    private static int[] zipf(int keys, int draws, long seed){
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for(int i = 0; i < keys; i++) cumulative[i] = sum += 1.0 / (i + 1);
+        Random random = new Random(seed);
+        int[] stream = new int[draws];
+        for(int i = 0; i < draws; i++){
+            int at = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            stream[i] = at>=0 ? at : -at - 1;
+        }
+        return stream;
+    }
+
+    private static List<Integer> exactTop(long[] counts, int k){
+        List<Integer> keys = new ArrayList<>();
+        for(int i = 0; i < counts.length; i++) keys.add(i);
+        keys.sort((a, b) -> counts[a]!=counts[b] ? Long.compare(counts[b], counts[a]) : Integer.compare(a, b));
+        return keys.subList(0, k);
+    }
+
+    @Test
+    void summaries_shouldBoundEveryCountFromAbove() {
+        int[] stream = zipf(20_000, 200_000, 1);
+        long[] exact = new long[20_000];
+        SpaceSaving<Integer> summary = new SpaceSaving<>(256);
+        CountMinSketch sketch = new CountMinSketch(4, 2048, 7);
+        for(int key: stream){
+            exact[key]++;
+            summary.add(key, key, 1);
+            sketch.add(key, 1);
+        }
+
+        long threshold = summary.total() / summary.capacity();
+        for(int key = 0; key < exact.length; key++){
+            long count = summary.count(key);
+            if(exact[key]>threshold) assertTrue(count>0, "frequent key " + key + " was dropped");
+            if(count>0){
+                assertTrue(count>=exact[key]);
+                assertTrue(count - summary.error(key)<=exact[key]);
+            }
+            assertTrue(sketch.estimate(key)>=exact[key]);
+        }
+        for(int key: exactTop(exact, 20)) assertTrue(sketch.estimate(key) - exact[key]<=sketch.errorBound());
+    }
+
+    @Test
+    void merge_shouldCombineSummariesOfSeparateShards() {
+        int[] stream = zipf(50_000, 400_000, 2);
+        long[] exact = new long[50_000];
+        HeavyHitters<Integer> left = new HeavyHitters<>(1024, 4096);
+        HeavyHitters<Integer> right = new HeavyHitters<>(1024, 4096);
+        for(int i = 0; i < stream.length; i++){
+            exact[stream[i]]++;
+            (i % 2==0 ? left : right).record(0, stream[i], stream[i], 0, 1);
+        }
+        left.merge(right);
+
+        assertEquals(stream.length, left.total());
+        assertEquals(exactTop(exact, 10), left.top(10));
+        for(int key: exactTop(exact, 100)){
+            assertTrue(left.estimate(key)>=exact[key]);
+            assertTrue(left.estimate(key) - exact[key]<=left.errorBound());
+        }
+        assertThrows(IllegalArgumentException.class, () -> left.merge(new HeavyHitters<>(64, 4096)));
+    }
+
+    @Test
+    void approximateMode_shouldAnswerThePopularityQueries() throws Exception {
+        System.setProperty("spotify.popularity", "approximate");
+        SpotifyRepository repository;
+        try {
+            repository = new SpotifyRepository();
+        } finally {
+            System.clearProperty("spotify.popularity");
+        }
+        assertTrue(repository.songRanking() instanceof HeavyHitters);
+        assertEquals("", repository.mostPopularSong());
+
+        for(int u = 0; u < 5; u++) repository.createUser("User", "m" + u);
+        repository.createAlbum("A", "Artist A");
+        repository.createAlbum("B", "Artist B");
+        repository.createSong("Song 1", "A", 200);
+        repository.createSong("Song 2", "B", 200);
+        repository.createSong("Song 3", "B", 200);
+        for(int u = 0; u < 3; u++) repository.likeSong("m" + u, "Song 1");
+        for(int u = 0; u < 2; u++) repository.likeSong("m" + u, "Song 2");
+        for(int u = 0; u < 2; u++) repository.likeSong("m" + u, "Song 3");
+        // a repeated like still counts once
+        repository.likeSong("m0", "Song 1");
+
+        assertEquals("Song 1", repository.mostPopularSong());
+        assertEquals("Artist B", repository.mostPopularArtist());
+        assertEquals(Arrays.asList("Song 1", "Song 2", "Song 3"), repository.mostPopularSongs(5));
+    }
+}
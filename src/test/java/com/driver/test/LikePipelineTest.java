@@ -0,0 +1,109 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LikePipelineTest {
+
+    @TempDir
+    Path dir;
+
+    private static void catalog(SpotifyRepository repository, int users, int songs) throws Exception {
+        repository.createAlbum("Album 1", "Artist 1");
+        repository.createAlbum("Album 2", "Artist 2");
+        for(int s = 0; s < songs; s++) repository.createSong("Song " + s, s % 2 == 0 ? "Album 1" : "Album 2", 200);
+        for(int u = 0; u < users; u++) repository.createUser("User " + u, "mobile-" + u);
+    }
+
+    @Test
+    void likeSong_shouldStillValidateBeforeEnqueueing() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        catalog(repository, 1, 1);
+        repository.enableAsyncLikes(1, 16, 100);
+
+        Exception e = assertThrows(Exception.class, () -> repository.likeSong("nobody", "Song 0"));
+        assertEquals("User does not exist", e.getMessage());
+        e = assertThrows(Exception.class, () -> repository.likeSong("mobile-0", "No Song"));
+        assertEquals("Song does not exist", e.getMessage());
+    }
+
+    @Test
+    void flush_shouldMakeConcurrentLikesVisibleExactlyOnce() throws Exception {
+        int users = 200;
+        int songs = 20;
+        SpotifyRepository repository = new SpotifyRepository();
+        catalog(repository, users, songs);
+        repository.enableAsyncLikes(3, 1 << 12, 5_000);
+
+        // every user likes every song from two threads at once
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++){
+            int half = t % 2;
+            threads.add(new Thread(() -> {
+                try {
+                    for(int u = half; u < users; u += 2){
+                        for(int s = 0; s < songs; s++) repository.likeSong("mobile-" + u, "Song " + s);
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for(Thread t: threads) t.join();
+        repository.flushLikes();
+
+        for(int s = 0; s < songs; s++){
+            Song song = repository.getSong("Song " + s);
+            assertEquals(users, song.getLikes());
+            assertEquals(users, repository.getLikeCount(song));
+        }
+        assertEquals(users * songs / 2, repository.artistIndex.get("artist 1").getLikes());
+        assertEquals(users * songs / 2, repository.artistIndex.get("artist 2").getLikes());
+        assertEquals("Artist 1", repository.mostPopularArtist());
+        assertEquals(Arrays.asList("Song 0", "Song 1"), repository.mostPopularSongs(2));
+    }
+
+    @Test
+    void failedBatch_shouldPoisonThePipeline() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        catalog(repository, 1, 1);
+        // a song found by title but never linked to an album, so applying a like of it fails
+        Song ghost = new Song("Ghost", 100);
+        ghost.setId(99);
+        repository.songIndex.computeIfAbsent("Ghost", k -> new CopyOnWriteArrayList<>()).add(ghost);
+        repository.enableAsyncLikes(1, 16, 100);
+        long failures = Metrics.counter("likePipeline.failures").count();
+
+        repository.likeSong("mobile-0", "Ghost");
+        assertThrows(IllegalStateException.class, repository::flushLikes);
+        assertEquals(failures + 1, Metrics.counter("likePipeline.failures").count());
+        assertNotNull(Metrics.counter("likePipeline.failures").lastError());
+        Exception e = assertThrows(Exception.class, () -> repository.likeSong("mobile-0", "Song 0"));
+        assertTrue(e.getMessage().startsWith("Likes are not being applied"));
+    }
+
+    @Test
+    void close_shouldLogQueuedLikes() throws Exception {
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            catalog(repository, 10, 2);
+            repository.enableAsyncLikes(2, 64, 1_000);
+            for(int u = 0; u < 10; u++) repository.likeSong("mobile-" + u, "Song 1");
+        }
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            assertEquals(10, repository.getSong("Song 1").getLikes());
+            assertEquals("Artist 2", repository.mostPopularArtist());
+        }
+    }
+}
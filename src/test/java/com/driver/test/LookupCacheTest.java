@@ -0,0 +1,69 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LookupCacheTest {
+
+    @Test
+    void get_shouldServeRepeatedKeysFromTheCache() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        repository.createUser("John", "111");
+        repository.createAlbum("Divide", "Ed Sheeran");
+        repository.createSong("Perfect", "Divide", 200);
+
+        for(int i = 0; i < 10; i++) repository.likeSong("111", "Perfect");
+        assertEquals(1, repository.userCache.misses());
+        assertEquals(9, repository.userCache.hits());
+        assertEquals(1, repository.songCache.misses());
+        assertEquals(9, repository.songCache.hits());
+        // spelled differently, resolved to the same song
+        assertSame(repository.getSong("Perfect"), repository.getSong("  PERFECT "));
+    }
+
+    @Test
+    void get_shouldNotHideKeysCreatedAfterACachedMiss() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        repository.createAlbum("Divide", "Ed Sheeran");
+        assertNull(repository.getUser("111"));
+        assertNull(repository.getSong("Perfect"));
+        assertNull(repository.getPlaylist("Mine"));
+        assertNull(repository.getUser("111"));
+        assertEquals(1, repository.userCache.hits());
+
+        repository.createUser("John", "111");
+        repository.createSong("Perfect", "Divide", 200);
+        repository.createPlaylistOnLength("111", "Mine", 200);
+
+        assertEquals("John", repository.getUser("111").getName());
+        assertEquals("Perfect", repository.getSong("Perfect").getTitle());
+        assertEquals("Mine", repository.getPlaylist("Mine").getTitle());
+    }
+
+    @Test
+    void get_shouldStayWithinItsCapacity(){
+        LookupCache<String> cache = new LookupCache<>(64);
+        Map<String, String> backing = new HashMap<>();
+        for(int i = 0; i < 1000; i++) backing.put("k" + i, "v" + i);
+        for(int i = 0; i < 1000; i++) assertEquals("v" + i, cache.get("k" + i, backing::get));
+
+        assertTrue(cache.size()<=64);
+        assertEquals(1000 - cache.size(), cache.evictions());
+        // the most recently used key is still there
+        cache.get("k999", backing::get);
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void get_shouldAlwaysResolveWhenDisabled(){
+        LookupCache<String> cache = new LookupCache<>(0);
+        for(int i = 0; i < 3; i++) assertEquals("v", cache.get("k", k -> "v"));
+        assertEquals(0, cache.hits());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,65 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    @Test
+    void percentile_shouldBeWithinThePrecisionOfTheBuckets(){
+        Histogram histogram = new Histogram();
+        for(long v = 1; v <= 100_000; v++) histogram.record(v * 1_000);
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000_000, histogram.max());
+        assertEquals(50_000_000, histogram.percentile(0.5), 50_000_000 * 0.035);
+        assertEquals(99_000_000, histogram.percentile(0.99), 99_000_000 * 0.035);
+        assertEquals(50_000_500, histogram.mean(), 1);
+        // small values are exact
+        Histogram small = new Histogram();
+        for(int v = 0; v < 50; v++) small.record(v);
+        assertEquals(24, small.percentile(0.5));
+    }
+
+    @Test
+    void record_shouldNotAllocate(){
+        Metrics.Timer timer = Metrics.timer("test.allocation");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        // warm up, so the measured loop runs compiled
+        for(int i = 0; i < 100_000; i++) timer.record(System.nanoTime() - i);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < 100_000; i++) timer.record(System.nanoTime() - i);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue(allocated<1_000, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void snapshot_shouldReportEndpointsSizesAndCaches() throws Exception {
+        SpotifyService service = new SpotifyService();
+        long likes = Metrics.timer("likeSong").count();
+        long errors = Metrics.timer("likeSong").errors();
+        service.createUser("Metrics User", "metrics-111");
+        service.createAlbum("Metrics Album", "Metrics Artist");
+        service.createSong("Metrics Song", "Metrics Album", 200);
+        service.likeSong("metrics-111", "Metrics Song");
+        assertThrows(Exception.class, () -> service.likeSong("metrics-111", "No Such Song"));
+
+        assertEquals(likes + 2, Metrics.timer("likeSong").count());
+        assertEquals(errors + 1, Metrics.timer("likeSong").errors());
+
+        Map<String, Object> metrics = service.metrics();
+        Map<String, Object> timers = (Map<String, Object>) metrics.get("timersMicros");
+        assertTrue(((Map<String, Object>) timers.get("likeSong")).containsKey("p99"));
+        Map<String, Integer> sizes = (Map<String, Integer>) metrics.get("sizes");
+        assertTrue(sizes.get("songs")>=1);
+        assertTrue(metrics.containsKey("caches"));
+    }
+}
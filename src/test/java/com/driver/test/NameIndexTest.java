@@ -0,0 +1,69 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NameIndexTest {
+
+    @Test
+    void lookups_shouldIgnoreCaseAndSurroundingWhitespace() {
+        NameIndex<String> index = new NameIndex<>();
+        index.put("Shape of You", "song");
+        index.put(" Café Ünïcode ", "accented");
+        index.put("𐐀 emoji 🎵", "supplementary");
+
+        assertEquals("song", index.get("shape of you"));
+        assertEquals("song", index.get("  SHAPE OF YOU\t"));
+        assertEquals("accented", index.get("CAFÉ ÜNÏCODE"));
+        assertEquals("supplementary", index.get("𐐨 EMOJI 🎵"));
+        assertNull(index.get("Shape of"));
+        assertNull(index.get("Shape of You!"));
+        assertNull(index.get(""));
+
+        assertEquals(index.code("shape of you"), index.intern(" Shape Of You"));
+        assertEquals("café ünïcode", index.names().name(index.code("café ünïcode")));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void codes_shouldBeDenseAndSurviveGrowth() {
+        NameIndex<Integer> index = new NameIndex<>();
+        for(int i = 0; i < 10_000; i++) assertNull(index.put("Name " + i, i));
+        for(int i = 0; i < 10_000; i++){
+            assertEquals(i, index.code("NAME " + i));
+            assertEquals(i, index.get("name " + i));
+        }
+        assertEquals(10_000, index.names().size());
+        assertEquals(Integer.valueOf(7), index.put("name 7", 8));
+        assertEquals(10_000, index.size());
+    }
+
+    @Test
+    void concurrentInterning_shouldAssignOneCodePerName() throws Exception {
+        NameDictionary dictionary = new NameDictionary();
+        int threads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<int[]>> codes = new ArrayList<>();
+            for(int t = 0; t < threads; t++){
+                boolean upper = t % 2==0;
+                codes.add(pool.submit(() -> {
+                    int[] seen = new int[5_000];
+                    for(int i = 0; i < seen.length; i++) seen[i] = dictionary.intern(upper ? "USER " + i : "user " + i);
+                    return seen;
+                }));
+            }
+            int[] first = codes.get(0).get();
+            for(Future<int[]> other: codes) assertArrayEquals(first, other.get());
+            assertEquals(5_000, dictionary.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PaginationTest {
+
+    @TempDir
+    Path dir;
+
+    // 10 users, 7 songs on one album, a playlist of all of them that every user listens to, and likes by 000
+    private static void populate(SpotifyRepository repository) throws Exception {
+        for(int u = 9; u >= 0; u--) repository.createUser("User " + u, "00" + u);
+        repository.createAlbum("Album", "Artist");
+        List<String> titles = new ArrayList<>();
+        for(int s = 0; s < 7; s++){
+            repository.createSong("Song " + s, "Album", 200);
+            titles.add("Song " + s);
+        }
+        repository.createPlaylistOnName("005", "Mix", titles);
+        for(int u = 0; u < 10; u++) repository.findPlaylist("00" + u, "Mix");
+        for(int s = 6; s >= 0; s -= 2) repository.likeSong("000", "Song " + s);
+    }
+
+    // walks every page of limit items, checking the cursors as it goes
+    private interface Pager {
+        Page<?> page(long cursor, int limit) throws Exception;
+    }
+
+    private static List<String> all(Pager pager, int limit) throws Exception {
+        List<String> items = new ArrayList<>();
+        long cursor = 0;
+        do {
+            Page<?> page = pager.page(cursor, limit);
+            assertTrue(page.items.size()<=limit);
+            if(page.next>=0) assertEquals(limit, page.items.size());
+            for(Object item: page.items) items.add(item instanceof Song ? ((Song) item).getTitle() : ((User) item).getMobile());
+            cursor = page.next;
+        } while(cursor>=0);
+        return items;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "primitive", "sharded"})
+    void pages_shouldCoverEachRelationOnceInOrder(String store) throws Exception {
+        SpotifyRepository repository = new SpotifyRepository(store, 4);
+        populate(repository);
+
+        List<String> songs = Arrays.asList("Song 0", "Song 1", "Song 2", "Song 3", "Song 4", "Song 5", "Song 6");
+        assertEquals(songs, all((c, l) -> repository.playlistSongs("Mix", c, l), 3));
+        assertEquals(songs, all((c, l) -> repository.albumSongs("Album", c, l), 7));
+        assertEquals(Arrays.asList("Song 6", "Song 4", "Song 2", "Song 0"), all((c, l) -> repository.likedSongs("000", c, l), 3));
+
+        // listeners come by id, which is the order the users signed up in
+        List<String> listeners = all((c, l) -> repository.playlistListeners("Mix", c, l), 4);
+        assertEquals(Arrays.asList("009", "008", "007", "006", "005", "004", "003", "002", "001", "000"), listeners);
+
+        Page<Playlist> playlists = repository.userPlaylists("005", 0, 10);
+        assertEquals(1, playlists.items.size());
+        assertEquals(-1, playlists.next);
+        assertEquals(1, repository.artistAlbums("Artist", 0, 1).items.size());
+        assertTrue(repository.playlistSongs("Mix", 7, 3).items.isEmpty());
+
+        assertThrows(Exception.class, () -> repository.playlistSongs("Missing", 0, 3));
+        assertThrows(Exception.class, () -> repository.likedSongs("missing", 0, 3));
+        assertThrows(Exception.class, () -> repository.albumSongs("Missing", 0, 3));
+        assertThrows(Exception.class, () -> repository.artistAlbums("Missing", 0, 3));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "primitive", "sharded"})
+    void listeners_shouldPageByIdWhateverOrderTheyJoinedIn(String store) throws Exception {
+        SpotifyRepository repository = new SpotifyRepository(store, 4);
+        repository.createAlbum("Album", "Artist");
+        repository.createSong("Song", "Album", 200);
+        List<String> mobiles = new ArrayList<>();
+        for(int u = 0; u < 500; u++){
+            String mobile = String.format("%03d", u);
+            repository.createUser("User", mobile);
+            mobiles.add(mobile);
+        }
+        repository.createPlaylistOnName("250", "Mix", Arrays.asList("Song"));
+        List<String> joining = new ArrayList<>(mobiles);
+        Collections.shuffle(joining, new Random(7));
+        for(String mobile: joining) repository.findPlaylist(mobile, "Mix");
+
+        assertEquals(mobiles, all((c, l) -> repository.playlistListeners("Mix", c, l), 7));
+    }
+
+    @Test
+    void cursors_shouldStayValidAsRelationsGrow() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        populate(repository);
+
+        Page<User> first = repository.playlistListeners("Mix", 0, 4);
+        repository.createUser("Late", "010");
+        repository.findPlaylist("010", "Mix");
+        Page<User> second = repository.playlistListeners("Mix", first.next, 100);
+        assertEquals(7, second.items.size());
+        assertEquals("010", second.items.get(6).getMobile());
+
+        Page<Song> liked = repository.likedSongs("000", 0, 4);
+        assertEquals(-1, liked.next);
+        repository.likeSong("000", "Song 1");
+        assertEquals("Song 1", repository.likedSongs("000", 4, 4).items.get(0).getTitle());
+    }
+
+    @Test
+    void likedSongs_shouldSurviveASnapshot() throws Exception {
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            populate(persistence.getRepository());
+            persistence.snapshot();
+        }
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository reopened = persistence.getRepository();
+            // read from the catalog, still in the order they were liked
+            assertEquals(Arrays.asList("Song 6", "Song 4", "Song 2", "Song 0"), all((c, l) -> reopened.likedSongs("000", c, l), 3));
+            // a new like goes after them
+            reopened.likeSong("000", "Song 1");
+            assertEquals(Arrays.asList("Song 6", "Song 4", "Song 2", "Song 0", "Song 1"), all((c, l) -> reopened.likedSongs("000", c, l), 3));
+            persistence.snapshot();
+        }
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository reopened = persistence.getRepository();
+            assertEquals(Arrays.asList("Song 6", "Song 4", "Song 2", "Song 0", "Song 1"), all((c, l) -> reopened.likedSongs("000", c, l), 3));
+        }
+    }
+}
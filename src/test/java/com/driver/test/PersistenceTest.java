@@ -0,0 +1,332 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistenceTest {
+
+    @TempDir
+    Path dir;
+
+    private RepositoryPersistence open() throws Exception {
+        return RepositoryPersistence.open(dir, true, 0);
+    }
+
+    private static void populate(SpotifyRepository repository) throws Exception {
+        repository.createUser("John", "111");
+        repository.createUser("Doe", "222");
+        repository.createAlbum("Album 1", "Ed Shereen");
+        repository.createAlbum("Album 2", "Taylor Swift");
+        repository.createSong("Song 1", "Album 1", 200);
+        repository.createSong("Song 2", "Album 2", 180);
+        repository.createSongs(Arrays.asList(new SongRequest("Song 3", "Album 1", 200), new SongRequest("Song 1", "Album 2", 150)));
+        repository.createPlaylistOnLength("111", "Long Songs", 200);
+        repository.findPlaylist("222", "Long Songs");
+        repository.likeSong("111", "Song 1");
+        repository.likeSong("222", "Song 1");
+        repository.likeSong("222", "Song 2");
+        repository.likeSong("222", "Song 2");
+    }
+
+    private static void assertPopulated(SpotifyRepository repository) {
+        assertEquals(2, repository.users.size());
+        assertEquals(4, repository.songs.size());
+        for(int i = 0; i < repository.songs.size(); i++){
+            assertEquals(i, repository.songs.get(i).getId());
+        }
+        Song song1 = repository.getSong("Song 1");
+        assertEquals(0, song1.getId());
+        assertEquals(2, song1.getLikes());
+        assertEquals(2, repository.artistIndex.get("ed shereen").getLikes());
+        assertEquals(1, repository.artistIndex.get("taylor swift").getLikes());
+        assertEquals("Song 1", repository.mostPopularSong());
+        assertEquals("Ed Shereen", repository.mostPopularArtist());
+
+        Playlist playlist = repository.getPlaylist("Long Songs");
+        assertEquals(Arrays.asList("Song 1", "Song 3"),
+                repository.playlistSongMap.get(playlist).stream().map(Song::getTitle).collect(Collectors.toList()));
+        assertEquals(2, repository.getListenerCount(playlist));
+        assertSame(repository.getUser("111"), repository.playlistCreatorMap.get(playlist));
+        assertEquals(1, repository.userPlaylistMap.get(repository.getUser("222")).size());
+    }
+
+    @Test
+    void reopen_shouldReplayTheLog() throws Exception {
+        try (RepositoryPersistence persistence = open()){
+            populate(persistence.getRepository());
+        }
+        try (RepositoryPersistence persistence = open()){
+            assertPopulated(persistence.getRepository());
+        }
+    }
+
+    @Test
+    void reopen_shouldReplaySnapshotAndLogTail() throws Exception {
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            populate(repository);
+            persistence.snapshot();
+            repository.createUser("Jane", "333");
+            repository.likeSong("333", "Song 3");
+        }
+        assertEquals(1, files("catalog-").size());
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            assertEquals(3, repository.users.size());
+            assertEquals(1, repository.getSong("Song 3").getLikes());
+            assertEquals(3, repository.artistIndex.get("ed shereen").getLikes());
+
+            // a second snapshot drops the segments and snapshot it supersedes
+            persistence.snapshot();
+        }
+        assertEquals(1, files("catalog-").size());
+        assertEquals(1, files("wal-").size());
+        try (RepositoryPersistence persistence = open()){
+            assertEquals(3, persistence.getRepository().users.size());
+        }
+    }
+
+    @Test
+    void reopen_shouldKeepLikersInTheCatalogUntilASongIsLikedAgain() throws Exception {
+        try (RepositoryPersistence persistence = open()){
+            populate(persistence.getRepository());
+            persistence.snapshot();
+        }
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            assertPopulated(repository);
+            Song song1 = repository.getSong("Song 1");
+            assertTrue(repository.songLikeMap.isEmpty());
+            assertEquals(2, repository.getLikeCount(song1));
+
+            // a like from a user the catalog already has for the song changes nothing, and leaves the song cold
+            repository.likeSong("111", "Song 1");
+            assertNull(repository.songLikeMap.get(song1));
+            assertEquals(2, song1.getLikes());
+
+            // songs still cold are copied from the old catalog into the new one
+            persistence.snapshot();
+        }
+        try (RepositoryPersistence persistence = open()){
+            assertPopulated(persistence.getRepository());
+        }
+    }
+
+    @Test
+    void whenLogged_shouldCompleteOnceTheWriteIsDurable() throws Exception {
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            CompletableFuture<User> user = repository.whenLogged(() -> repository.createUser("John", "111"));
+            assertEquals("111", user.get(5, TimeUnit.SECONDS).getMobile());
+            // validation errors still surface on the calling thread
+            Exception e = assertThrows(Exception.class, () -> repository.whenLogged(() -> repository.likeSong("111", "Nothing")));
+            assertEquals("Song does not exist", e.getMessage());
+        }
+        try (RepositoryPersistence persistence = open()){
+            assertNotNull(persistence.getRepository().getUser("111"));
+        }
+    }
+
+    @Test
+    void unloggableCreate_shouldLeaveNothingBehind() throws Exception {
+        char[] tooLong = new char[70_000];
+        Arrays.fill(tooLong, 'a');
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createAlbum("Album 1", "Ed Shereen");
+            // a title writeUTF cannot encode
+            assertThrows(RuntimeException.class, () -> repository.createSong(new String(tooLong), "Album 1", 200));
+            assertThrows(RuntimeException.class, () -> repository.createSongs(Arrays.asList(
+                    new SongRequest("Song 1", "Album 1", 200), new SongRequest(new String(tooLong), "Album 1", 200))));
+            assertTrue(repository.songs.isEmpty());
+            assertTrue(repository.songAlbumMap.isEmpty());
+            assertTrue(repository.catalog().songs.isEmpty());
+            assertEquals(0, repository.createSong("Song 1", "Album 1", 200).getId());
+        }
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            assertEquals(1, repository.songs.size());
+            assertEquals(0, repository.getSong("Song 1").getId());
+        }
+    }
+
+    @Test
+    void closedLog_shouldRejectCreatesWithoutApplyingThem() throws Exception {
+        SpotifyRepository repository;
+        try (RepositoryPersistence persistence = open()){
+            repository = persistence.getRepository();
+            repository.createUser("John", "111");
+        }
+        assertThrows(IllegalStateException.class, () -> repository.createUser("Doe", "222"));
+        assertEquals(1, repository.users.size());
+        assertNull(repository.getUser("222"));
+        assertThrows(IllegalStateException.class, () -> repository.createPlaylistOnName("111", "Mix", Arrays.asList()));
+        assertTrue(repository.playlists.isEmpty());
+    }
+
+    @Test
+    void closedLog_shouldRejectLikesAndListensWithoutApplyingThem() throws Exception {
+        SpotifyRepository repository;
+        try (RepositoryPersistence persistence = open()){
+            repository = persistence.getRepository();
+            populate(repository);
+            repository.createUser("Jane", "333");
+        }
+        Song song3 = repository.getSong("Song 3");
+        assertThrows(IllegalStateException.class, () -> repository.likeSong("333", "Song 3"));
+        assertEquals(0, repository.getLikeCount(song3));
+        assertEquals(0, song3.getLikes());
+        Playlist playlist = repository.getPlaylist("Long Songs");
+        assertThrows(IllegalStateException.class, () -> repository.findPlaylist("333", "Long Songs"));
+        assertEquals(2, repository.getListenerCount(playlist));
+        // a like or listen that is already there needs no record
+        assertSame(playlist, repository.findPlaylist("222", "Long Songs"));
+    }
+
+    @Test
+    void failedSnapshot_shouldShowInTheMetrics() throws Exception {
+        Metrics.Counter failures = Metrics.counter("repository.snapshot.failures");
+        long before = failures.count();
+        // the first scheduled snapshot cannot create its file
+        Files.createDirectory(dir.resolve("catalog-1.tmp"));
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 1)){
+            populate(persistence.getRepository());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while(failures.count()==before && System.nanoTime()<deadline) Thread.sleep(50);
+        }
+        assertEquals(before + 1, failures.count());
+        assertTrue(failures.lastError().contains("catalog-1.tmp"));
+    }
+
+    @Test
+    void failedRotate_shouldFailTheLog() throws Exception {
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createUser("John", "111");
+            // the segment the snapshot would start already exists
+            Files.createFile(dir.resolve("wal-1.log"));
+            assertThrows(IOException.class, persistence::snapshot);
+            // nothing appended after the failure is acknowledged, or applied
+            assertThrows(UncheckedIOException.class, () -> repository.createUser("Doe", "222"));
+            assertNull(repository.getUser("222"));
+        }
+    }
+
+    @Test
+    void reopen_shouldIgnoreATornTail() throws Exception {
+        try (RepositoryPersistence persistence = open()){
+            populate(persistence.getRepository());
+        }
+        Path segment = files("wal-").get(0);
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        try (RepositoryPersistence persistence = open()){
+            assertPopulated(persistence.getRepository());
+        }
+    }
+
+    @Test
+    void snapshot_shouldNotLoseConcurrentWrites() throws Exception {
+        int threads = 4;
+        int perThread = 300;
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, false, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createAlbum("Album", "Artist");
+            List<Thread> writers = new ArrayList<>();
+            for(int t = 0; t < threads; t++){
+                int thread = t;
+                writers.add(new Thread(() -> {
+                    try {
+                        for(int i = 0; i < perThread; i++){
+                            String mobile = thread + "-" + i;
+                            repository.createUser("User", mobile);
+                            repository.createSong("Song " + mobile, "Album", 100 + i);
+                            repository.likeSong(mobile, "Song " + mobile);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for(int i = 0; i < 5; i++){
+                persistence.snapshot();
+            }
+            for(Thread writer: writers) writer.join();
+        }
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            assertEquals(threads * perThread, repository.users.size());
+            assertEquals(threads * perThread, repository.songs.size());
+            assertEquals(threads * perThread, repository.artistIndex.get("artist").getLikes());
+            for(int i = 0; i < repository.songs.size(); i++){
+                assertEquals(i, repository.songs.get(i).getId());
+                assertEquals(1, repository.songs.get(i).getLikes());
+            }
+        }
+    }
+
+    @Test
+    void reopen_shouldKeepTheIdsOfConcurrentlyCreatedUsersAndPlaylists() throws Exception {
+        int threads = 4;
+        int perThread = 200;
+        Map<String, Integer> userIds = new HashMap<>();
+        Map<String, Integer> playlistIds = new HashMap<>();
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, false, 0)){
+            SpotifyRepository repository = persistence.getRepository();
+            repository.createAlbum("Album", "Artist");
+            repository.createSong("Song", "Album", 100);
+            List<Thread> writers = new ArrayList<>();
+            for(int t = 0; t < threads; t++){
+                int thread = t;
+                writers.add(new Thread(() -> {
+                    try {
+                        for(int i = 0; i < perThread; i++){
+                            String mobile = thread + "-" + i;
+                            repository.createUser("User", mobile);
+                            repository.createPlaylistOnName(mobile, "Mix " + mobile, Arrays.asList("Song"));
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for(int i = 0; i < 5; i++){
+                persistence.snapshot();
+            }
+            for(Thread writer: writers) writer.join();
+            for(User user: repository.users) userIds.put(user.getMobile(), user.getId());
+            for(Playlist playlist: repository.playlists) playlistIds.put(playlist.getTitle(), playlist.getId());
+        }
+        try (RepositoryPersistence persistence = open()){
+            SpotifyRepository repository = persistence.getRepository();
+            assertEquals(threads * perThread, repository.playlists.size());
+            for(Map.Entry<String, Integer> e: userIds.entrySet()) assertEquals(e.getValue(), repository.getUser(e.getKey()).getId());
+            for(Map.Entry<String, Integer> e: playlistIds.entrySet()) assertEquals(e.getValue(), repository.getPlaylist(e.getKey()).getId());
+        }
+    }
+
+    private List<Path> files(String prefix) throws Exception {
+        try (Stream<Path> files = Files.list(dir)){
+            return files.filter(f -> f.getFileName().toString().startsWith(prefix)).sorted().collect(Collectors.toList());
+        }
+    }
+}
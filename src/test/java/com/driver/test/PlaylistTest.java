@@ -0,0 +1,71 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlaylistTest {
+
+    SpotifyRepository repository = new SpotifyRepository();
+    Song song1, song2, song3, song4;
+
+    @BeforeEach
+    void catalog() throws Exception {
+        repository.createUser("John", "555-1234");
+        repository.createAlbum("Album 1", "Ed Shereen");
+        repository.createAlbum("Album 2", "Taylor Swift");
+        song1 = repository.createSong("Song 1", "Album 1", 240);
+        song2 = repository.createSong("Song 2", "Album 2", 150);
+        song3 = repository.createSong("Song 3", "Album 1", 180);
+        song4 = repository.createSong("Song 4", "Album 2", 180);
+    }
+
+    @Test
+    void createPlaylistOnLength_shouldTakeSongsFromTheLengthBucket() throws Exception {
+        Playlist playlist = repository.createPlaylistOnLength("555-1234", "Three Minutes", 180);
+        assertEquals(Arrays.asList(song3, song4), repository.playlistSongMap.get(playlist));
+        // the playlist owns its list; the catalog bucket it came from is left alone
+        repository.playlistSongMap.get(playlist).remove(song3);
+        assertEquals(Arrays.asList(song3, song4), repository.catalog().songsOfLength(180));
+
+        Playlist empty = repository.createPlaylistOnLength("555-1234", "Nothing", 999);
+        assertTrue(repository.playlistSongMap.get(empty).isEmpty());
+    }
+
+    @Test
+    void createPlaylistOnLengthRange_shouldIncludeBothBounds() throws Exception {
+        Playlist playlist = repository.createPlaylistOnLengthRange("555-1234", "Three To Four", 180, 240);
+        List<Song> songs = repository.playlistSongMap.get(playlist);
+
+        assertEquals(Arrays.asList(song3, song4, song1), songs);
+        assertTrue(repository.playlistListenerMap.get(playlist).contains(repository.getUser("555-1234")));
+    }
+
+    @Test
+    void createPlaylistOnLengthRange_shouldRejectInvalidRangeAndUnknownUser() {
+        Exception range = assertThrows(Exception.class,
+                () -> repository.createPlaylistOnLengthRange("555-1234", "Backwards", 240, 180));
+        assertEquals("Invalid length range", range.getMessage());
+
+        Exception user = assertThrows(Exception.class,
+                () -> repository.createPlaylistOnLengthRange("000", "Nobody", 100, 300));
+        assertEquals("User does not exist", user.getMessage());
+        assertNull(repository.getPlaylist("Nobody"));
+    }
+
+    @Test
+    void createPlaylistOnName_shouldMatchTitlesIgnoringCaseInRequestOrder() throws Exception {
+        Song song3Again = repository.createSong("song 3", "Album 2", 200);
+        List<String> titles = Arrays.asList(" SONG 3 ", "Song 1", "Missing", "song 1");
+
+        Playlist playlist = repository.createPlaylistOnName("555-1234", "By Name", titles);
+
+        assertEquals(Arrays.asList(song3, song3Again, song1), repository.playlistSongMap.get(playlist));
+        assertEquals(Arrays.asList("Missing"), repository.getUnmatchedSongTitles(titles));
+    }
+}
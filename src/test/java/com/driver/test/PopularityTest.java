@@ -0,0 +1,90 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PopularityTest {
+
+    SpotifyRepository repository = new SpotifyRepository();
+
+    private void catalog() throws Exception {
+        repository.createUser("John", "1");
+        repository.createUser("Doe", "2");
+        repository.createUser("Jane", "3");
+        repository.createAlbum("Album 1", "Artist A");
+        repository.createAlbum("Album 2", "Artist B");
+        repository.createAlbum("Album 3", "Artist C");
+        repository.createSong("Song 1", "Album 1", 200);
+        repository.createSong("Song 2", "Album 2", 200);
+        repository.createSong("Song 3", "Album 3", 200);
+    }
+
+    @Test
+    void mostPopular_shouldBeEmptyWithoutLikes() throws Exception {
+        catalog();
+        assertEquals("", repository.mostPopularSong());
+        assertEquals("", repository.mostPopularArtist());
+        assertEquals(Collections.emptyList(), repository.mostPopularSongs(5));
+    }
+
+    @Test
+    void mostPopularSongs_shouldRankByLikesThenCreationOrder() throws Exception {
+        catalog();
+        repository.likeSong("1", "Song 3");
+        repository.likeSong("2", "Song 3");
+        repository.likeSong("1", "Song 2");
+        repository.likeSong("1", "Song 1");
+
+        // Song 1 and Song 2 tie on one like; Song 1 was created first
+        assertEquals("Song 3", repository.mostPopularSong());
+        assertEquals(Arrays.asList("Song 3", "Song 1", "Song 2"), repository.mostPopularSongs(10));
+        assertEquals(Arrays.asList("Song 3", "Song 1"), repository.mostPopularSongs(2));
+        assertEquals(Arrays.asList("Artist C", "Artist A"), repository.mostPopularArtists(2));
+    }
+
+    @Test
+    void mostPopularArtist_shouldFollowLikesAsTheyChange() throws Exception {
+        catalog();
+        repository.likeSong("1", "Song 2");
+        assertEquals("Artist B", repository.mostPopularArtist());
+
+        repository.likeSong("1", "Song 1");
+        repository.likeSong("2", "Song 1");
+        assertEquals("Artist A", repository.mostPopularArtist());
+        assertEquals("Song 1", repository.mostPopularSong());
+
+        // repeated likes do not move the ranking
+        repository.likeSong("1", "Song 2");
+        assertEquals(Arrays.asList("Artist A", "Artist B"), repository.mostPopularArtists(3));
+    }
+
+    @Test
+    void mostPopularSongs_shouldMergeShardRankingsExactly() throws Exception {
+        SpotifyRepository sharded = new SpotifyRepository("sharded", 8);
+        sharded.createAlbum("Album", "Artist");
+        for(int s = 0; s < 200; s++) sharded.createSong("Song " + s, "Album", 200);
+        for(int u = 0; u < 300; u++) sharded.createUser("User", "mobile-" + u);
+
+        // skewed, with plenty of ties, spread over every shard
+        Random random = new Random(7);
+        for(int i = 0; i < 5000; i++){
+            int song = (int) Math.min(199, Math.abs(random.nextGaussian() * 40));
+            sharded.likeSong("mobile-" + random.nextInt(300), "Song " + song);
+        }
+
+        List<String> expected = sharded.songs.stream()
+                .sorted(Comparator.comparingInt(Song::getLikes).reversed().thenComparingInt(Song::getId))
+                .map(Song::getTitle)
+                .collect(Collectors.toList());
+        for(int k: new int[]{1, 5, 50}){
+            assertEquals(expected.subList(0, k), sharded.mostPopularSongs(k));
+        }
+        assertEquals(expected.get(0), sharded.mostPopularSong());
+        assertEquals("Artist", sharded.mostPopularArtist());
+    }
+}
@@ -0,0 +1,106 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecommendationsTest {
+
+    @TempDir
+    Path dir;
+
+    // u0-u2 like Rock A and Rock B, u2 also likes Pop A, u3 likes Pop A and Pop B
+    private static void populate(SpotifyRepository repository) throws Exception {
+        for(int u = 0; u < 5; u++) repository.createUser("User " + u, "m" + u);
+        repository.createAlbum("Rock", "Rock Band");
+        repository.createAlbum("Pop", "Pop Star");
+        repository.createSong("Rock A", "Rock", 200);
+        repository.createSong("Rock B", "Rock", 210);
+        repository.createSong("Pop A", "Pop", 180);
+        repository.createSong("Pop B", "Pop", 190);
+        for(int u = 0; u < 3; u++){
+            repository.likeSong("m" + u, "Rock A");
+            repository.likeSong("m" + u, "Rock B");
+        }
+        repository.likeSong("m2", "Pop A");
+        repository.likeSong("m3", "Pop A");
+        repository.likeSong("m3", "Pop B");
+    }
+
+    @Test
+    void similarSongs_shouldRankSongsLikedByTheSameUsers() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        populate(repository);
+
+        assertEquals(Arrays.asList("Rock B", "Pop A"), repository.similarSongs("Rock A", 10));
+        assertEquals(Collections.singletonList("Rock B"), repository.similarSongs("Rock A", 1));
+        assertEquals("Pop B", repository.similarSongs("Pop A", 10).get(0));
+        assertThrows(Exception.class, () -> repository.similarSongs("Missing", 10));
+    }
+
+    @Test
+    void recommendations_shouldSkipLikesOlderThanTheHistory() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        repository.createUser("Old Fan", "m0");
+        repository.createUser("Other", "m1");
+        repository.createAlbum("Album", "Artist");
+        for(int s = 0; s <= 71; s++) repository.createSong("Song " + s, "Album", 200);
+        // m0 liked Song 0 long before the likes its recommendations start from
+        for(int s = 0; s <= 70; s++) repository.likeSong("m0", "Song " + s);
+        // which pairs Song 0 and Song 71 with m0's latest like
+        repository.likeSong("m1", "Song 0");
+        repository.likeSong("m1", "Song 70");
+        repository.likeSong("m1", "Song 71");
+
+        assertEquals(Collections.singletonList("Song 71"), repository.recommendations("m0", 100));
+    }
+
+    @Test
+    void recommendations_shouldSkipLikedSongsAndUsePlaylists() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        populate(repository);
+
+        // m0 liked both rock songs; Pop A shares likers with them
+        assertEquals(Collections.singletonList("Pop A"), repository.recommendations("m0", 10));
+        // m4 has not liked anything but listens to a playlist of Pop A
+        repository.createPlaylistOnName("m3", "Pop", Collections.singletonList("Pop A"));
+        repository.findPlaylist("m4", "Pop");
+        assertEquals("Pop B", repository.recommendations("m4", 10).get(0));
+        assertFalse(repository.recommendations("m4", 10).contains("Pop A"));
+        assertThrows(Exception.class, () -> repository.recommendations("missing", 10));
+
+        // a user with nothing to go on gets the most liked songs
+        repository.createUser("New", "m5");
+        assertEquals(repository.mostPopularSongs(2), repository.recommendations("m5", 2));
+    }
+
+    @Test
+    void rebuild_shouldMatchIncrementalUpdatesAndSurviveARestart() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        populate(repository);
+        repository.createPlaylistOnName("m0", "Mix", Arrays.asList("Pop B", "Rock B"));
+        String similar = repository.similarSongs("Rock B", 10).toString();
+        String recommended = repository.recommendations("m3", 10).toString();
+
+        repository.rebuildRecommendations();
+        assertEquals(similar, repository.similarSongs("Rock B", 10).toString());
+        assertEquals(recommended, repository.recommendations("m3", 10).toString());
+
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            populate(persistence.getRepository());
+            persistence.snapshot();
+        }
+        try (RepositoryPersistence persistence = RepositoryPersistence.open(dir, true, 0)){
+            SpotifyRepository reopened = persistence.getRepository();
+            reopened.awaitRecommendations();
+            assertEquals(Arrays.asList("Rock B", "Pop A"), reopened.similarSongs("Rock A", 10));
+            assertEquals(Collections.singletonList("Pop A"), reopened.recommendations("m0", 10));
+        }
+    }
+}
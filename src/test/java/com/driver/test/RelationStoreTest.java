@@ -0,0 +1,107 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the same operations against the heap maps, the primitive int graphs and the per-user shards
+public class RelationStoreTest {
+
+    private static SpotifyRepository populated(String store) throws Exception {
+        SpotifyRepository repository = new SpotifyRepository(store, 4);
+        repository.createUser("John", "111");
+        repository.createUser("Doe", "222");
+        repository.createAlbum("Divide", "Ed Sheeran");
+        repository.createSong("Shape of You", "Divide", 200);
+        repository.createSong("Perfect", "Divide", 200);
+        repository.createSong("Castle on the Hill", "Divide", 250);
+        return repository;
+    }
+
+    private static List<String> titles(List<Song> songs){
+        return songs.stream().map(Song::getTitle).collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "primitive", "sharded"})
+    void likes_shouldCountEachUserOnce(String store) throws Exception {
+        SpotifyRepository repository = populated(store);
+        repository.likeSong("111", "Perfect");
+        repository.likeSong("111", "Perfect");
+        repository.likeSong("222", "Perfect");
+
+        Song perfect = repository.getSong("Perfect");
+        assertEquals(2, repository.getLikeCount(perfect));
+        assertEquals(2, perfect.getLikes());
+        assertEquals(0, repository.getLikeCount(repository.getSong("Shape of You")));
+        assertEquals("Perfect", repository.mostPopularSong());
+        assertEquals(!store.equals("heap"), repository.songLikeMap.isEmpty());
+
+        // the count comes from the likers, so a counter that drifted does not change it
+        perfect.setLikes(7);
+        assertEquals(2, repository.getLikeCount(perfect));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "primitive", "sharded"})
+    void playlists_shouldTrackSongsListenersAndUserPlaylists(String store) throws Exception {
+        SpotifyRepository repository = populated(store);
+        Playlist byLength = repository.createPlaylistOnLength("111", "Two Hundred", 200);
+        Playlist byName = repository.createPlaylistOnName("222", "Favourites", Arrays.asList("Castle on the Hill", "Shape of You"));
+        repository.findPlaylist("222", "Two Hundred");
+        repository.findPlaylist("222", "Two Hundred");
+        repository.findPlaylist("111", "Two Hundred");
+
+        assertEquals(Arrays.asList("Shape of You", "Perfect"), titles(repository.getPlaylistSongs(byLength)));
+        assertEquals(Arrays.asList("Castle on the Hill", "Shape of You"), titles(repository.getPlaylistSongs(byName)));
+        assertEquals(2, repository.getListenerCount(byLength));
+        assertEquals(1, repository.getListenerCount(byName));
+        assertEquals(Arrays.asList(byName, byLength), repository.getUserPlaylists(repository.getUser("222")));
+        assertEquals(Arrays.asList(byLength), repository.getUserPlaylists(repository.getUser("111")));
+        assertEquals(byName, repository.getCreatedPlaylist(repository.getUser("222")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"heap", "primitive", "sharded"})
+    void concurrentLikes_shouldNotLoseOrDuplicateEdges(String store) throws Exception {
+        SpotifyRepository repository = new SpotifyRepository(store, 4);
+        repository.createAlbum("Album", "Artist");
+        int songs = 20;
+        int usersPerThread = 200;
+        int threads = 4;
+        for(int s = 0; s < songs; s++) repository.createSong("Song " + s, "Album", 100);
+        for(int u = 0; u < usersPerThread * threads; u++) repository.createUser("User", "m" + u);
+
+        List<Thread> likers = new ArrayList<>();
+        for(int t = 0; t < threads; t++){
+            int thread = t;
+            likers.add(new Thread(() -> {
+                try {
+                    // every user likes every song twice
+                    for(int round = 0; round < 2; round++){
+                        for(int u = thread * usersPerThread; u < (thread + 1) * usersPerThread; u++){
+                            for(int s = 0; s < songs; s++) repository.likeSong("m" + u, "Song " + s);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        likers.forEach(Thread::start);
+        for(Thread t: likers) t.join();
+
+        for(int s = 0; s < songs; s++){
+            Song song = repository.getSong("Song " + s);
+            assertEquals(usersPerThread * threads, repository.getLikeCount(song));
+            assertEquals(usersPerThread * threads, song.getLikes());
+        }
+    }
+}
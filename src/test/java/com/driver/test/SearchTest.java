@@ -0,0 +1,75 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchTest {
+
+    SpotifyRepository repository = new SpotifyRepository();
+
+    private List<String> names(String q, int limit){
+        return repository.search(q, limit).stream().map(r -> r.getType() + ":" + r.getName()).collect(Collectors.toList());
+    }
+
+    private void catalog() throws Exception {
+        repository.createUser("John", "111");
+        repository.createUser("Doe", "222");
+        repository.createAlbum("Divide", "Ed Sheeran");
+        repository.createAlbum("Shadows", "Shania Twain");
+        repository.createSong("Shape of You", "Divide", 200);
+        repository.createSong("Perfect", "Divide", 200);
+        repository.createSong("Shallow", "Shadows", 180);
+        repository.createSong("Perfect Day", "Shadows", 220);
+    }
+
+    @Test
+    void search_shouldCompletePrefixesAcrossSongsAlbumsAndArtists() throws Exception {
+        catalog();
+        repository.likeSong("111", "Shallow");
+        repository.likeSong("222", "Shallow");
+        repository.likeSong("111", "Shape of You");
+
+        // Shallow, its album and its artist all have 2 likes: the shorter name, then the name, breaks the tie
+        assertEquals(Arrays.asList("album:Shadows", "song:Shallow", "artist:Shania Twain", "song:Shape of You"),
+                names("sha", 10));
+        assertEquals(Arrays.asList("album:Shadows", "song:Shallow"), names("SHA", 2));
+    }
+
+    @Test
+    void search_shouldRequireEveryCompleteWord() throws Exception {
+        catalog();
+        assertEquals(Arrays.asList("song:Perfect", "song:Perfect Day"), names("perfect ", 10));
+        assertEquals(Arrays.asList("song:Perfect Day"), names("perfect d", 10));
+        assertEquals(Arrays.asList("song:Shape of You"), names("you shape", 10));
+        assertTrue(names("perfect x", 10).isEmpty());
+        assertTrue(names("   ", 10).isEmpty());
+        assertTrue(names("sha", 0).isEmpty());
+    }
+
+    @Test
+    void search_shouldSeeItemsAsTheyAreCreatedAndRecovered() throws Exception {
+        assertTrue(names("div", 10).isEmpty());
+        repository.createAlbum("Divide", "Ed Sheeran");
+        repository.createSongs(Arrays.asList(new SongRequest("Dive", "Divide", 200)));
+        assertEquals(Arrays.asList("song:Dive", "album:Divide"), names("div", 10));
+    }
+
+    @Test
+    void search_shouldFindPopularSongsBeyondTheBudget() throws Exception {
+        repository.createUser("John", "111");
+        repository.createAlbum("Album", "Artist");
+        List<SongRequest> songs = new java.util.ArrayList<>();
+        for(int i = 0; i < 10_000; i++) songs.add(new SongRequest("Song " + i, "Album", 200));
+        repository.createSongs(songs);
+        repository.likeSong("111", "Song 9999");
+
+        assertEquals("song:Song 9999", names("so", 1).get(0));
+        assertEquals("song:Song 9999", names("song 9999", 1).get(0));
+    }
+}
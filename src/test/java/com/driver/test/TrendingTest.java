@@ -0,0 +1,72 @@
+package com.driver.test;
+
+import com.driver.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrendingTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(1000));
+
+    private void advance(long amount, TimeUnit unit){
+        now.addAndGet(unit.toMillis(amount));
+    }
+
+    @Test
+    void trending_shouldOnlyCountLikesInsideTheWindow() throws Exception {
+        SpotifyRepository repository = new SpotifyRepository();
+        repository.setTrendingClock(now::get);
+        for(int u = 0; u < 3; u++) repository.createUser("User", "m" + u);
+        repository.createAlbum("Old Album", "Old Artist");
+        repository.createAlbum("New Album", "New Artist");
+        repository.createSong("Old Hit", "Old Album", 200);
+        repository.createSong("New Hit", "New Album", 200);
+
+        for(int u = 0; u < 3; u++) repository.likeSong("m" + u, "Old Hit");
+        advance(50, TimeUnit.MINUTES);
+        repository.likeSong("m0", "New Hit");
+        assertEquals(Arrays.asList("Old Hit", "New Hit"), repository.trendingSongs("1h", 10));
+
+        // the old likes leave the hour but stay in the day and in the all-time chart
+        advance(20, TimeUnit.MINUTES);
+        assertEquals(Arrays.asList("New Hit"), repository.trendingSongs("1h", 10));
+        assertEquals(Arrays.asList("New Artist"), repository.trendingArtists("1h", 10));
+        assertEquals(Arrays.asList("Old Hit", "New Hit"), repository.trendingSongs("1d", 10));
+        assertEquals("Old Hit", repository.mostPopularSong());
+
+        advance(2, TimeUnit.DAYS);
+        assertEquals(Collections.emptyList(), repository.trendingSongs("1d", 10));
+        assertEquals(0, repository.songTrends.get("1d").tracked());
+    }
+
+    @Test
+    void trending_shouldRejectUnknownWindows(){
+        SpotifyRepository repository = new SpotifyRepository();
+        Exception e = assertThrows(Exception.class, () -> repository.trendingSongs("1y", 10));
+        assertTrue(e.getMessage().startsWith("Unknown window"));
+    }
+
+    @Test
+    void record_shouldKeepTheRankingExactUnderConcurrentLikes() throws Exception {
+        TrendingChart<String> chart = new TrendingChart<>(TimeUnit.HOURS.toMillis(1), 12, now::get);
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++){
+            threads[t] = new Thread(() -> {
+                // item i gets i likes from every thread
+                for(int i = 0; i < 50; i++){
+                    for(int n = 0; n < i; n++) chart.record("item " + i, i, 1);
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread t: threads) t.join();
+        assertEquals(Arrays.asList("item 49", "item 48", "item 47"), chart.top(3));
+        assertEquals(49, chart.tracked());
+    }
+}